@@ -36,5 +36,7 @@ export default class RecordCache<Record extends Model> {
 
   _cachedModelForId(id: RecordId): Record
 
+  _hasAdapterEvicted(): boolean
+
   _modelForRaw(raw: RawRecord): Record
 }
@@ -79,13 +79,19 @@ var RecordCache = exports.default = /*#__PURE__*/function () {
     }
     return record;
   };
+  _proto._hasAdapterEvicted = function () {
+    var _adapter$_hasNativeRe;
+    var adapter = this._debugCollection.database.adapter.underlyingAdapter;
+    // $FlowFixMe
+    return !!(null === (_adapter$_hasNativeRe = adapter._hasNativeRecordCacheEvicted) || void 0 === _adapter$_hasNativeRe ? void 0 : _adapter$_hasNativeRe.call(adapter, this.tableName));
+  };
   _proto._modelForRaw = function (raw, warnIfCached = true) {
     // Sanity check: is this already cached?
     var cachedRecord = this.map.get(raw.id);
     if (cachedRecord) {
       // This may legitimately happen if we previously got ID without a record and we cleared
-      // adapter-side cached record ID maps to recover
-      warnIfCached && _logger.default.warn("Record ".concat(this.tableName, "#").concat(cachedRecord.id, " is cached, but full raw object was sent over the bridge"));
+      // adapter-side cached record ID maps to recover, or if adapter-side cache is size-limited
+      warnIfCached && !this._hasAdapterEvicted() && _logger.default.warn("Record ".concat(this.tableName, "#").concat(cachedRecord.id, " is cached, but full raw object was sent over the bridge"));
       return cachedRecord;
     }
 
@@ -20,11 +20,15 @@ import type {
   SQLiteQuery,
   SqliteDispatcher,
   MigrationEvents,
+  QueryCursor,
+  NativeChanges,
+  NativeTuningProfile,
 } from './type'
 
 import { $Shape } from '../../types'
+import { Unsubscribe } from '../../utils/subscriptions'
 
-export type { SQL, SQLiteArg, SQLiteQuery }
+export type { SQL, SQLiteArg, SQLiteQuery, QueryCursor }
 
 export default class SQLiteAdapter implements DatabaseAdapter {
   static adapterType: string
@@ -45,12 +49,18 @@ export default class SQLiteAdapter implements DatabaseAdapter {
 
   _initPromise: Promise<void>
 
+  _nativeRecordCacheEvictedTables: Set<TableName<any>>
+
+  _nativeChangeSubscribers: Array<(changes: NativeChanges) => void>
+
   constructor(options: SQLiteAdapterOptions)
 
   get initializingPromise(): Promise<void>
 
   testClone(options?: $Shape<SQLiteAdapterOptions>): Promise<SQLiteAdapter>
 
+  unsafeClose(): void
+
   _getName(name?: string): string
 
   _init(callback: ResultCallback<void>): void
@@ -67,6 +77,27 @@ export default class SQLiteAdapter implements DatabaseAdapter {
 
   unsafeQueryRaw(query: SerializedQuery, callback: ResultCallback<any[]>): void
 
+  openQueryCursor(query: SerializedQuery, raw: boolean, callback: ResultCallback<QueryCursor>): void
+
+  fetchQueryCursor(cursor: QueryCursor, count: number, callback: ResultCallback<any[]>): void
+
+  closeQueryCursor(cursor: QueryCursor, callback: ResultCallback<void>): void
+
+  getNativeStats(callback: ResultCallback<any>): void
+
+  resetNativeStats(callback: ResultCallback<void>): void
+
+  getNativeSlowQueries(callback: ResultCallback<any[]>): void
+
+  experimentalSubscribeToNativeChanges(subscriber: (changes: NativeChanges) => void): Unsubscribe
+
+  experimentalRekey(passphrase: string, callback: ResultCallback<void>): void
+
+  experimentalSetNativeTuningProfile(
+    profile: NativeTuningProfile,
+    callback: ResultCallback<void>,
+  ): void
+
   count(query: SerializedQuery, callback: ResultCallback<number>): void
 
   batch(operations: BatchOperation[], callback: ResultCallback<void>): void
@@ -93,6 +124,12 @@ export default class SQLiteAdapter implements DatabaseAdapter {
 
   removeLocal(key: string, callback: ResultCallback<void>): void
 
+  _onNativeRecordCacheEviction(table: TableName<any>, ids: RecordId[]): void
+
+  _onNativeChanges(changes: NativeChanges): void
+
+  _hasNativeRecordCacheEvicted(table: TableName<any>): boolean
+
   _encodedSchema(): SQL
 
   _migrationSteps(fromVersion: SchemaVersion): MigrationStep[] | undefined
@@ -21,6 +21,9 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
     var _this$passphrase,
       _this = this;
     this._tag = (0, _common.connectionTag)();
+    // Tables whose records native record cache has evicted since the database was opened (or reset)
+    this._nativeRecordCacheEvictedTables = new Set();
+    this._nativeChangeSubscribers = [];
     // console.log(`---> Initializing new adapter (${this._tag})`)
     var {
       dbName: dbName,
@@ -29,6 +32,19 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
       migrationEvents: migrationEvents,
       usesExclusiveLocking = false,
       experimentalUnsafeNativeReuse = false,
+      experimentalNativeRecordCacheLimit = null,
+      experimentalNativeReadPoolSize = 0,
+      experimentalNativeJNIDriver = false,
+      experimentalNativeSlowQueryThreshold = 0,
+      experimentalNativeGroupCommitWindow = null,
+      experimentalNativeChangeFeed = false,
+      experimentalNativeQueryCacheSize = 0,
+      experimentalNativeCountCache = false,
+      experimentalNativeKdfIterations = 0,
+      experimentalNativeCacheDerivedKey = false,
+      experimentalNativeTuningProfile = null,
+      experimentalNativeCheckpointIdleTime = 0,
+      experimentalNativeSchemaTemplates = false,
       passphrase = null
     } = options;
     this.schema = schema;
@@ -42,7 +58,31 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
     this._dispatcher = (0, _makeDispatcher.makeDispatcher)(this._dispatcherType, this._tag, this.dbName, {
       usesExclusiveLocking: usesExclusiveLocking,
       experimentalUnsafeNativeReuse: experimentalUnsafeNativeReuse,
-      password: null !== (_this$passphrase = this.passphrase) && void 0 !== _this$passphrase ? _this$passphrase : ''
+      password: null !== (_this$passphrase = this.passphrase) && void 0 !== _this$passphrase ? _this$passphrase : '',
+      nativeRecordCacheLimit: experimentalNativeRecordCacheLimit,
+      nativeReadPoolSize: experimentalNativeReadPoolSize,
+      nativeJNIDriver: experimentalNativeJNIDriver,
+      nativeSlowQueryThreshold: experimentalNativeSlowQueryThreshold,
+      nativeGroupCommitWindow: experimentalNativeGroupCommitWindow,
+      nativeChangeFeed: experimentalNativeChangeFeed,
+      nativeQueryCacheSize: experimentalNativeQueryCacheSize,
+      nativeCountCache: experimentalNativeCountCache,
+      nativeKdfIterations: experimentalNativeKdfIterations,
+      nativeCacheDerivedKey: experimentalNativeCacheDerivedKey,
+      nativeTuningProfile: experimentalNativeTuningProfile,
+      nativeCheckpointIdleTime: experimentalNativeCheckpointIdleTime,
+      nativeSchemaTemplates: experimentalNativeSchemaTemplates,
+      nativeColumnTypes: (0, _fp.mapObj)(function (table) {
+        return (0, _fp.mapObj)(function (column) {
+          return column.type;
+        }, table.columns);
+      }, schema.tables),
+      onNativeRecordCacheEviction: function onNativeRecordCacheEviction(table, ids) {
+        return _this._onNativeRecordCacheEviction(table, ids);
+      },
+      onNativeChanges: function onNativeChanges(changes) {
+        return _this._onNativeChanges(changes);
+      }
     });
     if ('production' !== process.env.NODE_ENV) {
       (0, _common2.validateAdapter)(this);
@@ -74,6 +114,14 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
         }
       }, $error);
     }.bind(this));
+  }
+
+  // Stops listening to native events of this adapter (Android record cache evictions and changes).
+  // Call it once the adapter won't be used anymore (e.g. when replacing it with a new one)
+  ;
+  _proto.unsafeClose = function () {
+    var _this$_dispatcher$uns, _this$_dispatcher;
+    null === (_this$_dispatcher$uns = (_this$_dispatcher = this._dispatcher).unsafeClose) || void 0 === _this$_dispatcher$uns ? void 0 : _this$_dispatcher$uns.call(_this$_dispatcher);
   };
   _proto._getName = function (name) {
     if ('test' === process.env.NODE_ENV) {
@@ -180,6 +228,80 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
     // $FlowFixMe
     (0, _encodeQuery.default)(query), callback);
   };
+  // (Android/non-JSI only) Opens a cursor over results of the query, so that they can be fetched
+  // (and processed) page by page, without holding all of them in memory. Pass `raw` to get results
+  // like unsafeQueryRaw, otherwise they're like query's
+  _proto.openQueryCursor = function (query, raw, callback) {
+    (0, _common2.validateTable)(query.table, this.schema);
+    var table = raw ? null : query.table;
+    var [sql, args] = (0, _encodeQuery.default)(query);
+    this._dispatcher.call('openQueryCursor', [table, sql, args], function (result) {
+      return callback((0, _Result.mapValue)(function (handle) {
+        return {
+          handle: handle,
+          table: table
+        };
+      }, result));
+    });
+  };
+  // Fetches up to `count` next results. Fewer results mean that there are no more (and the cursor
+  // is closed)
+  _proto.fetchQueryCursor = function (cursor, count, callback) {
+    var _this6 = this;
+    var {
+      handle: handle,
+      table: table
+    } = cursor;
+    this._dispatcher.call('fetchQueryCursor', [handle, count], function (result) {
+      return callback(table ? (0, _Result.mapValue)(function (rawRecords) {
+        return (0, _common2.sanitizeQueryResult)(rawRecords, _this6.schema.tables[table]);
+      }, result) : result);
+    });
+  };
+  _proto.closeQueryCursor = function (cursor, callback) {
+    this._dispatcher.call('closeQueryCursor', [cursor.handle], callback);
+  };
+  // (Android/non-JSI only) Returns native stats of this database connection: latency percentiles
+  // of each operation (in ms, including time spent waiting in queue), rows and bytes returned,
+  // statements per batch, and record/query cache hit ratios - since it was opened or since
+  // resetNativeStats
+  _proto.getNativeStats = function (callback) {
+    this._dispatcher.call('getStats', [], callback);
+  };
+  _proto.resetNativeStats = function (callback) {
+    this._dispatcher.call('resetStats', [], callback);
+  };
+  // (Android/non-JSI only) Returns the most recent queries slower than
+  // experimentalNativeSlowQueryThreshold, oldest first, with their query plans
+  _proto.getNativeSlowQueries = function (callback) {
+    this._dispatcher.call('getSlowQueries', [], callback);
+  };
+  // (With experimentalNativeChangeFeed) Calls subscriber with records changed by every committed
+  // native transaction - including writes that didn't go through batch (e.g. unsafeExecute)
+  _proto.experimentalSubscribeToNativeChanges = function (subscriber) {
+    var _this7 = this;
+    this._nativeChangeSubscribers.push(subscriber);
+    return function () {
+      var idx = _this7._nativeChangeSubscribers.indexOf(subscriber);
+      -1 !== idx && _this7._nativeChangeSubscribers.splice(idx, 1);
+    };
+  };
+  // (Android/non-JSI only) Re-encrypts the database with a new passphrase or raw key (see
+  // `passphrase`), e.g. to move an existing database to a raw key. Not supported with a read pool
+  _proto.experimentalRekey = function (passphrase, callback) {
+    var _this8 = this;
+    this._dispatcher.call('rekey', [passphrase], function (result) {
+      if (!result.error) {
+        _this8.passphrase = passphrase;
+      }
+      callback(result);
+    });
+  };
+  // (Android/non-JSI only) Switches connection settings to another tuning profile (see
+  // experimentalNativeTuningProfile), e.g. to 'bulk-sync' before a large sync pull, and back after
+  _proto.experimentalSetNativeTuningProfile = function (profile, callback) {
+    this._dispatcher.call('setTuningProfile', [profile], callback);
+  };
   _proto.count = function (query, callback) {
     (0, _common2.validateTable)(query.table, this.schema);
     this._dispatcher.call('count',
@@ -201,12 +323,7 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
     this._dispatcher.call('batch', [[operation]], callback);
   };
   _proto.unsafeLoadFromSync = function (jsonId, callback) {
-    if ('jsi' !== this._dispatcherType) {
-      callback({
-        error: new Error('unsafeLoadFromSync unavailable. Use JSI mode to enable.')
-      });
-      return;
-    }
+    // NOTE: Non-JSI dispatchers return an error if unavailable
     var {
       encodeDropIndices: encodeDropIndices,
       encodeCreateIndices: encodeCreateIndices
@@ -225,15 +342,10 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
     });
   };
   _proto.provideSyncJson = function (id, syncPullResultJson, callback) {
-    if ('jsi' !== this._dispatcherType) {
-      callback({
-        error: new Error('provideSyncJson unavailable. Use JSI mode to enable.')
-      });
-      return;
-    }
     this._dispatcher.call('provideSyncJson', [id, syncPullResultJson], callback);
   };
   _proto.unsafeResetDatabase = function (callback) {
+    this._nativeRecordCacheEvictedTables = new Set();
     this._dispatcher.call('unsafeResetDatabase', [this._encodedSchema(), this.schema.version], function (result) {
       if (result.value) {
         _common.logger.log('[SQLite] Database is now reset');
@@ -264,6 +376,25 @@ var SQLiteAdapter = exports.default = /*#__PURE__*/function () {
   };
   _proto.removeLocal = function (key, callback) {
     this._dispatcher.call('batch', [[[IGNORE_CACHE, null, "delete from \"local_storage\" where \"key\" == ?", [[key]]]]], callback);
+  }
+
+  // NOTE: Evicted ids aren't kept, since most of them are never sent again (and after a trim, they
+  // could be all ids of the table)
+  ;
+  _proto._onNativeRecordCacheEviction = function (table, ids) {
+    ids.length && this._nativeRecordCacheEvictedTables.add(table);
+  };
+  _proto._onNativeChanges = function (changes) {
+    this._nativeChangeSubscribers.forEach(function (subscriber) {
+      return subscriber(changes);
+    });
+  }
+
+  // Returns true if native record cache has evicted records of this table, i.e. records that are
+  // already cached in JS may be sent over the bridge in full
+  ;
+  _proto._hasNativeRecordCacheEvicted = function (table) {
+    return this._nativeRecordCacheEvictedTables.has(table);
   };
   _proto._encodedSchema = function () {
     return require('./encodeSchema').encodeSchema(this.schema);
@@ -13,6 +13,12 @@ var SqliteNodeDispatcher = /*#__PURE__*/function () {
   }
   var _proto = SqliteNodeDispatcher.prototype;
   _proto.call = function (methodName, args, callback) {
+    if (!_DatabaseBridge.default[methodName]) {
+      callback({
+        error: new Error("".concat(methodName, " unavailable. Use JSI mode to enable."))
+      });
+      return;
+    }
     // $FlowFixMe
     var method = _DatabaseBridge.default[methodName].bind(_DatabaseBridge.default);
     method.apply(void 0, [this._tag].concat((0, _toConsumableArray2.default)(args), [function (value) {
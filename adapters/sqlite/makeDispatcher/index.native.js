@@ -16,12 +16,71 @@ var {
 var SqliteNativeModulesDispatcher = /*#__PURE__*/function () {
   function SqliteNativeModulesDispatcher(tag, bridge, {
     experimentalUnsafeNativeReuse: experimentalUnsafeNativeReuse,
-    password: password
+    password: password,
+    nativeRecordCacheLimit: nativeRecordCacheLimit,
+    nativeReadPoolSize: nativeReadPoolSize,
+    nativeColumnTypes: nativeColumnTypes,
+    nativeJNIDriver: nativeJNIDriver,
+    nativeSlowQueryThreshold: nativeSlowQueryThreshold,
+    nativeGroupCommitWindow: nativeGroupCommitWindow,
+    nativeChangeFeed: nativeChangeFeed,
+    nativeQueryCacheSize: nativeQueryCacheSize,
+    nativeCountCache: nativeCountCache,
+    nativeKdfIterations: nativeKdfIterations,
+    nativeCacheDerivedKey: nativeCacheDerivedKey,
+    nativeTuningProfile: nativeTuningProfile,
+    nativeCheckpointIdleTime: nativeCheckpointIdleTime,
+    nativeSchemaTemplates: nativeSchemaTemplates,
+    onNativeRecordCacheEviction: onNativeRecordCacheEviction,
+    onNativeChanges: onNativeChanges
   }) {
+    var _nativeRecordCacheLim, _nativeRecordCacheLim2,
+      _this = this;
     this._tag = tag;
     this._bridge = bridge;
     this._unsafeNativeReuse = experimentalUnsafeNativeReuse;
     this._password = null !== password && void 0 !== password ? password : '';
+    this._nativeOptions = {
+      recordCacheMaxRecords: null !== (_nativeRecordCacheLim = null === nativeRecordCacheLimit || void 0 === nativeRecordCacheLimit ? void 0 : nativeRecordCacheLimit.maxRecords) && void 0 !== _nativeRecordCacheLim ? _nativeRecordCacheLim : 0,
+      recordCacheMaxBytes: null !== (_nativeRecordCacheLim2 = null === nativeRecordCacheLimit || void 0 === nativeRecordCacheLimit ? void 0 : nativeRecordCacheLimit.maxBytes) && void 0 !== _nativeRecordCacheLim2 ? _nativeRecordCacheLim2 : 0,
+      readPoolSize: null !== nativeReadPoolSize && void 0 !== nativeReadPoolSize ? nativeReadPoolSize : 0,
+      columnTypes: null !== nativeColumnTypes && void 0 !== nativeColumnTypes ? nativeColumnTypes : {},
+      jniDriver: null !== nativeJNIDriver && void 0 !== nativeJNIDriver ? nativeJNIDriver : false,
+      slowQueryThresholdMs: null !== nativeSlowQueryThreshold && void 0 !== nativeSlowQueryThreshold ? nativeSlowQueryThreshold : 0,
+      groupCommitWindowMs: null !== nativeGroupCommitWindow && void 0 !== nativeGroupCommitWindow ? nativeGroupCommitWindow : -1,
+      changeFeed: null !== nativeChangeFeed && void 0 !== nativeChangeFeed ? nativeChangeFeed : false,
+      queryCacheMaxBytes: null !== nativeQueryCacheSize && void 0 !== nativeQueryCacheSize ? nativeQueryCacheSize : 0,
+      countCache: null !== nativeCountCache && void 0 !== nativeCountCache ? nativeCountCache : false,
+      kdfIterations: null !== nativeKdfIterations && void 0 !== nativeKdfIterations ? nativeKdfIterations : 0,
+      cacheDerivedKey: null !== nativeCacheDerivedKey && void 0 !== nativeCacheDerivedKey ? nativeCacheDerivedKey : false,
+      tuningProfile: null !== nativeTuningProfile && void 0 !== nativeTuningProfile ? nativeTuningProfile : null,
+      checkpointIdleMs: null !== nativeCheckpointIdleTime && void 0 !== nativeCheckpointIdleTime ? nativeCheckpointIdleTime : 0,
+      schemaTemplates: null !== nativeSchemaTemplates && void 0 !== nativeSchemaTemplates ? nativeSchemaTemplates : false
+    };
+    this._subscriptions = [];
+    // NOTE: Records are also evicted on memory pressure, even if cache size isn't limited
+    if (onNativeRecordCacheEviction && 'android' === _reactNative.Platform.OS) {
+      this._subscriptions.push(_reactNative.DeviceEventEmitter.addListener('WMDatabaseBridge.recordCacheEvicted', function ({
+        tag: eventTag,
+        evicted: evicted
+      }) {
+        if (eventTag === _this._tag) {
+          Object.keys(evicted).forEach(function (table) {
+            return onNativeRecordCacheEviction(table, evicted[table]);
+          });
+        }
+      }));
+    }
+    if (nativeChangeFeed && onNativeChanges && 'android' === _reactNative.Platform.OS) {
+      this._subscriptions.push(_reactNative.DeviceEventEmitter.addListener('WMDatabaseBridge.changes', function ({
+        tag: eventTag,
+        changes: changes
+      }) {
+        if (eventTag === _this._tag) {
+          onNativeChanges(changes);
+        }
+      }));
+    }
     if ('production' !== process.env.NODE_ENV) {
       (0, _common.invariant)(this._bridge, "NativeModules.WMDatabaseBridge is not defined! This means that you haven't properly linked WatermelonDB native module. Refer to docs for instructions about installation (and the changelog if this happened after an upgrade).");
       (0, _common.invariant)('windows' !== _reactNative.Platform.OS, 'Windows is only supported via JSI. Pass { jsi: true } to SQLiteAdapter constructor.');
@@ -29,32 +88,129 @@ var SqliteNativeModulesDispatcher = /*#__PURE__*/function () {
   }
   var _proto = SqliteNativeModulesDispatcher.prototype;
   _proto.call = function (name, _args, callback) {
-    var _this$_bridge;
+    var _this$_bridge2, _this$_bridge;
     var methodName = name;
     var args = _args;
-    if ('batch' === methodName && this._bridge.batchJSON) {
+    if (('provideSyncJson' === methodName || 'unsafeLoadFromSync' === methodName) && !this._bridge.unsafeLoadFromSync) {
+      callback({
+        error: new Error("".concat(methodName, " unavailable. Use JSI mode to enable."))
+      });
+      return;
+    } else if (this._nativeOptions.jniDriver && ['openQueryCursor', 'fetchQueryCursor', 'closeQueryCursor', 'provideSyncJson', 'unsafeLoadFromSync'].includes(methodName)) {
+      // NOTE: Not supported by the JNI driver (see WMDatabaseJNIDriver)
+      callback({
+        error: new Error("".concat(methodName, " unavailable with experimentalNativeJNIDriver"))
+      });
+      return;
+    } else if (('getStats' === methodName || 'resetStats' === methodName || 'getSlowQueries' === methodName) && !this._bridge.getStats || 'rekey' === methodName && !this._bridge.rekey || 'setTuningProfile' === methodName && !this._bridge.setTuningProfile) {
+      callback({
+        error: new Error("".concat(methodName, " unavailable on this platform"))
+      });
+      return;
+    } else if ('provideSyncJson' === methodName) {
+      // NOTE: sync json is not tied to a connection
+      (0, _Result.fromPromise)((_this$_bridge2 = this._bridge).provideSyncJsonToBridge.apply(_this$_bridge2, (0, _toConsumableArray2.default)(args)), callback);
+      return;
+    } else if ('unsafeLoadFromSync' === methodName) {
+      // NOTE: Only column definitions are needed, and the rest of schema might not be bridgeable
+      var [jsonId, schema, preamble, postamble] = args;
+      var tables = {};
+      Object.keys(schema.tables).forEach(function (table) {
+        tables[table] = {
+          columnArray: schema.tables[table].columnArray
+        };
+      });
+      args = [jsonId, {
+        tables: tables
+      }, preamble, postamble];
+    } else if ('batch' === methodName && this._bridge.batchJSON) {
       methodName = 'batchJSON';
       args = [JSON.stringify(args[0])];
+    } else if ('query' === methodName && this._bridge.queryAsArray) {
+      // NOTE: compressed format avoids sending column names over the bridge for every record
+      methodName = 'queryAsArray';
     } else if (['initialize', 'setUpWithSchema', 'setUpWithMigrations'].includes(methodName) && 'android' === _reactNative.Platform.OS) {
       // FIXME: Hacky, refactor once native reuse isn't an "unsafe experimental" option
       args.push(this._password);
       args.push(this._unsafeNativeReuse);
+      args.push(this._nativeOptions);
+    }
+    var promise = (_this$_bridge = this._bridge)[methodName].apply(_this$_bridge, [this._tag].concat((0, _toConsumableArray2.default)(args)));
+    if (['queryAsArray', 'query', 'queryIds', 'unsafeQueryRaw'].includes(methodName)) {
+      // NOTE: JNI driver returns query results as JSON, which is faster than bridge arrays
+      promise = promise.then(function (result) {
+        return 'string' === typeof result ? JSON.parse(result) : result;
+      });
     }
-    (0, _Result.fromPromise)((_this$_bridge = this._bridge)[methodName].apply(_this$_bridge, [this._tag].concat((0, _toConsumableArray2.default)(args))), callback);
+    (0, _Result.fromPromise)('queryAsArray' === methodName || 'fetchQueryCursor' === methodName ? promise.then(function (result) {
+      return require('./decodeQueryResult').default(result);
+    }) : promise, callback);
+  }
+
+  // Stops listening to native events - otherwise, the listeners (and this dispatcher) are never
+  // released
+  ;
+  _proto.unsafeClose = function () {
+    this._subscriptions.forEach(function (subscription) {
+      return subscription.remove();
+    });
+    this._subscriptions = [];
   };
   return SqliteNativeModulesDispatcher;
 }();
+// Methods after which native changes are checked (JSI)
+var WRITE_METHODS = ['batchJSON', 'unsafeExecuteMultiple', 'unsafeLoadFromSync', 'unsafeResetDatabase', 'unsafeQueryRaw'];
 var SqliteJsiDispatcher = /*#__PURE__*/function () {
   // debug hook for NT use
 
   function SqliteJsiDispatcher(dbName, {
     usesExclusiveLocking: usesExclusiveLocking,
-    password: password
+    password: password,
+    nativeChangeFeed: nativeChangeFeed,
+    onNativeRecordCacheEviction: onNativeRecordCacheEviction,
+    onNativeChanges: onNativeChanges
   }) {
     this._db = global.nativeWatermelonCreateAdapter(dbName, null !== password && void 0 !== password ? password : '', usesExclusiveLocking);
     this._unsafeErrorListener = function () {};
+    this._onNativeRecordCacheEviction = onNativeRecordCacheEviction;
+    this._onNativeChanges = nativeChangeFeed ? onNativeChanges : null;
   }
+
+  // Native record cache can be trimmed on memory pressure. JS must be told about it before it
+  // receives results that depend on it, so evictions are checked after every fetch
   var _proto2 = SqliteJsiDispatcher.prototype;
+  _proto2._drainRecordCacheEvictions = function () {
+    var _this$_db$drainRecord, _this$_db;
+    var evicted = null === (_this$_db$drainRecord = (_this$_db = this._db).drainRecordCacheEvictions) || void 0 === _this$_db$drainRecord ? void 0 : _this$_db$drainRecord.call(_this$_db);
+    if (evicted && this._onNativeRecordCacheEviction) {
+      var onEviction = this._onNativeRecordCacheEviction;
+      Object.keys(evicted).forEach(function (table) {
+        return onEviction(table, evicted[table]);
+      });
+    }
+  }
+
+  // NOTE: Changes are recorded once the database is set up, so setting it up isn't reported
+  ;
+  _proto2._enableChangeFeed = function (methodName, result) {
+    if ('initialize' === methodName && 'ok' === result.code || 'setUpWithSchema' === methodName || 'setUpWithMigrations' === methodName) {
+      var _this$_db$enableChang, _this$_db2;
+      null === (_this$_db$enableChang = (_this$_db2 = this._db).enableChangeFeed) || void 0 === _this$_db$enableChang ? void 0 : _this$_db$enableChang.call(_this$_db2);
+    }
+  }
+
+  // Tells subscribers which records were changed by the last call - one call per transaction
+  ;
+  _proto2._drainChanges = function () {
+    var _this$_db$drainChange, _this$_db3;
+    var commits = null === (_this$_db$drainChange = (_this$_db3 = this._db).drainChanges) || void 0 === _this$_db$drainChange ? void 0 : _this$_db$drainChange.call(_this$_db3);
+    if (commits && this._onNativeChanges) {
+      var onChanges = this._onNativeChanges;
+      commits.forEach(function (changes) {
+        return onChanges(changes);
+      });
+    }
+  };
   _proto2.call = function (name, _args, callback) {
     var methodName = name;
     var args = _args;
@@ -69,6 +225,11 @@ var SqliteJsiDispatcher = /*#__PURE__*/function () {
       callback({
         error: new Error("".concat(methodName, " unavailable on Windows. Please contribute."))
       });
+    } else if ('getStats' === methodName || 'resetStats' === methodName || 'getSlowQueries' === methodName || 'rekey' === methodName || 'setTuningProfile' === methodName) {
+      callback({
+        error: new Error("".concat(methodName, " unavailable in JSI mode"))
+      });
+      return;
     } else if ('provideSyncJson' === methodName) {
       (0, _Result.fromPromise)(WMDatabaseBridge.provideSyncJson.apply(WMDatabaseBridge, (0, _toConsumableArray2.default)(args)), callback);
       return;
@@ -86,6 +247,16 @@ var SqliteJsiDispatcher = /*#__PURE__*/function () {
         if ('queryAsArray' === methodName) {
           result = require('./decodeQueryResult').default(result);
         }
+        if ('find' === methodName || 'query' === methodName || 'queryAsArray' === methodName) {
+          this._drainRecordCacheEvictions();
+        }
+        if (this._onNativeChanges) {
+          if (WRITE_METHODS.includes(methodName)) {
+            this._drainChanges();
+          } else {
+            this._enableChangeFeed(methodName, result);
+          }
+        }
         callback({
           value: result
         });
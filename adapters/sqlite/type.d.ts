@@ -1,5 +1,6 @@
 import type { ResultCallback } from '../../utils/fp/Result'
-import type { AppSchema } from '../../Schema'
+import type { RecordId } from '../../Model'
+import type { AppSchema, TableName } from '../../Schema'
 import type { SchemaMigrations } from '../../Schema/migrations'
 import { $Exact } from '../../types'
 
@@ -19,6 +20,8 @@ export type SQLiteAdapterOptions = $Exact<{
   migrations?: SchemaMigrations
   // The new way to run the database in synchronous mode.
   jsi?: boolean
+  // Encrypts the database (SQLCipher). Either a passphrase, from which the key is derived (slow - see
+  // experimentalNativeCacheDerivedKey), or a raw 256-bit key as x'<64 hex digits>', which is used as is
   passphrase?: string
   migrationEvents?: MigrationEvents
   // Called when database failed to set up (initialize) correctly. It's possible that
@@ -29,10 +32,86 @@ export type SQLiteAdapterOptions = $Exact<{
   // Sets exclusive file locking mode in sqlite. Use this ONLY if you need to - e.g. seems to fix
   // mysterious "database is malformed" issues on JSI+Android when using Headless JS
   usesExclusiveLocking?: boolean
+  // (Android/non-JSI only) Limits the native cache of records already sent to JS to this many
+  // records and/or (estimated) bytes. Least recently used records are evicted from it, and sent
+  // over the bridge in full the next time they're fetched. Unlimited by default.
+  experimentalNativeRecordCacheLimit?: NativeRecordCacheLimit
+  // (Android/non-JSI only) Serves reads on this many extra (read-only, WAL) connections, so that
+  // queries don't wait behind writes and each other. Disabled (0) by default.
+  experimentalNativeReadPoolSize?: number
+  // (Android/non-JSI only) Runs this connection on the same C++ engine as JSI mode (via JNI)
+  // instead of SQLCipher for Android. Requires the watermelondb-jsi native library, otherwise
+  // it's ignored. Query cursors and unsafeLoadFromSync are not supported with it, and setting up
+  // fails if experimentalNativeReadPoolSize, experimentalNativeRecordCacheLimit, or
+  // experimentalUnsafeNativeReuse is also passed.
+  experimentalNativeJNIDriver?: boolean
+  // (Android/non-JSI only) Logs queries that take longer than this many milliseconds (with their
+  // redacted arguments and EXPLAIN QUERY PLAN output), so that queries doing full table scans on
+  // large databases can be found. See SQLiteAdapter.getNativeSlowQueries. Disabled (0) by default.
+  experimentalNativeSlowQueryThreshold?: number
+  // (Android/non-JSI only) Commits batches received within this many milliseconds of each other
+  // (0 = only those already waiting to be executed) in one transaction, each in its own savepoint,
+  // so that bursts of small writes share one commit. Each batch still succeeds or fails on its own.
+  // Disabled by default.
+  experimentalNativeGroupCommitWindow?: number
+  // (Android and JSI) Records which rows were actually changed by every committed transaction on
+  // the native side (including raw queries), and delivers them to subscribers of
+  // SQLiteAdapter.experimentalSubscribeToNativeChanges. Disabled by default.
+  experimentalNativeChangeFeed?: boolean
+  // (Android/non-JSI only) Caches results of queryIds, count, and raw select queries (by SQL and
+  // arguments) up to this many (estimated) bytes, so that repeated identical reads don't hit sqlite.
+  // Results are dropped when tables they read are written to. Not supported with the JNI driver.
+  // Disabled (0) by default. Hit ratio is included in SQLiteAdapter.getNativeStats
+  experimentalNativeQueryCacheSize?: number
+  // (Android/non-JSI only) Keeps unfiltered counts of tables (e.g. `query().fetchCount()`) current
+  // as records are created and deleted, instead of counting them again, and caches results of
+  // filtered counts until tables they read are written to. Not supported with the JNI driver.
+  // Disabled by default. Hit ratio is included in the query cache ratio of getNativeStats
+  experimentalNativeCountCache?: boolean
+  // (Android/non-JSI only) Number of PBKDF2 iterations the key is derived from `passphrase` with
+  // (0 = SQLCipher's default). Fewer make opening faster, but the passphrase easier to brute-force.
+  // Must be the same every time the database is opened. Ignored for raw keys. Not supported with
+  // the JNI driver.
+  experimentalNativeKdfIterations?: number
+  // (Android/non-JSI only) Remembers the key derived from `passphrase` (encrypted by a key kept in
+  // Android Keystore), so that later opens skip key derivation. Ignored for raw keys. Not supported
+  // with the JNI driver. Disabled by default.
+  experimentalNativeCacheDerivedKey?: boolean
+  // (Android/non-JSI only) Named set of connection settings (page cache, temp storage, syncing, WAL
+  // size and checkpointing): 'read-heavy', 'bulk-sync' (e.g. for the duration of a large sync pull),
+  // 'low-memory', or 'default'. Can be switched later with
+  // SQLiteAdapter.experimentalSetNativeTuningProfile. sqlite's defaults are used by default
+  experimentalNativeTuningProfile?: NativeTuningProfile
+  // (Android/non-JSI only) Checkpoints the WAL (copies it into the database) once the database was
+  // idle for this many ms, and truncates it after a longer idle time, so that the WAL doesn't grow
+  // and checkpoints don't slow down commits. Disabled (0) by default
+  experimentalNativeCheckpointIdleTime?: number
+  // (Android/non-JSI only) Keeps a schema-only copy of the database (a template) for its current
+  // schema, so that setting up the database, and unsafeResetDatabase, is a file copy instead of
+  // dropping and creating every table and index. The template is built in the background the first
+  // time the database is set up or reset without one. Not supported with the JNI driver.
+  // Disabled by default
+  experimentalNativeSchemaTemplates?: boolean
+}>
+
+export type NativeTuningProfile = 'default' | 'read-heavy' | 'bulk-sync' | 'low-memory'
+
+// Records changed by one committed transaction, by table. A table maps to null if only that it
+// changed is known (when sqlite is built without SQLITE_ENABLE_PREUPDATE_HOOK)
+export type NativeChanges = {
+  [tableName: string]: $Exact<{ inserted: RecordId[]; updated: RecordId[]; deleted: RecordId[] }> | null
+}
+
+export type NativeRecordCacheLimit = $Exact<{
+  maxRecords?: number
+  maxBytes?: number
 }>
 
 export type DispatcherType = 'asynchronous' | 'jsi'
 
+// Opaque handle of an open query cursor
+export type QueryCursor = $Exact<{ handle: number; table: TableName<any> | null }>
+
 export type SqliteDispatcherMethod =
   | 'initialize'
   | 'setUpWithSchema'
@@ -42,13 +121,22 @@ export type SqliteDispatcherMethod =
   | 'queryIds'
   | 'unsafeQueryRaw'
   | 'count'
+  | 'openQueryCursor'
+  | 'fetchQueryCursor'
+  | 'closeQueryCursor'
   | 'batch'
   | 'unsafeLoadFromSync'
   | 'provideSyncJson'
   | 'unsafeResetDatabase'
   | 'getLocal'
   | 'unsafeExecuteMultiple'
+  | 'getStats'
+  | 'resetStats'
+  | 'getSlowQueries'
+  | 'rekey'
+  | 'setTuningProfile'
 
 export interface SqliteDispatcher {
   call(methodName: SqliteDispatcherMethod, args: any[], callback: ResultCallback<any>): void
+  unsafeClose?: () => void
 }
@@ -0,0 +1,8 @@
+package com.nozbe.watermelondb;
+
+// Access to package-private parts of the driver that benchmarks need (but apps must not use)
+public class BenchmarkHooks {
+    public static void clearCachedRecords(WMDatabaseDriver driver) {
+        driver.clearCachedRecords();
+    }
+}
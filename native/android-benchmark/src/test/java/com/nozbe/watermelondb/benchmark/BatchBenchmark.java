@@ -0,0 +1,84 @@
+package com.nozbe.watermelondb.benchmark;
+
+import com.facebook.react.bridge.ReadableArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// WMDatabaseDriver.batch and batchJSON (what the bridge uses in apps) of tasks, as encoded by encodeBatch
+// NOTE: Each batch runs once per iteration, on a freshly reset database (with the tasks to update or
+// delete already inserted), so that every run does the same amount of work
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BatchBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int records;
+
+    @Param({"insert", "update", "destroyPermanently"})
+    public String operation;
+
+    private BenchmarkDatabase db;
+    private ReadableArray batch;
+    private String batchJson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = new BenchmarkDatabase();
+        switch (operation) {
+            case "insert":
+                batch = BenchmarkDatabase.insert(BenchmarkDatabase.TASKS, 0, records);
+                break;
+            case "update":
+                batch = BenchmarkDatabase.update(BenchmarkDatabase.TASKS, 0, records);
+                break;
+            case "destroyPermanently":
+                batch = BenchmarkDatabase.destroyPermanently(BenchmarkDatabase.TASKS, 0, records);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        BenchmarkDatabase.checkJsonReader();
+        batchJson = BenchmarkDatabase.json(batch);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetDatabase() {
+        db.driver.unsafeResetDatabase(BenchmarkDatabase.SCHEMA);
+        db.driver.releaseWriteSnapshot();
+        if (!operation.equals("insert")) {
+            db.batch(BenchmarkDatabase.insert(BenchmarkDatabase.TASKS, 0, records));
+        }
+    }
+
+    @Benchmark
+    public void batch() {
+        db.batch(batch);
+    }
+
+    @Benchmark
+    public void batchJSON() {
+        db.batchJSON(batchJson);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+}
@@ -0,0 +1,429 @@
+package com.nozbe.watermelondb.benchmark;
+
+import android.util.JsonReader;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableType;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.nozbe.watermelondb.WMDatabase;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+import com.nozbe.watermelondb.WritableFactory;
+import com.nozbe.watermelondb.utils.ColumnType;
+import com.nozbe.watermelondb.utils.DriverOptions;
+import com.nozbe.watermelondb.utils.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Database of a typical app - projects, their tasks, and comments on tasks - in a temporary file,
+// with a WMDatabaseDriver on top. Schema, batches and queries are encoded the same way as in JS
+// (encodeSchema, encodeBatch, encodeQuery), so that the driver does the same work as in the app
+class BenchmarkDatabase {
+    static final int PROJECT_COUNT = 50;
+    static final int USER_COUNT = 20;
+
+    static class Table {
+        final String name;
+        final String[] columns;
+        final ColumnType[] types;
+        final boolean[] indexed;
+
+        Table(String name, Object... columns) {
+            this.name = name;
+            int count = columns.length / 3;
+            this.columns = new String[count];
+            this.types = new ColumnType[count];
+            this.indexed = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                this.columns[i] = (String) columns[i * 3];
+                this.types[i] = (ColumnType) columns[i * 3 + 1];
+                this.indexed[i] = (Boolean) columns[i * 3 + 2];
+            }
+        }
+    }
+
+    static final Table PROJECTS = new Table("projects",
+            "name", ColumnType.STRING, false,
+            "owner_id", ColumnType.STRING, true,
+            "is_favorite", ColumnType.BOOLEAN, false,
+            "position", ColumnType.NUMBER, false,
+            "created_at", ColumnType.NUMBER, false,
+            "updated_at", ColumnType.NUMBER, false);
+
+    static final Table TASKS = new Table("tasks",
+            "name", ColumnType.STRING, false,
+            "description", ColumnType.STRING, false,
+            "project_id", ColumnType.STRING, true,
+            "author_id", ColumnType.STRING, false,
+            "is_completed", ColumnType.BOOLEAN, true,
+            "position", ColumnType.NUMBER, false,
+            "due_at", ColumnType.NUMBER, false,
+            "created_at", ColumnType.NUMBER, false,
+            "updated_at", ColumnType.NUMBER, false);
+
+    static final Table COMMENTS = new Table("comments",
+            "body", ColumnType.STRING, false,
+            "task_id", ColumnType.STRING, true,
+            "author_id", ColumnType.STRING, false,
+            "created_at", ColumnType.NUMBER, false,
+            "updated_at", ColumnType.NUMBER, false);
+
+    static final Table[] TABLES = {PROJECTS, TASKS, COMMENTS};
+
+    static final Schema SCHEMA = new Schema(1, encodeSchema());
+
+    // Same as JS Database.localStorage
+    static final String LOCAL_STORAGE_KEY = "__watermelon_last_pulled_at";
+
+    // Tasks of a project, like Q.where('project_id', ...)
+    static String projectTasksQuery(int project) {
+        return "select \"tasks\".* from \"tasks\" where \"tasks\".\"project_id\" is '" + projectId(project) +
+                "' and \"tasks\".\"_status\" is not 'deleted'";
+    }
+
+    static String countIncompleteTasksQuery() {
+        return "select count(*) as \"count\" from \"tasks\" where \"tasks\".\"is_completed\" is 0" +
+                " and \"tasks\".\"_status\" is not 'deleted'";
+    }
+
+    final WMDatabase database;
+    WMDatabaseDriver driver;
+    private final File file;
+
+    BenchmarkDatabase() {
+        try {
+            this.file = File.createTempFile("watermelondb-benchmark", ".db");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.database = new WMDatabase(new JdbcStorage(file.getPath()));
+        this.driver = newDriver();
+        driver.unsafeResetDatabase(SCHEMA);
+        driver.releaseWriteSnapshot();
+    }
+
+    // New driver over the same database - i.e. with an empty record cache, like after app launch
+    WMDatabaseDriver newDriver() {
+        DriverOptions options = new DriverOptions();
+        options.writables = JAVA_ONLY;
+        for (Table table : TABLES) {
+            Map<String, ColumnType> types = new HashMap<>();
+            for (int i = 0; i < table.columns.length; i++) {
+                types.put(table.columns[i], table.types[i]);
+            }
+            options.columnTypes.put(table.name, types);
+        }
+        return new WMDatabaseDriver(database, options);
+    }
+
+    void batch(ReadableArray operations) {
+        driver.batch(operations);
+        driver.releaseWriteSnapshot();
+    }
+
+    void batchJSON(String operationsJson) {
+        driver.batchJSON(operationsJson);
+        driver.releaseWriteSnapshot();
+    }
+
+    // Inserts projects, `taskCount` tasks spread over them, and a comment for every other task
+    void populate(int taskCount) {
+        batch(insert(PROJECTS, 0, PROJECT_COUNT));
+        batch(insert(TASKS, 0, taskCount));
+        batch(insert(COMMENTS, 0, taskCount / 2));
+        batch(operations(new JavaOnlyArray[] {
+                operation(0, null, "insert into \"local_storage\" (\"key\", \"value\") values (?, ?)",
+                        args(args(LOCAL_STORAGE_KEY, "1700000000000")))
+        }));
+    }
+
+    void close() {
+        driver.close();
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    // -- Batches
+
+    static ReadableArray insert(Table table, int from, int count) {
+        String sql = "insert into \"" + table.name + "\" (\"id\", \"_status\", \"_changed" + columnList(table) + "\") values (" +
+                placeholders(table.columns.length + 3) + ")";
+        JavaOnlyArray argBatches = new JavaOnlyArray();
+        for (int n = from; n < from + count; n++) {
+            JavaOnlyArray args = args(id(table, n), "created", "");
+            pushValues(args, table, n);
+            argBatches.pushArray(args);
+        }
+        return operations(new JavaOnlyArray[] {operation(1, table.name, sql, argBatches)}, count);
+    }
+
+    static ReadableArray update(Table table, int from, int count) {
+        StringBuilder sql = new StringBuilder("update \"" + table.name + "\" set \"_status\" = ?, \"_changed\" = ?");
+        for (String column : table.columns) {
+            sql.append(", \"").append(column).append("\" = ?");
+        }
+        sql.append(" where \"id\" is ?");
+        JavaOnlyArray argBatches = new JavaOnlyArray();
+        for (int n = from; n < from + count; n++) {
+            JavaOnlyArray args = args("updated", "name,updated_at");
+            pushValues(args, table, n + 1);
+            args.pushString(id(table, n));
+            argBatches.pushArray(args);
+        }
+        return operations(new JavaOnlyArray[] {operation(0, null, sql.toString(), argBatches)}, count);
+    }
+
+    static ReadableArray destroyPermanently(Table table, int from, int count) {
+        JavaOnlyArray argBatches = new JavaOnlyArray();
+        for (int n = from; n < from + count; n++) {
+            argBatches.pushArray(args(id(table, n)));
+        }
+        String sql = "delete from \"" + table.name + "\" where \"id\" == ?";
+        return operations(new JavaOnlyArray[] {operation(-1, table.name, sql, argBatches)}, count);
+    }
+
+    // Batch as sent to batchJSON, i.e. JSON.stringify of the batch (see makeDispatcher)
+    static String json(ReadableArray array) {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, array);
+        return json.toString();
+    }
+
+    private static void appendJson(StringBuilder json, ReadableArray array) {
+        json.append('[');
+        for (int i = 0; i < array.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            ReadableType type = array.getType(i);
+            if (type == ReadableType.Null) {
+                json.append("null");
+            } else if (type == ReadableType.Boolean) {
+                json.append(array.getBoolean(i));
+            } else if (type == ReadableType.Number) {
+                double value = array.getDouble(i);
+                // NOTE: Same as JS - integers don't have a fraction
+                if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                    json.append((long) value);
+                } else {
+                    json.append(value);
+                }
+            } else if (type == ReadableType.String) {
+                appendJson(json, array.getString(i));
+            } else if (type == ReadableType.Array) {
+                appendJson(json, array.getArray(i));
+            } else {
+                throw new IllegalArgumentException("Unexpected batch value type " + type);
+            }
+        }
+        json.append(']');
+    }
+
+    private static void appendJson(StringBuilder json, String string) {
+        json.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    // batchJSON parses with android.util.JsonReader, which does nothing on the host JVM unless it's
+    // shadowed by the working one in this module - check, so that benchmarks don't measure a no-op
+    static void checkJsonReader() {
+        try (JsonReader reader = new JsonReader(new StringReader("[42]"))) {
+            reader.beginArray();
+            if (reader.nextInt() == 42) {
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("android.util.JsonReader doesn't work on this JVM", e);
+        }
+        throw new IllegalStateException("android.util.JsonReader is the framework stub - see src/test/java/android/util");
+    }
+
+    private static JavaOnlyArray operations(JavaOnlyArray[] operations) {
+        return operations(operations, operations.length);
+    }
+
+    // NOTE: For large batches, encodeBatch drops all indices and recreates them afterwards
+    private static JavaOnlyArray operations(JavaOnlyArray[] operations, int recordCount) {
+        JavaOnlyArray result = new JavaOnlyArray();
+        boolean recreateIndices = recordCount >= 1000;
+        if (recreateIndices) {
+            for (String sql : dropIndicesSql()) {
+                result.pushArray(operation(0, null, sql, args(new JavaOnlyArray())));
+            }
+        }
+        for (JavaOnlyArray operation : operations) {
+            result.pushArray(operation);
+        }
+        if (recreateIndices) {
+            for (String sql : createIndicesSql()) {
+                result.pushArray(operation(0, null, sql, args(new JavaOnlyArray())));
+            }
+        }
+        return result;
+    }
+
+    private static JavaOnlyArray operation(int cacheBehavior, String table, String sql, JavaOnlyArray argBatches) {
+        JavaOnlyArray operation = new JavaOnlyArray();
+        operation.pushInt(cacheBehavior);
+        if (table == null) {
+            operation.pushNull();
+        } else {
+            operation.pushString(table);
+        }
+        operation.pushString(sql);
+        operation.pushArray(argBatches);
+        return operation;
+    }
+
+    private static JavaOnlyArray args(Object... values) {
+        JavaOnlyArray args = new JavaOnlyArray();
+        for (Object value : values) {
+            if (value instanceof String) {
+                args.pushString((String) value);
+            } else {
+                args.pushArray((ReadableArray) value);
+            }
+        }
+        return args;
+    }
+
+    // Deterministic, but varied values of the n-th record
+    private static void pushValues(JavaOnlyArray args, Table table, int n) {
+        for (int i = 0; i < table.columns.length; i++) {
+            String column = table.columns[i];
+            if (column.equals("project_id")) {
+                args.pushString(projectId(n % PROJECT_COUNT));
+            } else if (column.equals("task_id")) {
+                args.pushString(id(TASKS, n * 2));
+            } else if (column.endsWith("_id")) {
+                args.pushString("user" + (n % USER_COUNT));
+            } else if (column.equals("due_at")) {
+                if (n % 3 == 0) {
+                    args.pushNull();
+                } else {
+                    args.pushDouble(1700000000000.0 + n * 3600000.0);
+                }
+            } else if (table.types[i] == ColumnType.STRING) {
+                args.pushString(text(column, n));
+            } else if (table.types[i] == ColumnType.BOOLEAN) {
+                args.pushBoolean(n % 4 == 0);
+            } else {
+                args.pushDouble(column.endsWith("_at") ? 1600000000000.0 + n * 1000.0 : n * 1.5);
+            }
+        }
+    }
+
+    private static String text(String column, int n) {
+        if (column.equals("name")) {
+            return "Record " + n;
+        }
+        // NOTE: Descriptions and comments are a couple hundred characters long in a real app
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 200) {
+            text.append("Lorem ipsum dolor sit amet ").append(n).append(". ");
+        }
+        return text.toString();
+    }
+
+    static String id(Table table, int n) {
+        return table.name.charAt(0) + Integer.toString(n, 36) + "xk3m9qp2";
+    }
+
+    static String projectId(int n) {
+        return id(PROJECTS, n);
+    }
+
+    // -- Schema, same as encodeSchema
+
+    private static String encodeSchema() {
+        StringBuilder sql = new StringBuilder(
+                "create table \"local_storage\" (\"key\" varchar(16) primary key not null, \"value\" text not null);" +
+                        "create index \"local_storage_key_index\" on \"local_storage\" (\"key\");");
+        for (Table table : TABLES) {
+            sql.append("create table \"").append(table.name).append("\" (\"id\" primary key, \"_changed\", \"_status\"");
+            for (String column : table.columns) {
+                sql.append(", \"").append(column).append("\"");
+            }
+            sql.append(");");
+        }
+        for (String index : createIndicesSql()) {
+            sql.append(index).append(";");
+        }
+        return sql.toString();
+    }
+
+    private static List<String> createIndicesSql() {
+        List<String> sql = new ArrayList<>();
+        for (Table table : TABLES) {
+            for (int i = 0; i < table.columns.length; i++) {
+                if (table.indexed[i]) {
+                    sql.add("create index if not exists \"" + table.name + "_" + table.columns[i] + "\" on \"" +
+                            table.name + "\" (\"" + table.columns[i] + "\")");
+                }
+            }
+            sql.add("create index if not exists \"" + table.name + "__status\" on \"" + table.name + "\" (\"_status\")");
+        }
+        return sql;
+    }
+
+    private static List<String> dropIndicesSql() {
+        List<String> sql = new ArrayList<>();
+        for (Table table : TABLES) {
+            for (int i = 0; i < table.columns.length; i++) {
+                if (table.indexed[i]) {
+                    sql.add("drop index if exists \"" + table.name + "_" + table.columns[i] + "\"");
+                }
+            }
+            sql.add("drop index if exists \"" + table.name + "__status\"");
+        }
+        return sql;
+    }
+
+    private static String columnList(Table table) {
+        StringBuilder columns = new StringBuilder();
+        for (String column : table.columns) {
+            columns.append("\", \"").append(column);
+        }
+        return columns.toString();
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < count; i++) {
+            placeholders.append(", ?");
+        }
+        return placeholders.toString();
+    }
+
+    // Results in plain Java maps/arrays - bridge ones need React Native's native libraries
+    static final WritableFactory JAVA_ONLY = new WritableFactory() {
+        @Override
+        public WritableMap createMap() {
+            return new JavaOnlyMap();
+        }
+
+        @Override
+        public WritableArray createArray() {
+            return new JavaOnlyArray();
+        }
+    };
+}
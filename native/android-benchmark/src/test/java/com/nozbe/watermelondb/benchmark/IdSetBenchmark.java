@@ -0,0 +1,96 @@
+package com.nozbe.watermelondb.benchmark;
+
+import com.nozbe.watermelondb.utils.IdSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+// Native record cache lookups (IdSet) compared to java.util.HashSet
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdSetBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    private String[] ids;
+    private String[] missingIds;
+    private IdSet idSet;
+    private HashSet<String> hashSet;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ids = new String[size];
+        missingIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = BenchmarkDatabase.id(BenchmarkDatabase.TASKS, i);
+            missingIds[i] = BenchmarkDatabase.id(BenchmarkDatabase.COMMENTS, i);
+        }
+        idSet = new IdSet();
+        idSet.addAll(ids);
+        hashSet = new HashSet<>();
+        for (String id : ids) {
+            hashSet.add(id);
+        }
+    }
+
+    private int nextIndex() {
+        index = (index + 1) % size;
+        return index;
+    }
+
+    @Benchmark
+    public boolean idSetContains() {
+        return idSet.contains(ids[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean idSetContainsMissing() {
+        return idSet.contains(missingIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hashSetContains() {
+        return hashSet.contains(ids[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean hashSetContainsMissing() {
+        return hashSet.contains(missingIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public IdSet idSetBuild() {
+        IdSet set = new IdSet();
+        for (String id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    @Benchmark
+    public HashSet<String> hashSetBuild() {
+        HashSet<String> set = new HashSet<>();
+        for (String id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+}
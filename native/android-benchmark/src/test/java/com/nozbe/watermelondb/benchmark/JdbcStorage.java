@@ -0,0 +1,264 @@
+package com.nozbe.watermelondb.benchmark;
+
+import android.database.Cursor;
+
+import com.nozbe.watermelondb.SqliteStatement;
+import com.nozbe.watermelondb.SqliteStorage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// SqliteStorage backed by SQLite JDBC, so that WMDatabase and WMDatabaseDriver can run on a desktop
+// JVM. Mirrors what SQLCipher for Android does: WAL, nested transactions, and a cache of compiled
+// queries. Query results are read into memory (see JdbcCursor)
+public class JdbcStorage implements SqliteStorage {
+    // Same as WMDatabase's (and sqlcipher's max sql cache size)
+    private static final int QUERY_CACHE_SIZE = 64;
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> queries;
+    private int transactionDepth;
+    private boolean transactionSuccessful;
+    private boolean transactionFailed;
+
+    public JdbcStorage(String path) {
+        try {
+            this.connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to open database " + path, e);
+        }
+        this.queries = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > QUERY_CACHE_SIZE) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        execSQL("pragma journal_mode = wal");
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        } catch (SQLException e) {
+            throw error(sql, e);
+        }
+    }
+
+    @Override
+    public SqliteStatement compileStatement(String sql) {
+        try {
+            return new JdbcStatement(sql, connection.prepareStatement(sql));
+        } catch (SQLException e) {
+            throw error(sql, e);
+        }
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, Object[] args) {
+        try {
+            PreparedStatement query = queries.get(sql);
+            if (query == null) {
+                query = connection.prepareStatement(sql);
+                queries.put(sql, query);
+            }
+            try {
+                bindArgs(query, args);
+                try (ResultSet resultSet = query.executeQuery()) {
+                    return JdbcCursor.read(resultSet);
+                }
+            } finally {
+                query.clearParameters();
+            }
+        } catch (SQLException e) {
+            throw error(sql, e);
+        }
+    }
+
+    private static void bindArgs(PreparedStatement query, Object[] args) throws SQLException {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg instanceof String) {
+                query.setString(i + 1, (String) arg);
+            } else if (arg instanceof Boolean) {
+                query.setLong(i + 1, (Boolean) arg ? 1 : 0);
+            } else if (arg instanceof Double) {
+                query.setDouble(i + 1, (Double) arg);
+            } else if (arg == null) {
+                query.setNull(i + 1, Types.NULL);
+            } else {
+                throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
+            }
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        if (transactionDepth == 0) {
+            try {
+                connection.setAutoCommit(false);
+            } catch (SQLException e) {
+                throw error("begin", e);
+            }
+            transactionFailed = false;
+        }
+        transactionDepth++;
+        transactionSuccessful = false;
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        transactionSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction to end");
+        }
+        // NOTE: Like on Android, if any nested transaction fails, the whole transaction is rolled back
+        if (!transactionSuccessful) {
+            transactionFailed = true;
+        }
+        transactionSuccessful = false;
+        if (--transactionDepth > 0) {
+            return;
+        }
+        try {
+            if (transactionFailed) {
+                connection.rollback();
+            } else {
+                connection.commit();
+            }
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            throw error(transactionFailed ? "rollback" : "commit", e);
+        }
+    }
+
+    @Override
+    public int getVersion() {
+        try (Cursor cursor = rawQuery("pragma user_version", new Object[0])) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    @Override
+    public void setVersion(int version) {
+        execSQL("pragma user_version = " + version);
+    }
+
+    @Override
+    public boolean isOpen() {
+        try {
+            return !connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        for (PreparedStatement query : queries.values()) {
+            closeQuietly(query);
+        }
+        queries.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw error("close", e);
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // already closed
+        }
+    }
+
+    private static IllegalStateException error(String sql, SQLException e) {
+        return new IllegalStateException("Failed to execute " + sql + ": " + e.getMessage(), e);
+    }
+
+    private static class JdbcStatement implements SqliteStatement {
+        private final String sql;
+        private final PreparedStatement statement;
+
+        JdbcStatement(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            try {
+                statement.setNull(index, Types.NULL);
+            } catch (SQLException e) {
+                throw error(sql, e);
+            }
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            try {
+                statement.setLong(index, value);
+            } catch (SQLException e) {
+                throw error(sql, e);
+            }
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            try {
+                statement.setDouble(index, value);
+            } catch (SQLException e) {
+                throw error(sql, e);
+            }
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            try {
+                statement.setString(index, value);
+            } catch (SQLException e) {
+                throw error(sql, e);
+            }
+        }
+
+        @Override
+        public void clearBindings() {
+            try {
+                statement.clearParameters();
+            } catch (SQLException e) {
+                throw error(sql, e);
+            }
+        }
+
+        @Override
+        public void execute() {
+            try {
+                statement.execute();
+            } catch (SQLException e) {
+                throw error(sql, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(statement);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.nozbe.watermelondb.benchmark;
+
+import com.nozbe.watermelondb.BenchmarkHooks;
+import com.nozbe.watermelondb.WMDatabaseDriver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Reads on a populated database. "Cold" means that JS hasn't seen any records yet, so they're all
+// sent in full. "Warm" means that all of them are in the native record cache, so only IDs are sent
+// Cold calls are measured in batches (of different records each), with the record cache cleared
+// before each batch, since a single call is too short to reliably set up for
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final int COLD_QUERIES = BenchmarkDatabase.PROJECT_COUNT; // every project once
+    private static final int COLD_FINDS = 1000;
+
+    @Param({"10000"})
+    public int tasks;
+
+    BenchmarkDatabase db;
+    private WMDatabaseDriver warm;
+    private int project;
+    private int task;
+
+    // Driver whose record cache is cleared before every batch of calls
+    @State(Scope.Thread)
+    public static class Cold {
+        WMDatabaseDriver driver;
+
+        @Setup(Level.Trial)
+        public void setUp(QueryBenchmark benchmark) {
+            driver = benchmark.db.newDriver();
+        }
+
+        @Setup(Level.Invocation)
+        public void clearRecordCache() {
+            BenchmarkHooks.clearCachedRecords(driver);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = new BenchmarkDatabase();
+        db.populate(tasks);
+        warm = db.newDriver();
+        for (int i = 0; i < BenchmarkDatabase.PROJECT_COUNT; i++) {
+            warm.cachedQuery("tasks", BenchmarkDatabase.projectTasksQuery(i), NO_ARGS);
+        }
+    }
+
+    // Tasks of a different project every time (~200 tasks each)
+    private String nextProjectQuery() {
+        project = (project + 1) % BenchmarkDatabase.PROJECT_COUNT;
+        return BenchmarkDatabase.projectTasksQuery(project);
+    }
+
+    private String nextTaskId() {
+        task = (task + 1) % tasks;
+        return BenchmarkDatabase.id(BenchmarkDatabase.TASKS, task);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLD_QUERIES)
+    public void cachedQueryCold(Cold cold, Blackhole blackhole) {
+        for (int i = 0; i < COLD_QUERIES; i++) {
+            blackhole.consume(cold.driver.cachedQuery("tasks", nextProjectQuery(), NO_ARGS));
+        }
+    }
+
+    @Benchmark
+    public Object cachedQueryWarm() {
+        return warm.cachedQuery("tasks", nextProjectQuery(), NO_ARGS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLD_QUERIES)
+    public void cachedQueryAsArrayCold(Cold cold, Blackhole blackhole) {
+        for (int i = 0; i < COLD_QUERIES; i++) {
+            blackhole.consume(cold.driver.cachedQueryAsArray("tasks", nextProjectQuery(), NO_ARGS));
+        }
+    }
+
+    @Benchmark
+    public Object cachedQueryAsArrayWarm() {
+        return warm.cachedQueryAsArray("tasks", nextProjectQuery(), NO_ARGS);
+    }
+
+    // NOTE: Must be run with at least COLD_FINDS tasks, so that each batch finds different ones
+    @Benchmark
+    @OperationsPerInvocation(COLD_FINDS)
+    public void findCold(Cold cold, Blackhole blackhole) {
+        for (int i = 0; i < COLD_FINDS; i++) {
+            blackhole.consume(cold.driver.find("tasks", nextTaskId()));
+        }
+    }
+
+    @Benchmark
+    public Object findWarm() {
+        return warm.find("tasks", nextTaskId());
+    }
+
+    @Benchmark
+    public int count() {
+        return warm.count(BenchmarkDatabase.countIncompleteTasksQuery(), NO_ARGS);
+    }
+
+    @Benchmark
+    public String getLocal() {
+        return warm.getLocal(BenchmarkDatabase.LOCAL_STORAGE_KEY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        // NOTE: Only one driver may be closed - closing it closes the database
+        db.close();
+    }
+}
@@ -0,0 +1,54 @@
+package com.nozbe.watermelondb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// WMDatabaseDriver.unsafeResetDatabase (e.g. on logout), of an empty and of a populated database
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResetBenchmark {
+    @Param({"0", "10000"})
+    public int tasks;
+
+    private BenchmarkDatabase db;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        db = new BenchmarkDatabase();
+    }
+
+    @Setup(Level.Iteration)
+    public void populate() {
+        if (tasks > 0) {
+            db.populate(tasks);
+        }
+    }
+
+    @Benchmark
+    public void unsafeResetDatabase() {
+        db.driver.unsafeResetDatabase(BenchmarkDatabase.SCHEMA);
+        db.driver.releaseWriteSnapshot();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+}
@@ -1,5 +1,7 @@
 #include <android/log.h>
 #include <mutex>
+#include <thread>
+#include <vector>
 #include <unordered_map>
 #include <sqlite3.h>
 #include <cassert>
@@ -130,9 +132,40 @@ void deleteDatabaseFile(std::string path, bool warnIfDoesNotExist) {
     // TODO: Unimplemented
 }
 
-void onMemoryAlert(std::function<void(void)> callback) {
-    // TODO: Unimplemented
-    // NOTE: https://developer.android.com/reference/android/app/Application#onTrimMemory(int)
+std::vector<std::function<void(MemoryPressure)>> memoryAlertListeners;
+std::mutex memoryAlertListenersMutex;
+
+void onMemoryAlert(std::function<void(MemoryPressure)> callback) {
+    const std::lock_guard<std::mutex> lock(memoryAlertListenersMutex);
+    memoryAlertListeners.push_back(callback);
+}
+
+// See https://developer.android.com/reference/android/content/ComponentCallbacks2
+MemoryPressure memoryPressureForTrimLevel(int level) {
+    if (level >= 80 /* TRIM_MEMORY_COMPLETE */ || level == 15 /* TRIM_MEMORY_RUNNING_CRITICAL */) {
+        return MemoryPressure::critical;
+    } else if (level >= 40 /* TRIM_MEMORY_BACKGROUND */ || level == 10 /* TRIM_MEMORY_RUNNING_LOW */) {
+        return MemoryPressure::high;
+    }
+    return MemoryPressure::moderate;
+}
+
+void onTrimMemory(int level) {
+    std::vector<std::function<void(MemoryPressure)>> listeners;
+    {
+        const std::lock_guard<std::mutex> lock(memoryAlertListenersMutex);
+        listeners = memoryAlertListeners;
+    }
+    if (listeners.empty()) {
+        return;
+    }
+    // NOTE: Called on main thread, and databases may be busy on JS thread - don't wait for them
+    auto pressure = memoryPressureForTrimLevel(level);
+    std::thread([listeners, pressure]() {
+        for (auto const &listener : listeners) {
+            listener(pressure);
+        }
+    }).detach();
 }
 
 struct ProvidedSyncJson {
@@ -207,6 +240,9 @@ void destroy() {
         listener();
     }
     destroyListeners.clear();
+
+    const std::lock_guard<std::mutex> lock(memoryAlertListenersMutex);
+    memoryAlertListeners.clear();
 }
 
 void onDestroy(std::function<void()> callback) {
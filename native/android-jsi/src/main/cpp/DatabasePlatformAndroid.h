@@ -1,6 +1,7 @@
 #pragma once
 
 #include <jni.h>
+#include "MemoryPressure.h"
 
 namespace watermelondb {
 namespace platform {
@@ -8,6 +9,9 @@ namespace platform {
 void configureJNI(JNIEnv *env);
 void provideJson(int id, jbyteArray array);
 void destroy();
+// Level is one of ComponentCallbacks2.TRIM_MEMORY_* constants
+MemoryPressure memoryPressureForTrimLevel(int level);
+void onTrimMemory(int level);
 
 } // namespace platform
 } // namespace watermelondb
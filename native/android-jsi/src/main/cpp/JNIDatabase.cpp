@@ -0,0 +1,551 @@
+#include <jni.h>
+#include <cassert>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+
+#include "JNIDatabase.h"
+#include "DatabasePlatform.h"
+#include "DatabasePlatformAndroid.h"
+
+namespace watermelondb {
+
+using platform::consoleError;
+using platform::consoleLog;
+
+// MARK: - JSON encoding of results
+
+static void appendString(std::string &json, const char *text, size_t length) {
+    json += '"';
+    size_t runStart = 0;
+    for (size_t i = 0; i < length; i++) {
+        unsigned char c = text[i];
+        if (c >= 0x20 && c != '"' && c != '\\') {
+            continue;
+        }
+        json.append(text + runStart, i - runStart);
+        runStart = i + 1;
+        if (c == '"') {
+            json += "\\\"";
+        } else if (c == '\\') {
+            json += "\\\\";
+        } else if (c == '\n') {
+            json += "\\n";
+        } else {
+            char escaped[7];
+            std::snprintf(escaped, sizeof(escaped), "\\u%04x", c);
+            json += escaped;
+        }
+    }
+    json.append(text + runStart, length - runStart);
+    json += '"';
+}
+
+static void appendDouble(std::string &json, double value) {
+    if (!std::isfinite(value)) {
+        json += "null";
+        return;
+    }
+    // shortest of the two representations that round-trips
+    char buffer[32];
+    std::snprintf(buffer, sizeof(buffer), "%.15g", value);
+    if (std::strtod(buffer, nullptr) != value) {
+        std::snprintf(buffer, sizeof(buffer), "%.17g", value);
+    }
+    json += buffer;
+}
+
+static void appendValue(std::string &json, sqlite3_stmt *statement, int i) {
+    auto type = sqlite3_column_type(statement, i);
+    if (type == SQLITE_INTEGER) {
+        json += std::to_string(sqlite3_column_int64(statement, i));
+    } else if (type == SQLITE_FLOAT) {
+        appendDouble(json, sqlite3_column_double(statement, i));
+    } else if (type == SQLITE_TEXT) {
+        const char *text = (const char *)sqlite3_column_text(statement, i);
+        if (text) {
+            appendString(json, text, sqlite3_column_bytes(statement, i));
+        } else {
+            json += "null";
+        }
+    } else if (type == SQLITE_NULL) {
+        json += "null";
+    } else {
+        throw std::runtime_error("Unable to fetch record from database - unknown column type (WatermelonDB does not support blobs or custom sqlite types");
+    }
+}
+
+// `"column":` prefixes of object fields - escaped once per query, not once per row
+static std::vector<std::string> columnKeys(sqlite3_stmt *statement) {
+    std::vector<std::string> keys;
+    for (int i = 0, len = sqlite3_column_count(statement); i < len; i++) {
+        const char *column = sqlite3_column_name(statement, i);
+        assert(column);
+        std::string key;
+        appendString(key, column, std::strlen(column));
+        key += ':';
+        keys.push_back(std::move(key));
+    }
+    return keys;
+}
+
+static void appendObject(std::string &json, sqlite3_stmt *statement, const std::vector<std::string> &keys) {
+    json += '{';
+    for (int i = 0, len = (int)keys.size(); i < len; i++) {
+        if (i > 0) {
+            json += ',';
+        }
+        json += keys[i];
+        appendValue(json, statement, i);
+    }
+    json += '}';
+}
+
+static void appendArray(std::string &json, sqlite3_stmt *statement) {
+    json += '[';
+    for (int i = 0, len = sqlite3_column_count(statement); i < len; i++) {
+        if (i > 0) {
+            json += ',';
+        }
+        appendValue(json, statement, i);
+    }
+    json += ']';
+}
+
+static void appendColumns(std::string &json, sqlite3_stmt *statement) {
+    json += '[';
+    for (int i = 0, len = sqlite3_column_count(statement); i < len; i++) {
+        if (i > 0) {
+            json += ',';
+        }
+        const char *column = sqlite3_column_name(statement, i);
+        assert(column);
+        appendString(json, column, std::strlen(column));
+    }
+    json += ']';
+}
+
+// MARK: - JNIDatabase
+
+JNIDatabase::JNIDatabase(std::string path, std::string password)
+: DatabaseCore(path, password, false) {
+}
+
+int JNIDatabase::getUserVersion() {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    return DatabaseCore::getUserVersion();
+}
+
+std::string JNIDatabase::find(const std::string &tableName, const std::string &id) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    auto key = cacheKey(tableName, id);
+    std::string json;
+    if (isCached(key)) {
+        appendString(json, id.c_str(), id.length());
+        return json;
+    }
+
+    auto stmt = prepareQuery("select * from `" + tableName + "` where id == ? limit 1");
+    SqliteStatement statement(stmt);
+    if (sqlite3_bind_text(stmt, 1, id.c_str(), (int)id.length(), SQLITE_STATIC) != SQLITE_OK) {
+        throwDbError("Failed to bind an argument for query");
+    }
+
+    if (getNextRowOrTrue(stmt)) {
+        return "null";
+    }
+
+    appendObject(json, stmt, columnKeys(stmt));
+    markAsCached(key);
+    return json;
+}
+
+std::string JNIDatabase::query(const std::string &tableName, const std::string &sql, const std::string &argsJson, bool asArray) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    auto stmt = prepareQuery(sql);
+    SqliteStatement statement(stmt);
+    bindArgs(stmt, argsJson);
+
+    std::string json = "[";
+    std::vector<std::string> keys;
+    bool isFirst = true;
+    while (!getNextRowOrTrue(stmt)) {
+        assert(std::string(sqlite3_column_name(stmt, 0)) == "id");
+
+        const char *id = (const char *)sqlite3_column_text(stmt, 0);
+        if (!id) {
+            throw std::runtime_error("Failed to get ID of a record");
+        }
+
+        if (isFirst) {
+            isFirst = false;
+            if (asArray) {
+                appendColumns(json, stmt);
+                json += ',';
+            } else {
+                keys = columnKeys(stmt);
+            }
+        } else {
+            json += ',';
+        }
+
+        auto key = cacheKey(tableName, id);
+        if (isCached(key)) {
+            appendString(json, id, sqlite3_column_bytes(stmt, 0));
+        } else {
+            markAsCached(key);
+            if (asArray) {
+                appendArray(json, stmt);
+            } else {
+                appendObject(json, stmt, keys);
+            }
+        }
+    }
+    json += ']';
+    return json;
+}
+
+std::string JNIDatabase::queryIds(const std::string &sql, const std::string &argsJson) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    auto stmt = prepareQuery(sql);
+    SqliteStatement statement(stmt);
+    bindArgs(stmt, argsJson);
+
+    std::string json = "[";
+    while (!getNextRowOrTrue(stmt)) {
+        assert(std::string(sqlite3_column_name(stmt, 0)) == "id");
+
+        const char *id = (const char *)sqlite3_column_text(stmt, 0);
+        if (!id) {
+            throw std::runtime_error("Failed to get ID of a record");
+        }
+
+        if (json.length() > 1) {
+            json += ',';
+        }
+        appendString(json, id, sqlite3_column_bytes(stmt, 0));
+    }
+    json += ']';
+    return json;
+}
+
+std::string JNIDatabase::unsafeQueryRaw(const std::string &sql, const std::string &argsJson) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    auto stmt = prepareQuery(sql);
+    SqliteStatement statement(stmt);
+    bindArgs(stmt, argsJson);
+
+    std::string json = "[";
+    std::vector<std::string> keys;
+    while (!getNextRowOrTrue(stmt)) {
+        if (json.length() > 1) {
+            json += ',';
+        } else {
+            keys = columnKeys(stmt);
+        }
+        appendObject(json, stmt, keys);
+    }
+    json += ']';
+    return json;
+}
+
+int JNIDatabase::count(const std::string &sql, const std::string &argsJson) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    auto stmt = prepareQuery(sql);
+    SqliteStatement statement(stmt);
+    bindArgs(stmt, argsJson);
+
+    if (getNextRowOrTrue(stmt)) {
+        throwDbError("Failed to get a row for query");
+    }
+    assert(sqlite3_data_count(stmt) == 1);
+    return sqlite3_column_int(stmt, 0);
+}
+
+bool JNIDatabase::getLocal(const std::string &key, std::string &value) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    return getLocalValue(key, value);
+}
+
+void JNIDatabase::batchJSON(const std::string &operationsJson) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    executeBatchJSON(operationsJson);
+}
+
+void JNIDatabase::migrate(const std::string &migrationSql, int fromVersion, int toVersion) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    migrateDatabase(migrationSql, fromVersion, toVersion);
+}
+
+void JNIDatabase::unsafeResetDatabase(const std::string &schema, int schemaVersion) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    resetDatabase(schema, schemaVersion);
+}
+
+void JNIDatabase::releaseMemory(MemoryPressure pressure) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    releaseCaches(pressure);
+}
+
+bool JNIDatabase::drainRecordCacheEvictions(std::string &json) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    if (evictedRecords_.empty()) {
+        return false;
+    }
+
+    // { "table": ["id", ...] }
+    json = "{";
+    for (auto const &table : takeEvictedIds()) {
+        if (json.length() > 1) {
+            json += ',';
+        }
+        appendString(json, table.first.c_str(), table.first.length());
+        json += ":[";
+        for (size_t i = 0; i < table.second.size(); i++) {
+            if (i > 0) {
+                json += ',';
+            }
+            appendString(json, table.second[i].c_str(), table.second[i].length());
+        }
+        json += ']';
+    }
+    json += '}';
+    return true;
+}
+
+void JNIDatabase::enableChangeFeed() {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    startChangeFeed();
+}
+
+static void appendIds(std::string &json, const std::vector<std::string> &ids) {
+    json += '[';
+    for (size_t i = 0; i < ids.size(); i++) {
+        if (i > 0) {
+            json += ',';
+        }
+        appendString(json, ids[i].c_str(), ids[i].length());
+    }
+    json += ']';
+}
+
+bool JNIDatabase::drainChanges(std::string &json) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    if (!changeFeed_) {
+        return false;
+    }
+    auto commits = changeFeed_->drain();
+    if (commits.empty()) {
+        return false;
+    }
+
+    // NOTE: Same format as Database::drainChanges
+    json = "[";
+    for (auto const &commit : commits) {
+        if (json.length() > 1) {
+            json += ',';
+        }
+        json += '{';
+        bool isFirst = true;
+        for (auto const &table : commit) {
+            if (!isFirst) {
+                json += ',';
+            }
+            isFirst = false;
+            appendString(json, table.first.c_str(), table.first.length());
+            if (!table.second.idsKnown) {
+                json += ":null";
+                continue;
+            }
+            json += ":{\"inserted\":";
+            appendIds(json, table.second.inserted);
+            json += ",\"updated\":";
+            appendIds(json, table.second.updated);
+            json += ",\"deleted\":";
+            appendIds(json, table.second.deleted);
+            json += '}';
+        }
+        json += '}';
+    }
+    json += ']';
+    return true;
+}
+
+} // namespace watermelondb
+
+// MARK: - JNI bindings (see WMDatabaseJNIDriver.java)
+
+using watermelondb::JNIDatabase;
+
+static std::string stringFromBytes(JNIEnv *env, jbyteArray bytes) {
+    jsize length = env->GetArrayLength(bytes);
+    std::string string(length, '\0');
+    env->GetByteArrayRegion(bytes, 0, length, reinterpret_cast<jbyte *>(&string[0]));
+    return string;
+}
+
+static jbyteArray bytesFromString(JNIEnv *env, const std::string &string) {
+    jbyteArray bytes = env->NewByteArray((jsize)string.length());
+    if (bytes) {
+        env->SetByteArrayRegion(bytes, 0, (jsize)string.length(), reinterpret_cast<const jbyte *>(string.data()));
+    }
+    return bytes;
+}
+
+static JNIDatabase *database(jlong handle) {
+    auto database = reinterpret_cast<JNIDatabase *>(handle);
+    assert(database != nullptr);
+    return database;
+}
+
+// Runs the call, rethrowing C++ errors as Java exceptions
+template <typename T, typename Call>
+static T withExceptions(JNIEnv *env, T fallback, Call call) {
+    const char *exceptionClass = "java/lang/IllegalStateException";
+    std::string message;
+    try {
+        return call();
+    } catch (const std::invalid_argument &ex) {
+        exceptionClass = "java/lang/IllegalArgumentException";
+        message = ex.what();
+    } catch (const std::exception &ex) {
+        message = ex.what();
+    } catch (const std::exception *ex) {
+        // NOTE: SqliteDb throws some errors by pointer
+        message = ex->what();
+        delete ex;
+    } catch (...) {
+        message = "Unknown error in WatermelonDB native code";
+    }
+    env->ThrowNew(env->FindClass(exceptionClass), message.c_str());
+    return fallback;
+}
+
+extern "C" JNIEXPORT jlong JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeCreate(JNIEnv *env, jclass clazz, jbyteArray path, jbyteArray password) {
+    watermelondb::platform::configureJNI(env);
+    return withExceptions<jlong>(env, 0, [&]() {
+        auto database = new JNIDatabase(stringFromBytes(env, path), stringFromBytes(env, password));
+        return reinterpret_cast<jlong>(database);
+    });
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeDestroy(JNIEnv *env, jclass clazz, jlong handle) {
+    delete database(handle);
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeFind(JNIEnv *env, jclass clazz, jlong handle, jbyteArray table, jbyteArray id) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        return bytesFromString(env, database(handle)->find(stringFromBytes(env, table), stringFromBytes(env, id)));
+    });
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeQuery(JNIEnv *env, jclass clazz, jlong handle, jbyteArray table, jbyteArray query, jbyteArray args, jboolean asArray) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        auto json = database(handle)->query(stringFromBytes(env, table), stringFromBytes(env, query), stringFromBytes(env, args), asArray);
+        return bytesFromString(env, json);
+    });
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeQueryIds(JNIEnv *env, jclass clazz, jlong handle, jbyteArray query, jbyteArray args) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        return bytesFromString(env, database(handle)->queryIds(stringFromBytes(env, query), stringFromBytes(env, args)));
+    });
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeUnsafeQueryRaw(JNIEnv *env, jclass clazz, jlong handle, jbyteArray query, jbyteArray args) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        return bytesFromString(env, database(handle)->unsafeQueryRaw(stringFromBytes(env, query), stringFromBytes(env, args)));
+    });
+}
+
+extern "C" JNIEXPORT jint JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeCount(JNIEnv *env, jclass clazz, jlong handle, jbyteArray query, jbyteArray args) {
+    return withExceptions<jint>(env, 0, [&]() {
+        return (jint)database(handle)->count(stringFromBytes(env, query), stringFromBytes(env, args));
+    });
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeBatchJSON(JNIEnv *env, jclass clazz, jlong handle, jbyteArray operations) {
+    withExceptions<bool>(env, false, [&]() {
+        database(handle)->batchJSON(stringFromBytes(env, operations));
+        return true;
+    });
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeGetLocal(JNIEnv *env, jclass clazz, jlong handle, jbyteArray key) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        std::string value;
+        if (!database(handle)->getLocal(stringFromBytes(env, key), value)) {
+            return (jbyteArray) nullptr;
+        }
+        return bytesFromString(env, value);
+    });
+}
+
+extern "C" JNIEXPORT jint JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeGetUserVersion(JNIEnv *env, jclass clazz, jlong handle) {
+    return withExceptions<jint>(env, 0, [&]() {
+        return (jint)database(handle)->getUserVersion();
+    });
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeMigrate(JNIEnv *env, jclass clazz, jlong handle, jbyteArray sql, jint fromVersion, jint toVersion) {
+    withExceptions<bool>(env, false, [&]() {
+        database(handle)->migrate(stringFromBytes(env, sql), fromVersion, toVersion);
+        return true;
+    });
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeUnsafeResetDatabase(JNIEnv *env, jclass clazz, jlong handle, jbyteArray schema, jint schemaVersion) {
+    withExceptions<bool>(env, false, [&]() {
+        database(handle)->unsafeResetDatabase(stringFromBytes(env, schema), schemaVersion);
+        return true;
+    });
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeReleaseMemory(JNIEnv *env, jclass clazz, jlong handle, jint trimLevel) {
+    withExceptions<bool>(env, false, [&]() {
+        database(handle)->releaseMemory(watermelondb::platform::memoryPressureForTrimLevel(trimLevel));
+        return true;
+    });
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeDrainRecordCacheEvictions(JNIEnv *env, jclass clazz, jlong handle) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        std::string json;
+        if (!database(handle)->drainRecordCacheEvictions(json)) {
+            return (jbyteArray) nullptr;
+        }
+        return bytesFromString(env, json);
+    });
+}
+
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeEnableChangeFeed(JNIEnv *env, jclass clazz, jlong handle) {
+    withExceptions<bool>(env, false, [&]() {
+        database(handle)->enableChangeFeed();
+        return true;
+    });
+}
+
+extern "C" JNIEXPORT jbyteArray JNICALL Java_com_nozbe_watermelondb_WMDatabaseJNIDriver_nativeDrainChanges(JNIEnv *env, jclass clazz, jlong handle) {
+    return withExceptions<jbyteArray>(env, nullptr, [&]() {
+        std::string json;
+        if (!database(handle)->drainChanges(json)) {
+            return (jbyteArray) nullptr;
+        }
+        return bytesFromString(env, json);
+    });
+}
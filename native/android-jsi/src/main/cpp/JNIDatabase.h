@@ -0,0 +1,33 @@
+#pragma once
+
+#include <string>
+
+#include "DatabaseCore.h"
+
+namespace watermelondb {
+
+// JSI-free counterpart of Database, used by WMDatabaseJNIDriver when running with the RN bridge
+// All sqlite logic is in DatabaseCore - this only encodes results as JSON
+class JNIDatabase : public DatabaseCore {
+    public:
+    JNIDatabase(std::string path, std::string password);
+
+    std::string find(const std::string &tableName, const std::string &id);
+    std::string query(const std::string &tableName, const std::string &sql, const std::string &argsJson, bool asArray);
+    std::string queryIds(const std::string &sql, const std::string &argsJson);
+    std::string unsafeQueryRaw(const std::string &sql, const std::string &argsJson);
+    int count(const std::string &sql, const std::string &argsJson);
+    void batchJSON(const std::string &operationsJson);
+    bool getLocal(const std::string &key, std::string &value);
+    int getUserVersion();
+    void migrate(const std::string &migrationSql, int fromVersion, int toVersion);
+    void unsafeResetDatabase(const std::string &schema, int schemaVersion);
+    void releaseMemory(MemoryPressure pressure);
+    // Returns JSON of records evicted from the record cache since the last call, or false if none
+    bool drainRecordCacheEvictions(std::string &json);
+    void enableChangeFeed();
+    // Returns JSON of changes of transactions committed since the last call, or false if none
+    bool drainChanges(std::string &json);
+};
+
+} // namespace watermelondb
@@ -4,6 +4,7 @@
 
 #include "Database.h"
 #include "DatabasePlatformAndroid.h"
+#include "Sqlite.h"
 
 using namespace facebook;
 
@@ -18,6 +19,17 @@ extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_p
     watermelondb::platform::provideJson(id, array);
 }
 
+extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_onTrimMemory(JNIEnv *env, jclass clazz, jint level) {
+    watermelondb::platform::onTrimMemory(level);
+}
+
 extern "C" JNIEXPORT void JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_destroy(JNIEnv *env, jclass clazz) {
     watermelondb::platform::destroy();
 }
+
+extern "C" JNIEXPORT jint JNICALL Java_com_nozbe_watermelondb_jsi_JSIInstaller_openConnections(JNIEnv *env, jclass clazz, jstring path) {
+    const char *pathChars = env->GetStringUTFChars(path, nullptr);
+    int count = watermelondb::SqliteDb::openConnections(pathChars);
+    env->ReleaseStringUTFChars(path, pathChars);
+    return count;
+}
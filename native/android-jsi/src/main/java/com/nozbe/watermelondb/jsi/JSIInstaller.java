@@ -22,8 +22,12 @@ class JSIInstaller {
 
     static native void provideSyncJson(int id, byte[] json);
 
+    static native void onTrimMemory(int level);
+
     static native void destroy();
 
+    static native int openConnections(String path);
+
     private static Context context;
 
     static {
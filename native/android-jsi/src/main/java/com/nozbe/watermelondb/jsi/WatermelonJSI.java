@@ -4,14 +4,22 @@ import android.app.Application;
 
 // Public interface to JSI-based Watermelon
 public class WatermelonJSI {
+    // Releases memory held by JSI databases, proportionally to the level (see ComponentCallbacks2)
+    // NOTE: WMDatabaseBridge forwards trim events here, so there's no need to call it from the app
     public static void onTrimMemory(int level) {
-      // TODO: Unimplemented
+        JSIInstaller.onTrimMemory(level);
     }
 
     public static void provideSyncJson(int id, byte[] json) {
         JSIInstaller.provideSyncJson(id, json);
     }
 
+    // Number of connections JSI databases (and the JNI driver) have open to the database file at path
+    // NOTE: WMDatabase checks it before replacing the file, see SchemaTemplates.install
+    public static int openConnections(String path) {
+        return JSIInstaller.openConnections(path);
+    }
+
     public static void onCatalystInstanceDestroy() {
         JSIInstaller.destroy();
     }
@@ -0,0 +1,137 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Records rows actually changed by writes on a connection (batches, but also raw queries, etc.), so
+// that JS can tell observers exactly what changed. See WMDatabaseBridge.emitChanges
+// NOTE: SQLCipher for Android doesn't expose sqlite's update/commit hooks (which the C++ engine uses,
+// see native/shared/ChangeFeed.h), so changes are recorded by temporary triggers into a temporary
+// table instead. Changes of transactions that are rolled back are rolled back with them
+public class ChangeFeed {
+    // IDs of records changed in one table
+    public static class TableChanges {
+        public final List<String> inserted = new ArrayList<>();
+        public final List<String> updated = new ArrayList<>();
+        public final List<String> deleted = new ArrayList<>();
+    }
+
+    private static final int INSERTED = 0;
+    private static final int UPDATED = 1;
+    private static final int DELETED = 2;
+
+    private final WMDatabase db;
+    private final Set<String> tables; // tables of the schema - other ones (e.g. FTS) are not recorded
+    // NOTE: Set when a write may have happened, so that other operations don't have to check
+    private volatile boolean mayHaveChanges = false;
+    // Changes of batches of a group commit that were already split off, see endBatch
+    private final List<Map<String, TableChanges>> pendingBatches = new ArrayList<>();
+
+    ChangeFeed(WMDatabase db, Set<String> tables) {
+        this.db = db;
+        this.tables = tables;
+    }
+
+    // Creates triggers on tables of the schema. Must be called again when tables are (re)created
+    void install() {
+        db.execute("create temp table if not exists wm_change_feed (tbl text not null, op integer not null, id text)");
+        List<String> existingTables = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery(Queries.select_tables)) {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                String table = cursor.getString(nameIndex);
+                if (tables.contains(table)) {
+                    existingTables.add(table);
+                }
+            }
+        }
+        db.transaction(() -> {
+            for (String table : existingTables) {
+                createTrigger(table, "insert", INSERTED, "new.id");
+                createTrigger(table, "update", UPDATED, "new.id");
+                createTrigger(table, "delete", DELETED, "old.id");
+            }
+        });
+    }
+
+    private void createTrigger(String table, String event, int op, String id) {
+        String name = "\"wm_change_feed_" + table.replace("\"", "\"\"") + "_" + event + "\"";
+        db.execute("drop trigger if exists temp." + name);
+        db.execute("create temp trigger " + name + " after " + event + " on main.\"" +
+                table.replace("\"", "\"\"") + "\" begin insert into temp.wm_change_feed values ('" +
+                table.replace("'", "''") + "', " + op + ", " + id + "); end");
+    }
+
+    void markWritten() {
+        mayHaveChanges = true;
+    }
+
+    // Splits changes recorded so far off (e.g. of one batch of a group commit), so that they're
+    // returned by drain separately from later ones. Must be called in the transaction that made them
+    void endBatch() {
+        Map<String, TableChanges> changes = read();
+        if (changes != null) {
+            pendingBatches.add(changes);
+        }
+    }
+
+    // Forgets changes split off by endBatch - must be called if their transaction is rolled back
+    void discardBatches() {
+        pendingBatches.clear();
+    }
+
+    // Returns (and forgets) changes recorded since the last call - one entry per batch split off by
+    // endBatch, and one for the rest, if any
+    // NOTE: Should be called after every write (and outside of transactions), so that changes of
+    // different transactions aren't merged
+    List<Map<String, TableChanges>> drain() {
+        if (!mayHaveChanges) {
+            return Collections.emptyList();
+        }
+        mayHaveChanges = false;
+        List<Map<String, TableChanges>> drained = new ArrayList<>(pendingBatches);
+        pendingBatches.clear();
+        Map<String, TableChanges> changes = read();
+        if (changes != null) {
+            drained.add(changes);
+        }
+        return drained;
+    }
+
+    // Reads and deletes recorded changes, returns null if none
+    private Map<String, TableChanges> read() {
+        Map<String, TableChanges> changes = new HashMap<>();
+        try (Cursor cursor = db.rawQuery("select tbl, op, id from temp.wm_change_feed order by rowid")) {
+            while (cursor.moveToNext()) {
+                String table = cursor.getString(0);
+                TableChanges tableChanges = changes.get(table);
+                if (tableChanges == null) {
+                    tableChanges = new TableChanges();
+                    changes.put(table, tableChanges);
+                }
+                switch (cursor.getInt(1)) {
+                    case INSERTED:
+                        tableChanges.inserted.add(cursor.getString(2));
+                        break;
+                    case UPDATED:
+                        tableChanges.updated.add(cursor.getString(2));
+                        break;
+                    default:
+                        tableChanges.deleted.add(cursor.getString(2));
+                        break;
+                }
+            }
+        }
+        if (changes.isEmpty()) {
+            return null;
+        }
+        db.execute("delete from temp.wm_change_feed");
+        return changes;
+    }
+}
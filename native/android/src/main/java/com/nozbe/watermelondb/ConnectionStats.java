@@ -0,0 +1,175 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.nozbe.watermelondb.utils.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Always-on instrumentation of a connection (one per tag), cheap enough to leave on in production:
+// latency of every operation (measured from when the bridge received the call, so it includes time
+// spent queued while the connection was being set up, or waiting for a reader), rows and bytes
+// returned, statements executed by batches, and record/query cache hit ratios.
+// See WMDatabaseBridge.getStats
+public class ConnectionStats {
+    // Counters of the operation currently running on this thread. Drivers add to them as they go,
+    // and the bridge attributes them to the operation once it's done
+    public static class Sample {
+        public long rows;
+        public long bytes; // approximate - string lengths, 8 per number
+        public long statements;
+        public long recordCacheHits;
+        public long recordCacheMisses;
+        public long queryCacheHits;
+        public long queryCacheMisses;
+
+        private void reset() {
+            rows = 0;
+            bytes = 0;
+            statements = 0;
+            recordCacheHits = 0;
+            recordCacheMisses = 0;
+            queryCacheHits = 0;
+            queryCacheMisses = 0;
+        }
+    }
+
+    private static final ThreadLocal<Sample> currentSample = new ThreadLocal<Sample>() {
+        @Override
+        protected Sample initialValue() {
+            return new Sample();
+        }
+    };
+
+    public static Sample sample() {
+        return currentSample.get();
+    }
+
+    static Sample beginSample() {
+        Sample sample = currentSample.get();
+        sample.reset();
+        return sample;
+    }
+
+    private static class OperationStats {
+        // NOTE: in microseconds
+        final Histogram latency = new Histogram();
+        final Histogram queued = new Histogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+    }
+
+    private final ConcurrentMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final Histogram batchStatements = new Histogram();
+    private final AtomicLong recordCacheHits = new AtomicLong();
+    private final AtomicLong recordCacheMisses = new AtomicLong();
+    private final AtomicLong queryCacheHits = new AtomicLong();
+    private final AtomicLong queryCacheMisses = new AtomicLong();
+    private volatile long since = System.currentTimeMillis();
+
+    // queuedNanos - time between the bridge receiving the call and the operation starting
+    // totalNanos - time between the bridge receiving the call and the operation being done
+    void record(String operation, long queuedNanos, long totalNanos, Sample sample, boolean failed) {
+        OperationStats stats = operations.get(operation);
+        if (stats == null) {
+            OperationStats newStats = new OperationStats();
+            stats = operations.putIfAbsent(operation, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        stats.latency.record(totalNanos / 1000);
+        stats.queued.record(queuedNanos / 1000);
+        if (failed) {
+            stats.errors.incrementAndGet();
+        }
+        if (sample.rows != 0) {
+            stats.rows.addAndGet(sample.rows);
+        }
+        if (sample.bytes != 0) {
+            stats.bytes.addAndGet(sample.bytes);
+        }
+        if (sample.statements != 0) {
+            batchStatements.record(sample.statements);
+        }
+        if (sample.recordCacheHits != 0) {
+            recordCacheHits.addAndGet(sample.recordCacheHits);
+        }
+        if (sample.recordCacheMisses != 0) {
+            recordCacheMisses.addAndGet(sample.recordCacheMisses);
+        }
+        if (sample.queryCacheHits != 0) {
+            queryCacheHits.addAndGet(sample.queryCacheHits);
+        }
+        if (sample.queryCacheMisses != 0) {
+            queryCacheMisses.addAndGet(sample.queryCacheMisses);
+        }
+    }
+
+    void reset() {
+        for (OperationStats stats : operations.values()) {
+            stats.latency.reset();
+            stats.queued.reset();
+            stats.errors.set(0);
+            stats.rows.set(0);
+            stats.bytes.set(0);
+        }
+        batchStatements.reset();
+        recordCacheHits.set(0);
+        recordCacheMisses.set(0);
+        queryCacheHits.set(0);
+        queryCacheMisses.set(0);
+        since = System.currentTimeMillis();
+    }
+
+    // Times are in milliseconds
+    WritableMap toMap() {
+        WritableMap operationsMap = Arguments.createMap();
+        for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+            OperationStats stats = entry.getValue();
+            if (stats.latency.getCount() == 0) {
+                continue;
+            }
+            WritableMap map = Arguments.createMap();
+            map.putDouble("count", stats.latency.getCount());
+            map.putDouble("errors", stats.errors.get());
+            map.putMap("latency", summary(stats.latency, 1000));
+            map.putMap("queued", summary(stats.queued, 1000));
+            map.putDouble("rows", stats.rows.get());
+            map.putDouble("bytes", stats.bytes.get());
+            operationsMap.putMap(entry.getKey(), map);
+        }
+
+        WritableMap map = Arguments.createMap();
+        map.putDouble("since", since);
+        map.putMap("operations", operationsMap);
+        map.putMap("batchStatements", summary(batchStatements, 1));
+        map.putMap("recordCache", hitRatio(recordCacheHits.get(), recordCacheMisses.get()));
+        map.putMap("queryCache", hitRatio(queryCacheHits.get(), queryCacheMisses.get()));
+        return map;
+    }
+
+    private static WritableMap hitRatio(long hits, long misses) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("hits", hits);
+        map.putDouble("misses", misses);
+        map.putDouble("hitRatio", hits + misses > 0 ? (double) hits / (hits + misses) : 0);
+        return map;
+    }
+
+    private static WritableMap summary(Histogram histogram, double unit) {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("count", histogram.getCount());
+        map.putDouble("mean", histogram.getMean() / unit);
+        map.putDouble("p50", histogram.getValueAtPercentile(50) / unit);
+        map.putDouble("p90", histogram.getValueAtPercentile(90) / unit);
+        map.putDouble("p99", histogram.getValueAtPercentile(99) / unit);
+        map.putDouble("p999", histogram.getValueAtPercentile(99.9) / unit);
+        map.putDouble("max", histogram.getMax() / unit);
+        return map;
+    }
+}
@@ -0,0 +1,95 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.nozbe.watermelondb.utils.Schema;
+import com.nozbe.watermelondb.utils.TuningProfile;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+
+// Operations of a database connection used by WMDatabaseBridge
+// Implemented by WMDatabaseDriver (SQLCipher for Android) and WMDatabaseJNIDriver (shared C++ engine)
+// Operations that not every driver supports are in the nested interfaces - WMDatabaseBridge rejects
+// calls that need one the driver doesn't implement
+public interface DatabaseDriver {
+    Object find(String table, String id);
+
+    Object cachedQuery(String table, String query, Object[] args);
+
+    Object cachedQueryAsArray(String table, String query, Object[] args);
+
+    Object queryIds(String query, Object[] args);
+
+    Object unsafeQueryRaw(String query, Object[] args);
+
+    int count(String query, Object[] args);
+
+    String getLocal(String key);
+
+    void batch(ReadableArray operations);
+
+    // Same as batch, with operations as JSON
+    void batchJSON(String operationsJson);
+
+    // Executes batches together, but a failing batch doesn't affect the others. Returns errors of
+    // batches that failed (null for those that succeeded)
+    Exception[] batchGroup(List<GroupCommit.Batch> batches);
+
+    void unsafeResetDatabase(Schema schema);
+
+    // Re-encrypts the database with a new password (passphrase or raw key, see DatabaseKey)
+    void rekey(String password);
+
+    // Log of slow queries, or null if not enabled (or supported)
+    SlowQueryLog getSlowQueryLog();
+
+    // Starts recording rows changed by writes on the connection
+    void enableChangeFeed();
+
+    // Returns (and forgets) changes of transactions committed since the last call, oldest first, by
+    // table name. A table maps to null if only that it changed is known (not which records)
+    List<Map<String, ChangeFeed.TableChanges>> drainChanges();
+
+    // Returns (and forgets) IDs dropped from the native record cache since the last call
+    Map<String, List<String>> drainRecordCacheEvictions();
+
+    // Applies connection settings of the profile (to all connections, including read-only ones)
+    void setTuningProfile(TuningProfile profile);
+
+    // Copies the WAL into the database (see WalCheckpointer)
+    void checkpoint(boolean truncate);
+
+    // Releases memory held by the connection (caches), with ComponentCallbacks2 trim level
+    void onTrimMemory(int level);
+
+    void close();
+
+    // Query results fetched in pages, see WMDatabaseBridge.openQueryCursor
+    interface QueryCursors {
+        int openQueryCursor(String table, String query, Object[] args);
+
+        Object fetchQueryCursor(int handle, int count);
+
+        void closeQueryCursor(int handle);
+    }
+
+    // Inserts records from sync JSON provided via provideSyncJsonToBridge
+    interface SyncLoader {
+        Object unsafeLoadFromSync(int jsonId, ReadableMap schema, String preamble, String postamble);
+    }
+
+    // Reads on a pool of read-only connections, concurrently with writes
+    interface ReadPool {
+        // Executor to run reads on, or null if reads should run on the calling thread
+        ExecutorService getReadExecutor();
+
+        // Held by reads, so that they see writes only once they're committed and delivered
+        Lock getReadSnapshotLock();
+
+        // Called once the result of a write is delivered
+        void releaseWriteSnapshot();
+    }
+}
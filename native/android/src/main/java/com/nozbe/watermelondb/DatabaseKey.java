@@ -0,0 +1,232 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import com.nozbe.watermelondb.utils.KeyOptions;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteDatabase.CursorFactory;
+import net.sqlcipher.database.SQLiteDatabaseHook;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+
+// Opens SQLCipher databases with the password passed from JS - either a passphrase, or a raw 256-bit
+// key, as x'<64 hex digits>' (optionally followed by 32 hex digits of salt), which isn't derived
+// Deriving a key from a passphrase (PBKDF2) takes hundreds of ms on mid-range phones, on every open.
+// With KeyOptions.cacheDerivedKey, the derived key is remembered, encrypted by a key that never
+// leaves Android Keystore, and later opens use it as a raw key instead
+// NOTE: Cached keys are encrypted with the passphrase as associated data, so they can only be used
+// by opens with the same passphrase. A cached key that doesn't work (e.g. after rekey) is forgotten
+public class DatabaseKey {
+    private static final Pattern RAW_KEY = Pattern.compile("x'[0-9A-Fa-f]{64}(?:[0-9A-Fa-f]{32})?'");
+    // SQLCipher 4 defaults
+    private static final int DEFAULT_KDF_ITERATIONS = 256000;
+    private static final int KEY_BYTES = 32;
+    private static final int SALT_BYTES = 16;
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEYSTORE_ALIAS = "WatermelonDB.derivedKeys";
+    private static final String PREFERENCES = "WatermelonDB.derivedKeys";
+    private static final int GCM_TAG_BITS = 128;
+
+    // Paths of databases whose keys are being derived in the background
+    private static final Set<String> deriving = new HashSet<>();
+
+    static boolean isRawKey(String password) {
+        return RAW_KEY.matcher(password).matches();
+    }
+
+    // NOTE: The connection is counted by OpenConnections until it's closed (see SQLCipherStorage.close)
+    static SQLiteDatabase open(Context context, String path, String password, KeyOptions options) {
+        OpenConnections.opening(path);
+        try {
+            return openCounted(context, path, password, options);
+        } catch (RuntimeException e) {
+            OpenConnections.closed(path);
+            throw e;
+        }
+    }
+
+    private static SQLiteDatabase openCounted(Context context, String path, String password, KeyOptions options) {
+        boolean cachesKey = options.cacheDerivedKey && !password.isEmpty() && !isRawKey(password) &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+        if (cachesKey) {
+            String cachedKey = loadDerivedKey(context, path, password);
+            if (cachedKey != null) {
+                try {
+                    return openVerified(path, cachedKey, null);
+                } catch (RuntimeException e) {
+                    log("Cached key of " + path + " doesn't work, forgetting it: " + e);
+                    forgetDerivedKey(context, path);
+                }
+            }
+        }
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, password, (CursorFactory) null, kdfHook(password, options));
+        if (cachesKey) {
+            deriveInBackground(context, path, password, options.kdfIterations);
+        }
+        return database;
+    }
+
+    // Opens database and checks that it can be read (i.e. that the key is right)
+    private static SQLiteDatabase openVerified(String path, String key, SQLiteDatabaseHook hook) {
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, key, (CursorFactory) null, hook);
+        try (Cursor cursor = database.rawQuery("select count(*) from sqlite_master", new String[]{})) {
+            cursor.moveToFirst();
+        } catch (RuntimeException e) {
+            database.close();
+            throw e;
+        }
+        return database;
+    }
+
+    private static SQLiteDatabaseHook kdfHook(String password, KeyOptions options) {
+        if (options.kdfIterations <= 0 || isRawKey(password)) {
+            return null;
+        }
+        return new SQLiteDatabaseHook() {
+            @Override
+            public void preKey(SQLiteDatabase database) {
+            }
+
+            @Override
+            public void postKey(SQLiteDatabase database) {
+                database.execSQL("pragma kdf_iter = " + options.kdfIterations);
+            }
+        };
+    }
+
+    private static void deriveInBackground(Context context, String path, String password, int kdfIterations) {
+        synchronized (deriving) {
+            if (!deriving.add(path)) {
+                return;
+            }
+        }
+        Context appContext = context.getApplicationContext();
+        Thread thread = new Thread(() -> {
+            try {
+                String key = deriveKey(path, password, kdfIterations);
+                if (key != null) {
+                    OpenConnections.opening(path);
+                    try {
+                        openVerified(path, key, null).close();
+                    } finally {
+                        OpenConnections.closed(path);
+                    }
+                    storeDerivedKey(appContext, path, password, key);
+                }
+            } catch (Exception e) {
+                log("Failed to cache key of " + path + ": " + e);
+            } finally {
+                synchronized (deriving) {
+                    deriving.remove(path);
+                }
+            }
+        }, "WMDatabaseKeyDerivation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Derives the key the same way SQLCipher does, with the salt from the database file, and returns it
+    // as a raw key with salt. Returns null if the database wasn't written yet (has no salt)
+    static String deriveKey(String path, String password, int kdfIterations) throws IOException, GeneralSecurityException {
+        byte[] salt = new byte[SALT_BYTES];
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() < SALT_BYTES) {
+                return null;
+            }
+            file.readFully(salt);
+        }
+        int iterations = kdfIterations > 0 ? kdfIterations : DEFAULT_KDF_ITERATIONS;
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BYTES * 8);
+        byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512").generateSecret(spec).getEncoded();
+        spec.clearPassword();
+        return "x'" + hex(key) + hex(salt) + "'";
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02X", b));
+        }
+        return hex.toString();
+    }
+
+    private static SecretKey keystoreKey() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        SecretKey key = (SecretKey) keyStore.getKey(KEYSTORE_ALIAS, null);
+        if (key != null) {
+            return key;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEYSTORE_ALIAS, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+
+    private static void storeDerivedKey(Context context, String path, String password, String key) throws IOException, GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, keystoreKey());
+        cipher.updateAAD(password.getBytes(StandardCharsets.UTF_8));
+        byte[] encrypted = cipher.doFinal(key.getBytes(StandardCharsets.US_ASCII));
+        String value = Base64.encodeToString(cipher.getIV(), Base64.NO_WRAP) + ":" + Base64.encodeToString(encrypted, Base64.NO_WRAP);
+        preferences(context).edit().putString(path, value).apply();
+    }
+
+    // Returns cached key, or null if there's none (or it isn't of this password)
+    private static String loadDerivedKey(Context context, String path, String password) {
+        String value = preferences(context).getString(path, null);
+        if (value == null) {
+            return null;
+        }
+        try {
+            String[] parts = value.split(":");
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, keystoreKey(), new GCMParameterSpec(GCM_TAG_BITS, Base64.decode(parts[0], Base64.NO_WRAP)));
+            cipher.updateAAD(password.getBytes(StandardCharsets.UTF_8));
+            return new String(cipher.doFinal(Base64.decode(parts[1], Base64.NO_WRAP)), StandardCharsets.US_ASCII);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            log("Can't use cached key of " + path + ": " + e);
+            return null;
+        }
+    }
+
+    static void forgetDerivedKey(Context context, String path) {
+        preferences(context).edit().remove(path).apply();
+    }
+
+    private static SharedPreferences preferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    private static void log(String message) {
+        if (BuildConfig.DEBUG) {
+            Logger.getLogger("DB_Key").info(message);
+        }
+    }
+}
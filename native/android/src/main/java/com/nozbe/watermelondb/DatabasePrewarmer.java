@@ -0,0 +1,151 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Trace;
+
+import com.nozbe.watermelondb.utils.PrewarmOptions;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+// Opens a database connection on a background thread ahead of time (e.g. from Application.onCreate,
+// while JS is still loading), checks its schema version, and reads (the first rows of) hot tables
+// and indexes into the page cache. The connection is then registered in WMDatabase.INSTANCES, where
+// the driver picks it up instead of opening the database again
+public class DatabasePrewarmer {
+    private static final Map<String, Future<WMDatabase>> pending = new HashMap<>();
+
+    public static void prewarm(Context context, String dbName, PrewarmOptions options) {
+        if (WMDatabase.isInMemory(dbName)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        String instanceKey = WMDatabase.instanceKey(dbName, options.password);
+        FutureTask<WMDatabase> task = new FutureTask<>(() -> open(appContext, dbName, options));
+        synchronized (pending) {
+            if (pending.containsKey(instanceKey)) {
+                return;
+            }
+            pending.put(instanceKey, task);
+        }
+        Thread thread = new Thread(() -> {
+            task.run();
+            closeIfUnclaimed(instanceKey, task, options.unclaimedTimeoutMs);
+        }, "WMDatabasePrewarmer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Closes the prewarmed connection if no driver took it over in time (e.g. the app was started in
+    // the background, and JS never asked for the database), so that it isn't held open for nothing
+    private static void closeIfUnclaimed(String instanceKey, Future<WMDatabase> task, long timeoutMs) {
+        try {
+            Thread.sleep(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        WMDatabase database;
+        // NOTE: Under WMDatabase's lock, so that getInstance can't find it in INSTANCES meanwhile
+        synchronized (WMDatabase.class) {
+            synchronized (pending) {
+                if (pending.get(instanceKey) != task) {
+                    return;
+                }
+                pending.remove(instanceKey);
+            }
+            try {
+                database = task.get();
+            } catch (InterruptedException | ExecutionException e) {
+                return;
+            }
+            if (WMDatabase.INSTANCES.get(instanceKey) == database) {
+                WMDatabase.INSTANCES.remove(instanceKey);
+            }
+        }
+        log("Prewarmed database wasn't used in " + timeoutMs + " ms, closing it");
+        database.close();
+    }
+
+    // Waits until prewarming of this database (if any) is done. Returns the prewarmed connection,
+    // or null if it wasn't prewarmed (or prewarming failed, in which case it should just be opened)
+    static WMDatabase await(String dbName, String password) {
+        Future<WMDatabase> task;
+        synchronized (pending) {
+            task = pending.remove(WMDatabase.instanceKey(dbName, password));
+        }
+        if (task == null) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log("Failed to prewarm database " + dbName + ": " + e.getCause());
+            return null;
+        }
+    }
+
+    private static WMDatabase open(Context context, String dbName, PrewarmOptions options) {
+        Trace.beginSection("DatabasePrewarmer.open");
+        try {
+            WMDatabase database = WMDatabase.buildDatabase(dbName, options.password, context, true, options.keyOptions);
+            int databaseVersion = database.getUserVersion();
+            if (databaseVersion == options.schemaVersion) {
+                warm(database, options);
+            } else {
+                // NOTE: Will be set up or migrated by the driver, nothing worth warming up
+                log("Database " + dbName + " is at version " + databaseVersion + ", not prewarming tables");
+            }
+            synchronized (WMDatabase.class) {
+                WMDatabase.INSTANCES.put(WMDatabase.instanceKey(dbName, options.password), database);
+            }
+            return database;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    // NOTE: Reads at most options.maxRows rows of each table and index, so that it takes bounded time
+    // however big the database is
+    private static void warm(WMDatabase database, PrewarmOptions options) {
+        for (String table : options.hotTables) {
+            try {
+                database.count("select count(*) as count from (select * from `" + table + "` limit " +
+                        options.maxRows + ")");
+            } catch (Exception e) {
+                log("Failed to prewarm table " + table + ": " + e);
+            }
+        }
+        for (String index : options.hotIndexes) {
+            try {
+                String table = tableOfIndex(database, index);
+                if (table != null) {
+                    database.count("select count(*) as count from (select 1 from `" + table + "` indexed by `" +
+                            index + "` limit " + options.maxRows + ")");
+                }
+            } catch (Exception e) {
+                log("Failed to prewarm index " + index + ": " + e);
+            }
+        }
+    }
+
+    private static String tableOfIndex(WMDatabase database, String index) {
+        Object[] args = {index};
+        try (Cursor cursor = database.rawQuery("select tbl_name from sqlite_master where type = 'index' and name = ?", args)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    private static void log(String message) {
+        if (BuildConfig.DEBUG) {
+            Logger.getLogger("DB_Prewarmer").info(message);
+        }
+    }
+}
@@ -1,31 +1,87 @@
 package com.nozbe.watermelondb;
 
-import android.database.Cursor;
-import com.facebook.react.bridge.Arguments;
-import com.facebook.react.bridge.WritableMap;
-
 public class DatabaseUtils {
-    public static WritableMap cursorToMap(Cursor cursor) {
-        WritableMap map = Arguments.createMap();
-        for (int i = 0; i < cursor.getColumnCount(); i++) {
-            switch (cursor.getType(i)) {
-                case Cursor.FIELD_TYPE_NULL:
-                    map.putNull(cursor.getColumnName(i));
-                    break;
-                case Cursor.FIELD_TYPE_INTEGER:
-                case Cursor.FIELD_TYPE_FLOAT:
-                    map.putDouble(cursor.getColumnName(i), cursor.getDouble(i));
-                    break;
-                case Cursor.FIELD_TYPE_STRING:
-                    map.putString(cursor.getColumnName(i), cursor.getString(i));
-                    break;
-                case Cursor.FIELD_TYPE_BLOB:
-                default:
-                    map.putString(cursor.getColumnName(i), "");
-                    break;
+    // Whether the query only reads (so it can run on a read-only connection). Anything else (including
+    // pragmas and CTEs) may write, so it must run on the writer
+    public static boolean isSelect(String query) {
+        String trimmed = query.trim();
+        return trimmed.regionMatches(true, 0, "select", 0, 6);
+    }
+
+    enum TokenType {
+        WORD, // keyword or unquoted name
+        LITERAL, // string, number or blob
+        SYMBOL,
+    }
+
+    interface TokenFunction {
+        void applyTokenFunction(TokenType type, int start, int end);
+    }
+
+    // Calls the function with each token of the SQL text, except for whitespace, comments and quoted
+    // names (which are skipped, like everything between the tokens)
+    static void tokenize(String sql, TokenFunction function) {
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int start = i;
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end != -1 ? end + 2 : length;
+            } else if (c == '"' || c == '`' || c == '[') {
+                i = skipQuoted(sql, i, c == '[' ? ']' : c);
+            } else if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                function.applyTokenFunction(TokenType.LITERAL, start, i);
+            } else if ((c == 'x' || c == 'X') && i + 1 < length && sql.charAt(i + 1) == '\'') {
+                i = skipQuoted(sql, i + 1, '\'');
+                function.applyTokenFunction(TokenType.LITERAL, start, i);
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(sql.charAt(i + 1)))) {
+                i++;
+                while (i < length) {
+                    char next = sql.charAt(i);
+                    if ((next == '+' || next == '-') && (sql.charAt(i - 1) == 'e' || sql.charAt(i - 1) == 'E')) {
+                        i++;
+                    } else if (Character.isLetterOrDigit(next) || next == '.') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                function.applyTokenFunction(TokenType.LITERAL, start, i);
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                function.applyTokenFunction(TokenType.WORD, start, i);
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else {
+                i++;
+                function.applyTokenFunction(TokenType.SYMBOL, start, i);
+            }
+        }
+    }
+
+    // Returns index after the closing quote (a doubled quote is an escaped one)
+    private static int skipQuoted(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote && quote != ']') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
             }
+            i++;
         }
-        return map;
+        return i;
     }
 
     public static <T> boolean arrayContains(final T[] array, final T value) {
@@ -0,0 +1,81 @@
+package com.nozbe.watermelondb;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Batches of a connection waiting to be committed together, in one transaction, so that bursts of
+// small writes share one commit (and fsync) instead of paying for one each. See WMDatabaseBridge.batch
+// NOTE: Not thread-safe - must only be used on the bridge's (native modules) thread
+public class GroupCommit {
+    public static class Batch {
+        // One of these is set
+        public final ReadableArray operations;
+        public final String operationsJson;
+        final Promise promise;
+        final long receivedAt;
+
+        Batch(ReadableArray operations, String operationsJson, Promise promise) {
+            this.operations = operations;
+            this.operationsJson = operationsJson;
+            this.promise = promise;
+            this.receivedAt = System.nanoTime();
+        }
+    }
+
+    // How long to wait for more batches after the first one (0 = only commit together those that
+    // have already been received by the time the first one is committed)
+    private final long windowMs;
+    private final List<Batch> pending = new ArrayList<>();
+    private Handler handler;
+    private Runnable scheduledCommit;
+
+    GroupCommit(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    // Adds batch to be committed. Once it's time to commit, `commit` is called (on this thread)
+    void add(Batch batch, Runnable commit) {
+        pending.add(batch);
+        if (pending.size() > 1) {
+            return;
+        }
+        if (handler == null) {
+            Looper looper = Looper.myLooper();
+            if (looper == null) {
+                // NOTE: Can't schedule on this thread, so there's no grouping
+                commit.run();
+                return;
+            }
+            handler = new Handler(looper);
+        }
+        // NOTE: Bridge calls already queued on this thread run before `commit`, so their batches are
+        // committed with this one even without a window
+        scheduledCommit = commit;
+        if (windowMs > 0) {
+            handler.postDelayed(commit, windowMs);
+        } else {
+            handler.post(commit);
+        }
+    }
+
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    // Returns (and forgets) batches to commit now
+    List<Batch> takePending() {
+        if (scheduledCommit != null) {
+            handler.removeCallbacks(scheduledCommit);
+            scheduledCommit = null;
+        }
+        List<Batch> batches = new ArrayList<>(pending);
+        pending.clear();
+        return batches;
+    }
+}
@@ -0,0 +1,126 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Contents of local_storage, kept current by batches, so that getLocal (including the synchronous
+// variant, which blocks JS) doesn't have to query sqlite. Values set and removed by
+// SQLiteAdapter.setLocal/removeLocal are applied once committed. Any other write to local_storage
+// (and resets, migrations, etc.) makes it load everything again on next use
+public class LocalStorageCache {
+    // Queries of SQLiteAdapter.setLocal and removeLocal
+    private static final String SET = "insert or replace into \"local_storage\" (\"key\", \"value\") values (?, ?)";
+    private static final String REMOVE = "delete from \"local_storage\" where \"key\" == ?";
+
+    // null if not loaded
+    private volatile Map<String, String> values;
+    // Changes made by the batch in progress: {key, value}, {key, null} for removed keys, or
+    // {null, null} when contents are unknown
+    private final List<String[]> pending = new ArrayList<>();
+    // Incremented on every change, so that contents read before it aren't kept after it
+    private long generation = 0;
+
+    // Whether the batch query might write to local_storage
+    static boolean writes(String sql) {
+        return sql.contains("local_storage");
+    }
+
+    // NOTE: Can be called on any thread
+    String get(WMDatabase db, String key) {
+        Map<String, String> loaded = values;
+        if (loaded == null) {
+            loaded = load(db);
+        }
+        return loaded.get(key);
+    }
+
+    Map<String, String> load(WMDatabase db) {
+        long readGeneration;
+        synchronized (this) {
+            readGeneration = generation;
+        }
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        try (Cursor cursor = db.rawQuery(Queries.select_all_local_storage)) {
+            while (cursor.moveToNext()) {
+                loaded.put(cursor.getString(0), cursor.getString(1));
+            }
+        }
+        synchronized (this) {
+            if (readGeneration == generation) {
+                values = loaded;
+            }
+        }
+        return loaded;
+    }
+
+    // Called for every row of a batch query that writes to local_storage
+    synchronized void addWrite(String sql, Object[] args) {
+        if (SET.equals(sql) && args.length == 2 && args[0] instanceof String && args[1] instanceof String) {
+            pending.add(new String[]{(String) args[0], (String) args[1]});
+        } else if (REMOVE.equals(sql) && args.length == 1 && args[0] instanceof String) {
+            pending.add(new String[]{(String) args[0], null});
+        } else {
+            pending.add(new String[]{null, null});
+        }
+    }
+
+    // Same as above, but reads args of a bridge batch in place, without copying them
+    synchronized void addWrite(String sql, ReadableArray args) {
+        if (SET.equals(sql) && args.size() == 2 && args.getType(0) == ReadableType.String && args.getType(1) == ReadableType.String) {
+            pending.add(new String[]{args.getString(0), args.getString(1)});
+        } else if (REMOVE.equals(sql) && args.size() == 1 && args.getType(0) == ReadableType.String) {
+            pending.add(new String[]{args.getString(0), null});
+        } else {
+            pending.add(new String[]{null, null});
+        }
+    }
+
+    // Position in pending changes, so that changes of a batch that was rolled back can be discarded
+    synchronized int mark() {
+        return pending.size();
+    }
+
+    synchronized void discardSince(int mark) {
+        pending.subList(mark, pending.size()).clear();
+    }
+
+    // Applies changes of the write that was just committed
+    // NOTE: Applying a change twice (to contents loaded after it was committed) is harmless
+    synchronized void commit() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        generation++;
+        Map<String, String> loaded = values;
+        for (String[] change : pending) {
+            if (loaded == null) {
+                break;
+            } else if (change[0] == null) {
+                loaded = null;
+            } else if (change[1] == null) {
+                loaded.remove(change[0]);
+            } else {
+                loaded.put(change[0], change[1]);
+            }
+        }
+        values = loaded;
+        pending.clear();
+    }
+
+    synchronized void rollback() {
+        pending.clear();
+    }
+
+    synchronized void clear() {
+        generation++;
+        values = null;
+        pending.clear();
+    }
+}
@@ -0,0 +1,50 @@
+package com.nozbe.watermelondb;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+// Number of connections this process has open to each database file, so that the file isn't replaced
+// from under any of them (see SchemaTemplates.install). Connections opened by DatabaseKey are counted
+// here, those of JSI databases (and the JNI driver) are counted by the C++ engine
+class OpenConnections {
+    private static final Map<String, Integer> counts = new HashMap<>();
+
+    interface Action {
+        void run() throws IOException;
+    }
+
+    // NOTE: Must be called before the connection is opened (and closed called if opening fails), so
+    // that it can't be opened while the file is being replaced
+    static synchronized void opening(String path) {
+        counts.merge(path, 1, Integer::sum);
+    }
+
+    static synchronized void closed(String path) {
+        counts.computeIfPresent(path, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    // Runs the action (and returns true) only if no connections to the file are open, and keeps new
+    // ones from being opened by DatabaseKey until it's done. Returns false otherwise
+    // NOTE: C++ connections opened while the action runs aren't kept out
+    static synchronized boolean whileNoneOpen(String path, Action action) throws IOException {
+        if (counts.containsKey(path) || nativeConnections(path) > 0) {
+            return false;
+        }
+        action.run();
+        return true;
+    }
+
+    // NOTE: WatermelonJSI is optional, see WMDatabaseBridge.provideSyncJson for why reflection
+    private static int nativeConnections(String path) {
+        try {
+            Class<?> clazz = Class.forName("com.nozbe.watermelondb.jsi.WatermelonJSI");
+            Method method = clazz.getDeclaredMethod("openConnections", String.class);
+            return (int) method.invoke(null, path);
+        } catch (Exception | LinkageError e) {
+            // JSI not installed
+            return 0;
+        }
+    }
+}
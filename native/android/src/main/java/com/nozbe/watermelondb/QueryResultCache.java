@@ -0,0 +1,279 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Bounded (least recently used) cache of results of queryIds, count, and raw select queries, by SQL
+// and arguments, so that identical reads (e.g. from list re-renders) don't hit sqlite again
+// Every entry remembers which tables its query reads, and is dropped once any of them is written to
+// NOTE: Tables are found by looking for names of the database's tables in the SQL, which may find
+// more than are actually used (e.g. a column named like a table), but never fewer
+public class QueryResultCache {
+    // Results of raw queries, as plain values - bridge arrays can only be sent once
+    static class RawRows {
+        final String[] columns;
+        final List<Object[]> rows = new ArrayList<>();
+        long bytes;
+
+        // NOTE: Same encoding as RowEncoder (for raw queries)
+        RawRows(Cursor cursor) {
+            columns = cursor.getColumnNames();
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    bytes += columns[i].length();
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            bytes += 8;
+                            long value = cursor.getLong(i);
+                            row[i] = value == (int) value ? (Object) (int) value : (Object) (double) value;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            bytes += 8;
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String string = cursor.getString(i);
+                            bytes += string.length();
+                            row[i] = string;
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                        default:
+                            row[i] = "";
+                            break;
+                    }
+                }
+                rows.add(row);
+            }
+        }
+
+        WritableArray toArray(WritableFactory writables) {
+            WritableArray array = writables.createArray();
+            for (Object[] row : rows) {
+                WritableMap map = writables.createMap();
+                for (int i = 0; i < columns.length; i++) {
+                    Object value = row[i];
+                    if (value == null) {
+                        map.putNull(columns[i]);
+                    } else if (value instanceof Integer) {
+                        map.putInt(columns[i], (Integer) value);
+                    } else if (value instanceof Double) {
+                        map.putDouble(columns[i], (Double) value);
+                    } else {
+                        map.putString(columns[i], (String) value);
+                    }
+                }
+                array.pushMap(map);
+            }
+            return array;
+        }
+    }
+
+    private static class Entry {
+        final Object value; // String[] (queryIds), Integer (count), or RawRows (unsafeQueryRaw)
+        final Set<String> tables;
+        final long bytes;
+
+        Entry(Object value, Set<String> tables, long bytes) {
+            this.value = value;
+            this.tables = tables;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final long ENTRY_OVERHEAD = 64;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    // Incremented on every invalidation, so that results read before it aren't cached after it
+    private long generation = 0;
+    private Set<String> databaseTables; // null if not loaded yet
+    // Incremented whenever tables might have been created or dropped, so that a table list loaded
+    // before it isn't kept
+    private long tablesGeneration = 0;
+    private final Set<String> pendingWrites = new HashSet<>();
+
+    public QueryResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // NOTE: Type of every arg is a part of the key, so that e.g. 1 and '1' are not confused
+    static String key(String kind, String sql, Object[] args) {
+        StringBuilder key = new StringBuilder(kind).append('\u0000').append(sql);
+        for (Object arg : args) {
+            key.append('\u0000');
+            if (arg == null) {
+                key.append('n');
+            } else if (arg instanceof String) {
+                key.append('s').append((String) arg);
+            } else if (arg instanceof Boolean) {
+                key.append('b').append(arg);
+            } else {
+                key.append('d').append(((Number) arg).doubleValue());
+            }
+        }
+        return key.toString();
+    }
+
+    // Returns the cached result, or null. Adds to hit/miss counts of the current operation
+    synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        if (entry == null) {
+            sample.queryCacheMisses++;
+            return null;
+        }
+        sample.queryCacheHits++;
+        return entry.value;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    // Caches result of the query, unless the cache was invalidated since it was read (generation
+    // taken before reading it). tables - ones the query reads, see tablesIn
+    synchronized void put(String key, long readGeneration, Object value, long valueBytes, Set<String> tables) {
+        if (readGeneration != generation) {
+            return;
+        }
+        long entryBytes = ENTRY_OVERHEAD + key.length() * 2L + valueBytes;
+        if (tables.isEmpty() || entryBytes > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, tables, entryBytes));
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entryBytes;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    // Remembers a write query about to be executed, to invalidate results it affects once committed
+    synchronized void addWrite(String sql) {
+        pendingWrites.add(sql);
+    }
+
+    // Drops results of queries reading tables written to by queries passed to addWrite
+    // NOTE: Must be called after the write is committed (on the connection that wrote), so that
+    // readers can't cache older results
+    void invalidateWrites(WMDatabase db) {
+        List<String> writes;
+        synchronized (this) {
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        Set<String> tables = new HashSet<>();
+        for (String sql : writes) {
+            Set<String> written = tablesIn(sql, db);
+            if (written.isEmpty()) {
+                // NOTE: Might be a table that didn't exist before (e.g. unsafeExecute creating one)
+                clear(true);
+                return;
+            }
+            tables.addAll(written);
+        }
+        dropTables(tables);
+    }
+
+    private synchronized void dropTables(Set<String> tables) {
+        generation++;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            for (String table : entry.tables) {
+                if (tables.contains(table)) {
+                    bytes -= entry.bytes;
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    // Drops all results. tablesChanged - whether tables might have been created or dropped
+    synchronized void clear(boolean tablesChanged) {
+        generation++;
+        entries.clear();
+        bytes = 0;
+        if (tablesChanged) {
+            databaseTables = null;
+            tablesGeneration++;
+        }
+    }
+
+    // Tables of the database the query reads (or writes). db - connection the query runs on, to look
+    // up the database's tables on if they aren't known yet
+    // NOTE: Not synchronized - runs sql, so it must be called outside of the cache's monitor, and with
+    // the connection the caller already holds (e.g. a pooled reader), never another thread's
+    Set<String> tablesIn(String sql, WMDatabase db) {
+        Set<String> databaseTables = databaseTables(db);
+        Set<String> tables = new HashSet<>();
+        Matcher matcher = IDENTIFIER.matcher(sql);
+        while (matcher.find()) {
+            String identifier = matcher.group();
+            if (databaseTables.contains(identifier)) {
+                tables.add(identifier);
+            }
+        }
+        return tables;
+    }
+
+    private Set<String> databaseTables(WMDatabase db) {
+        long loadedGeneration;
+        synchronized (this) {
+            if (databaseTables != null) {
+                return databaseTables;
+            }
+            loadedGeneration = tablesGeneration;
+        }
+        Set<String> tables = new HashSet<>();
+        try (Cursor cursor = db.rawQuery(Queries.select_tables)) {
+            int nameIndex = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(nameIndex));
+            }
+        }
+        synchronized (this) {
+            if (loadedGeneration == tablesGeneration) {
+                databaseTables = tables;
+            }
+        }
+        return tables;
+    }
+
+    static long sizeOf(String[] ids) {
+        long size = 16;
+        for (String id : ids) {
+            size += 40 + id.length() * 2L;
+        }
+        return size;
+    }
+
+    static long sizeOf(RawRows rows) {
+        // NOTE: rows.bytes counts characters and numbers, as in stats
+        return 16 + rows.rows.size() * (16 + rows.columns.length * 24L) + rows.bytes * 2;
+    }
+}
@@ -0,0 +1,165 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+
+import com.nozbe.watermelondb.utils.KeyOptions;
+import com.nozbe.watermelondb.utils.MemoryPressure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fixed-size pool of read-only connections, plus the executor that serves reads on them
+public class ReaderPool {
+    private final BlockingQueue<WMDatabase> readers;
+    private final Set<WMDatabase> lent = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ExecutorService executor;
+    private final int size;
+    private volatile String[] pragmas; // last set by setPragmas, applied to lent readers once returned
+
+    public ReaderPool(String name, String password, Context context, int size, KeyOptions keyOptions) {
+        this.readers = new ArrayBlockingQueue<>(size);
+        this.size = size;
+        for (int i = 0; i < size; i++) {
+            readers.add(WMDatabase.buildReader(name, password, context, keyOptions));
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(size, (runnable) -> {
+            Thread thread = new Thread(runnable, "WMDatabaseReader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public WMDatabase acquire() {
+        try {
+            return readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a reader connection", e);
+        }
+    }
+
+    public void release(WMDatabase reader) {
+        readers.add(reader);
+    }
+
+    // Takes an idle connection for longer than a single read (e.g. for a query cursor), or returns
+    // null if there's none. At least one connection is never lent, so that reads (which wait for one
+    // while holding the snapshot lock) can't wait for lent ones - which are given back on the writer
+    // thread, which in turn waits for reads before it commits
+    public WMDatabase lend() {
+        if (lent.size() >= size - 1) {
+            return null;
+        }
+        WMDatabase reader = readers.poll();
+        if (reader != null) {
+            lent.add(reader);
+        }
+        return reader;
+    }
+
+    public void giveBack(WMDatabase reader) {
+        lent.remove(reader);
+        String[] pragmas = this.pragmas;
+        if (pragmas != null) {
+            reader.setPragmas(pragmas);
+        }
+        release(reader);
+    }
+
+    // Releases memory of idle connections - ones in use (or lent) are skipped, instead of waiting for
+    // their reads to finish
+    public void releaseMemory(MemoryPressure pressure) {
+        List<WMDatabase> idle = new ArrayList<>(size);
+        try {
+            WMDatabase reader;
+            while (idle.size() < size && (reader = readers.poll()) != null) {
+                idle.add(reader);
+            }
+            for (WMDatabase idleReader : idle) {
+                idleReader.releaseMemory();
+                if (pressure != MemoryPressure.MODERATE) {
+                    idleReader.clearStatementCache();
+                }
+            }
+        } finally {
+            for (WMDatabase idleReader : idle) {
+                release(idleReader);
+            }
+        }
+    }
+
+    // Waits for in-flight reads, then runs the pragmas on every connection (lent ones get them once
+    // they're given back). NOTE: Must be called on the thread that lends connections
+    public void setPragmas(String[] pragmas) {
+        this.pragmas = pragmas;
+        int count = size - lent.size();
+        List<WMDatabase> idle = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                idle.add(acquire());
+            }
+            for (WMDatabase reader : idle) {
+                reader.setPragmas(pragmas);
+            }
+        } finally {
+            for (WMDatabase reader : idle) {
+                release(reader);
+            }
+        }
+    }
+
+    interface ClosedAction<T> {
+        T run();
+    }
+
+    // Waits for in-flight reads, closes every connection for the duration of the action (e.g. so that
+    // the database file can be replaced), then opens them again. NOTE: Lent connections must be given
+    // back first
+    public <T> T whileClosed(ClosedAction<T> action) {
+        List<WMDatabase> idle = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                idle.add(acquire());
+            }
+            for (WMDatabase reader : idle) {
+                reader.close();
+            }
+            return action.run();
+        } finally {
+            RuntimeException failure = null;
+            for (WMDatabase reader : idle) {
+                try {
+                    reader.reopen();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                release(reader);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    public void close() {
+        executor.shutdown();
+        for (WMDatabase reader : readers) {
+            reader.close();
+        }
+        readers.clear();
+    }
+}
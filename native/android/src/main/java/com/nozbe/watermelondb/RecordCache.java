@@ -0,0 +1,285 @@
+package com.nozbe.watermelondb;
+
+import com.nozbe.watermelondb.utils.IdSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Native mirror of JS-side RecordCache: tracks which records were already sent over the bridge,
+// so that subsequent finds/queries can send just the ID
+public abstract class RecordCache {
+    private Map<String, List<String>> evictions = new HashMap<>();
+
+    public abstract boolean isCached(String table, String id);
+
+    public abstract void markAsCached(String table, String id);
+
+    public abstract void removeFromCache(String table, String id);
+
+    public abstract int size();
+
+    public abstract void clear();
+
+    // Evicts records until at most `maxRecords` are left (e.g. on memory pressure)
+    public abstract void trimTo(int maxRecords);
+
+    public void markAsCached(String table, String[] ids) {
+        for (String id : ids) {
+            markAsCached(table, id);
+        }
+    }
+
+    public void removeFromCache(String table, String[] ids) {
+        for (String id : ids) {
+            removeFromCache(table, id);
+        }
+    }
+
+    // Returns (and forgets) IDs dropped from the cache since the last call, grouped by table
+    public Map<String, List<String>> drainEvictions() {
+        if (evictions.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> drained = evictions;
+        evictions = new HashMap<>();
+        return drained;
+    }
+
+    // Queues an eviction, so that JS can be told that the record will be sent in full next time
+    protected void addEviction(String table, String id) {
+        List<String> evictedIds = evictions.get(table);
+        if (evictedIds == null) {
+            evictedIds = new ArrayList<>();
+            evictions.put(table, evictedIds);
+        }
+        evictedIds.add(id);
+    }
+
+    protected void clearEvictions() {
+        evictions = new HashMap<>();
+    }
+
+    public static RecordCache create(int maxRecords, long maxBytes) {
+        if (maxRecords > 0 || maxBytes > 0) {
+            return new Bounded(maxRecords, maxBytes);
+        }
+        return new Unbounded();
+    }
+
+    public static class Unbounded extends RecordCache {
+        private final Map<String, IdSet> tables = new HashMap<>();
+
+        @Override
+        public boolean isCached(String table, String id) {
+            IdSet ids = tables.get(table);
+            return ids != null && ids.contains(id);
+        }
+
+        @Override
+        public void markAsCached(String table, String id) {
+            idsFor(table).add(id);
+        }
+
+        @Override
+        public void markAsCached(String table, String[] ids) {
+            idsFor(table).addAll(ids);
+        }
+
+        @Override
+        public void removeFromCache(String table, String id) {
+            IdSet ids = tables.get(table);
+            if (ids != null) {
+                ids.remove(id);
+            }
+        }
+
+        @Override
+        public void removeFromCache(String table, String[] ids) {
+            IdSet cachedIds = tables.get(table);
+            if (cachedIds != null) {
+                cachedIds.removeAll(ids);
+            }
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (IdSet ids : tables.values()) {
+                size += ids.size();
+            }
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            tables.clear();
+            clearEvictions();
+        }
+
+        @Override
+        public void trimTo(int maxRecords) {
+            int toEvict = size() - maxRecords;
+            // NOTE: No usage order is tracked here, so which records go is arbitrary
+            for (Map.Entry<String, IdSet> table : tables.entrySet()) {
+                if (toEvict <= 0) {
+                    break;
+                }
+                String tableName = table.getKey();
+                toEvict -= table.getValue().removeSome(toEvict, (id) -> addEviction(tableName, id));
+            }
+        }
+
+        private IdSet idsFor(String table) {
+            IdSet ids = tables.get(table);
+            if (ids == null) {
+                ids = new IdSet();
+                tables.put(table, ids);
+            }
+            return ids;
+        }
+    }
+
+    // LRU cache with a budget of record count and/or (estimated) bytes. Least recently sent or
+    // looked up records are evicted first, and the evictions are queued so that JS can be told
+    // that those records will be sent in full next time
+    public static class Bounded extends RecordCache {
+        // Rough per-entry heap cost on ART: id String + its backing array + list node + map entry
+        private static final int ENTRY_OVERHEAD_BYTES = 112;
+
+        private static class Entry {
+            final String table;
+            final String id;
+            Entry prev;
+            Entry next;
+
+            Entry(String table, String id) {
+                this.table = table;
+                this.id = id;
+            }
+        }
+
+        private final int maxRecords;
+        private final long maxBytes;
+        private final Map<String, Map<String, Entry>> tables = new HashMap<>();
+        // sentinel of a circular doubly-linked list, most recently used first
+        private final Entry lru = new Entry("", "");
+        private int count;
+        private long bytes;
+
+        public Bounded(int maxRecords, long maxBytes) {
+            this.maxRecords = maxRecords;
+            this.maxBytes = maxBytes;
+            lru.prev = lru;
+            lru.next = lru;
+        }
+
+        @Override
+        public boolean isCached(String table, String id) {
+            Map<String, Entry> entries = tables.get(table);
+            Entry entry = entries != null ? entries.get(id) : null;
+            if (entry == null) {
+                return false;
+            }
+            unlink(entry);
+            linkFirst(entry);
+            return true;
+        }
+
+        @Override
+        public void markAsCached(String table, String id) {
+            Map<String, Entry> entries = tables.get(table);
+            if (entries == null) {
+                entries = new HashMap<>();
+                tables.put(table, entries);
+            }
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                unlink(entry);
+                linkFirst(entry);
+                return;
+            }
+            entry = new Entry(table, id);
+            entries.put(id, entry);
+            linkFirst(entry);
+            count++;
+            bytes += costOf(entry);
+            evictIfNeeded();
+        }
+
+        @Override
+        public void removeFromCache(String table, String id) {
+            Map<String, Entry> entries = tables.get(table);
+            Entry entry = entries != null ? entries.remove(id) : null;
+            if (entry != null) {
+                unlink(entry);
+                count--;
+                bytes -= costOf(entry);
+            }
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public void clear() {
+            tables.clear();
+            lru.prev = lru;
+            lru.next = lru;
+            count = 0;
+            bytes = 0;
+            clearEvictions();
+        }
+
+        @Override
+        public void trimTo(int maxRecords) {
+            while (count > maxRecords && lru.prev != lru) {
+                evict(lru.prev);
+            }
+        }
+
+        private boolean isOverBudget() {
+            return (maxRecords > 0 && count > maxRecords) || (maxBytes > 0 && bytes > maxBytes);
+        }
+
+        private void evictIfNeeded() {
+            // NOTE: never evict the entry that was just added - JS is about to receive it
+            while (isOverBudget() && lru.prev != lru.next) {
+                evict(lru.prev);
+            }
+        }
+
+        private void evict(Entry entry) {
+            Map<String, Entry> entries = tables.get(entry.table);
+            if (entries != null) {
+                entries.remove(entry.id);
+            }
+            unlink(entry);
+            count--;
+            bytes -= costOf(entry);
+            addEviction(entry.table, entry.id);
+        }
+
+        private void linkFirst(Entry entry) {
+            entry.prev = lru;
+            entry.next = lru.next;
+            lru.next.prev = entry;
+            lru.next = entry;
+        }
+
+        private static void unlink(Entry entry) {
+            entry.prev.next = entry.next;
+            entry.next.prev = entry.prev;
+            entry.prev = null;
+            entry.next = null;
+        }
+
+        private static long costOf(Entry entry) {
+            return ENTRY_OVERHEAD_BYTES + 2L * entry.id.length();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Numbers of records (not marked as deleted) of tables that were counted before, kept current by
+// batches, so that unfiltered counts (e.g. of badges, recounted on every change) don't have to scan
+// the table again. Filtered counts are cached by QueryResultCache instead
+// Created records are added, and records marked as deleted or destroyed are subtracted (if they
+// weren't marked as deleted already, which is checked before they're removed). Tables written to in
+// any other way are forgotten, and counted again the next time
+// NOTE: Records marked as deleted are assumed to never be updated back (Watermelon never does that)
+public class RowCounts {
+    // Unfiltered count query, as encoded by encodeQuery
+    private static final Pattern COUNT = Pattern.compile("select count\\(\\*\\) as \"count\" from \"([^\"]+)\" where \"\\1\"\\.\"_status\" is not 'deleted'");
+    // Update of records, as encoded by encodeBatch (_status is the first arg)
+    private static final Pattern UPDATE = Pattern.compile("update \"([^\"]+)\" set \"_status\" = \\?.*");
+    private static final Pattern INDEX = Pattern.compile("(?:create|drop) index .*");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final int MAX_VARIABLES = 999;
+
+    private final Map<String, Long> counts = new HashMap<>();
+    // Changes made by the batch in progress, applied once it's committed. Null = forget the count
+    private final List<String> pendingTables = new ArrayList<>();
+    private final List<Long> pendingDeltas = new ArrayList<>();
+    // Incremented when a write begins and ends, so that counts read before or during it aren't
+    // stored after it (nothing is stored while it's in progress)
+    private long generation = 0;
+    private boolean writing = false;
+
+    // Returns table counted by the query if it's an unfiltered count, null otherwise
+    static String countedTable(String query, Object[] args) {
+        if (args.length != 0) {
+            return null;
+        }
+        Matcher matcher = COUNT.matcher(query);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    synchronized Long get(String table) {
+        return counts.get(table);
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized void put(String table, long readGeneration, long count) {
+        if (readGeneration == generation && !writing) {
+            counts.put(table, count);
+        }
+    }
+
+    // Called for created records, once they're inserted. statuses - _status of every record
+    synchronized void addCreated(String table, List<Object> statuses) {
+        beginWrite();
+        if (counts.containsKey(table)) {
+            long created = 0;
+            for (Object status : statuses) {
+                if (!"deleted".equals(status)) {
+                    created++;
+                }
+            }
+            addPending(table, created);
+        }
+    }
+
+    // Called for records marked as deleted or destroyed, before they are
+    // NOTE: Must be called in the batch's transaction, so that earlier operations are seen
+    void addRemoved(WMDatabase db, String table, List<String> ids) {
+        synchronized (this) {
+            beginWrite();
+            if (!counts.containsKey(table)) {
+                return;
+            }
+        }
+        // NOTE: Not counted in the monitor - readers must never wait for sqlite here
+        long removed = countNotDeleted(db, table, ids);
+        synchronized (this) {
+            addPending(table, -removed);
+        }
+    }
+
+    // Called for all other batch operations. marksDeleted - whether the first arg of any row is
+    // 'deleted' (i.e. an update marks records as deleted)
+    synchronized void addWrite(String sql, boolean marksDeleted) {
+        beginWrite();
+        if (counts.isEmpty() || INDEX.matcher(sql).matches()) {
+            return;
+        }
+        Matcher update = UPDATE.matcher(sql);
+        if (update.matches()) {
+            if (marksDeleted) {
+                addPending(update.group(1), null);
+            }
+            return;
+        }
+        // NOTE: Unknown query - forget all tables it might write to
+        Matcher identifiers = IDENTIFIER.matcher(sql);
+        while (identifiers.find()) {
+            addPending(identifiers.group(), null);
+        }
+    }
+
+    // Position in pending changes, so that changes of a batch that was rolled back can be discarded
+    synchronized int mark() {
+        return pendingTables.size();
+    }
+
+    synchronized void discardSince(int mark) {
+        pendingTables.subList(mark, pendingTables.size()).clear();
+        pendingDeltas.subList(mark, pendingDeltas.size()).clear();
+    }
+
+    // Applies changes of the write that was just committed
+    synchronized void commit() {
+        if (!writing) {
+            return;
+        }
+        for (int i = 0; i < pendingTables.size(); i++) {
+            String table = pendingTables.get(i);
+            Long count = counts.get(table);
+            Long delta = pendingDeltas.get(i);
+            if (count == null) {
+                continue;
+            } else if (delta == null) {
+                counts.remove(table);
+            } else {
+                counts.put(table, count + delta);
+            }
+        }
+        endWrite();
+    }
+
+    // Discards changes of the write that was just rolled back
+    synchronized void rollback() {
+        if (writing) {
+            endWrite();
+        }
+    }
+
+    synchronized void clear() {
+        counts.clear();
+        endWrite();
+    }
+
+    private void beginWrite() {
+        if (!writing) {
+            writing = true;
+            generation++;
+        }
+    }
+
+    private void endWrite() {
+        pendingTables.clear();
+        pendingDeltas.clear();
+        writing = false;
+        generation++;
+    }
+
+    private void addPending(String table, Long delta) {
+        if (counts.containsKey(table)) {
+            pendingTables.add(table);
+            pendingDeltas.add(delta);
+        }
+    }
+
+    private static long countNotDeleted(WMDatabase db, String table, List<String> ids) {
+        long count = 0;
+        for (int start = 0; start < ids.size(); start += MAX_VARIABLES) {
+            List<String> chunk = ids.subList(start, Math.min(start + MAX_VARIABLES, ids.size()));
+            StringBuilder sql = new StringBuilder("select count(*) from \"").append(table)
+                    .append("\" where \"_status\" is not 'deleted' and \"id\" in (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+            try (Cursor cursor = db.rawQuery(sql.toString(), chunk.toArray())) {
+                cursor.moveToFirst();
+                count += cursor.getLong(0);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,166 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.nozbe.watermelondb.utils.ColumnType;
+
+import java.util.Map;
+
+// Encodes rows of a cursor for the bridge. Column names and types are resolved once per cursor, not
+// for every cell of every row. With table's schema known, string columns are read without probing
+// the cell's type first (getString returns null for NULL), and 0/1 in boolean columns are sent as
+// booleans, so that JS doesn't have to convert them
+public class RowEncoder {
+    private enum Kind { ANY, STRING, BOOLEAN }
+
+    private final String[] columnNames;
+    private final Kind[] kinds;
+    private final WritableFactory writables;
+    // Approximate size of what was encoded (string lengths, 8 per number) - see ConnectionStats
+    private long encodedBytes;
+
+    public RowEncoder(Cursor cursor) {
+        this(cursor, null);
+    }
+
+    // columnTypes - types of table's columns, or null if unknown (e.g. for raw queries)
+    public RowEncoder(Cursor cursor, Map<String, ColumnType> columnTypes) {
+        this(cursor, columnTypes, WritableFactory.BRIDGE);
+    }
+
+    public RowEncoder(Cursor cursor, Map<String, ColumnType> columnTypes, WritableFactory writables) {
+        this.writables = writables;
+        this.columnNames = cursor.getColumnNames();
+        this.kinds = new Kind[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            kinds[i] = kindOf(columnNames[i], columnTypes);
+        }
+    }
+
+    private static Kind kindOf(String column, Map<String, ColumnType> columnTypes) {
+        if (columnTypes == null) {
+            return Kind.ANY;
+        }
+        if (column.equals("id") || column.equals("_status") || column.equals("_changed")) {
+            return Kind.STRING;
+        }
+        ColumnType type = columnTypes.get(column);
+        if (type == ColumnType.STRING) {
+            return Kind.STRING;
+        } else if (type == ColumnType.BOOLEAN) {
+            return Kind.BOOLEAN;
+        }
+        return Kind.ANY;
+    }
+
+    public WritableArray columns() {
+        WritableArray columns = writables.createArray();
+        for (String column : columnNames) {
+            columns.pushString(column);
+        }
+        return columns;
+    }
+
+    // Returns (and resets) the approximate number of bytes encoded since the last call
+    public long takeEncodedBytes() {
+        long bytes = encodedBytes;
+        encodedBytes = 0;
+        return bytes;
+    }
+
+    public WritableMap toMap(Cursor cursor) {
+        WritableMap map = writables.createMap();
+        for (int i = 0; i < columnNames.length; i++) {
+            String name = columnNames[i];
+            encodedBytes += name.length();
+            if (kinds[i] == Kind.STRING) {
+                String value = cursor.getString(i);
+                if (value == null) {
+                    map.putNull(name);
+                } else {
+                    encodedBytes += value.length();
+                    map.putString(name, value);
+                }
+                continue;
+            }
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    map.putNull(name);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    encodedBytes += 8;
+                    long value = cursor.getLong(i);
+                    if (kinds[i] == Kind.BOOLEAN && (value == 0 || value == 1)) {
+                        map.putBoolean(name, value == 1);
+                    } else if (value == (int) value) {
+                        map.putInt(name, (int) value);
+                    } else {
+                        map.putDouble(name, (double) value);
+                    }
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    encodedBytes += 8;
+                    map.putDouble(name, cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    String string = cursor.getString(i);
+                    encodedBytes += string.length();
+                    map.putString(name, string);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                default:
+                    map.putString(name, "");
+                    break;
+            }
+        }
+        return map;
+    }
+
+    public WritableArray toArray(Cursor cursor) {
+        WritableArray array = writables.createArray();
+        for (int i = 0; i < columnNames.length; i++) {
+            if (kinds[i] == Kind.STRING) {
+                String value = cursor.getString(i);
+                if (value == null) {
+                    array.pushNull();
+                } else {
+                    encodedBytes += value.length();
+                    array.pushString(value);
+                }
+                continue;
+            }
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    array.pushNull();
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    encodedBytes += 8;
+                    long value = cursor.getLong(i);
+                    if (kinds[i] == Kind.BOOLEAN && (value == 0 || value == 1)) {
+                        array.pushBoolean(value == 1);
+                    } else if (value == (int) value) {
+                        array.pushInt((int) value);
+                    } else {
+                        array.pushDouble((double) value);
+                    }
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    encodedBytes += 8;
+                    array.pushDouble(cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    String string = cursor.getString(i);
+                    encodedBytes += string.length();
+                    array.pushString(string);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                default:
+                    array.pushString("");
+                    break;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,137 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteCursor;
+import net.sqlcipher.database.SQLiteCursorDriver;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteDatabase.CursorFactory;
+import net.sqlcipher.database.SQLiteProgram;
+import net.sqlcipher.database.SQLiteQuery;
+import net.sqlcipher.database.SQLiteStatement;
+
+import java.util.Arrays;
+
+// SqliteStorage backed by SQLCipher for Android
+public class SQLCipherStorage implements SqliteStorage {
+    private final SQLiteDatabase db;
+
+    public SQLCipherStorage(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        db.execSQL(sql);
+    }
+
+    @Override
+    public SqliteStatement compileStatement(String sql) {
+        return new Program(db.compileStatement(sql));
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, Object[] args) {
+        // HACK: db.rawQuery only supports String args, and there's no clean way AFAIK to construct
+        // a query with arbitrary args (like with execSQL). However, we can misuse cursor factory
+        // to get the reference of a SQLiteQuery before it's executed
+        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteDirectCursorDriver.java#L30
+        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteProgram.java#L32
+        String[] rawArgs = new String[args.length];
+        Arrays.fill(rawArgs, "");
+        return db.rawQueryWithFactory(
+                new CursorFactory() {
+                    @Override
+                    public net.sqlcipher.Cursor newCursor(SQLiteDatabase db1, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+                        WMDatabase.bindArgs(new Program(query), args);
+                        return new SQLiteCursor(db1, driver, editTable, query);
+                    }
+                },
+                sql,
+                rawArgs,
+                null
+        );
+    }
+
+    @Override
+    public void beginTransaction() {
+        db.beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        db.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        db.endTransaction();
+    }
+
+    @Override
+    public int getVersion() {
+        return db.getVersion();
+    }
+
+    @Override
+    public void setVersion(int version) {
+        db.setVersion(version);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return db.isOpen();
+    }
+
+    @Override
+    public void close() {
+        if (db.isOpen()) {
+            db.close();
+            OpenConnections.closed(db.getPath());
+        }
+    }
+
+    // NOTE: Also wraps queries (SQLiteQuery), for binding only - those can't be executed
+    private static class Program implements SqliteStatement {
+        private final SQLiteProgram program;
+
+        Program(SQLiteProgram program) {
+            this.program = program;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            program.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            program.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            program.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            program.bindString(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            program.clearBindings();
+        }
+
+        @Override
+        public void execute() {
+            ((SQLiteStatement) program).execute();
+        }
+
+        @Override
+        public void close() {
+            program.close();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+
+import com.nozbe.watermelondb.utils.KeyOptions;
+import com.nozbe.watermelondb.utils.Schema;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+// Schema-only copies ("templates") of a database, one per schema, kept in the cache directory.
+// With a template, resetting the database to a schema is a file copy and rename, instead of
+// dropping every table, and creating every table and index again. A template is built in the
+// background the first time the database is reset to a schema the normal way, see
+// WMDatabaseDriver.unsafeResetDatabase
+// NOTE: Templates are encrypted with the database's password and salt, so they're deleted on rekey
+// The database file is only replaced if no other connection has it open, see install
+public class SchemaTemplates {
+    private static final String DIRECTORY = "WatermelonDB.templates";
+    private static final String[] SIDECAR_SUFFIXES = new String[]{"-wal", "-shm", "-journal"};
+    private static final int SALT_BYTES = 16;
+    private static final int RAW_KEY_LENGTH = 67; // x'<64 hex digits>'
+
+    // Paths of templates being built in the background
+    private static final Set<String> building = new HashSet<>();
+
+    private final Context context;
+    private final String path;
+    private final File directory;
+    private final KeyOptions keyOptions;
+    private volatile String password;
+
+    SchemaTemplates(Context context, String dbName, String password, KeyOptions keyOptions) {
+        this.context = context.getApplicationContext();
+        this.path = WMDatabase.databasePath(dbName, context);
+        this.directory = new File(new File(context.getCacheDir(), DIRECTORY), dbName.replaceAll("[^A-Za-z0-9_.-]", "_"));
+        this.password = password == null ? "" : password;
+        // NOTE: Templates are opened once, there's no point in caching their keys
+        this.keyOptions = new KeyOptions();
+        this.keyOptions.kdfIterations = keyOptions.kdfIterations;
+    }
+
+    private File file(Schema schema) {
+        return new File(directory, schema.version + "-" + digest(schema.sql) + ".db");
+    }
+
+    // Returns template of this schema, or null if it wasn't built yet
+    File find(Schema schema) {
+        File template = file(schema);
+        return template.exists() ? template : null;
+    }
+
+    // Replaces the (closed) database with a copy of the template. Returns false (and leaves the
+    // database as is) if any other connection to it is open - e.g. of another driver, JSI, or of
+    // DatabaseKey caching its key - as the file would be replaced from under it
+    boolean install(File template) throws IOException {
+        if (!Arrays.equals(salt(template.getPath()), salt(path))) {
+            // e.g. the database was deleted since. The template would invalidate its cached key
+            throw new IOException("Schema template has a different salt than " + path);
+        }
+        File copy = new File(path + "-template");
+        try (FileChannel source = new FileInputStream(template).getChannel();
+             FileChannel destination = new FileOutputStream(copy).getChannel()) {
+            long size = source.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += source.transferTo(copied, size - copied, destination);
+            }
+            destination.force(true);
+        }
+        boolean installed = OpenConnections.whileNoneOpen(path, () -> {
+            // NOTE: The old WAL must be gone before the new file is in place, or it would be applied to it
+            deleteSidecars();
+            if (!copy.renameTo(new File(path))) {
+                throw new IOException("Failed to replace " + path + " with schema template");
+            }
+        });
+        if (!installed) {
+            log("Not installing schema template, " + path + " is open elsewhere");
+        }
+        copy.delete();
+        return installed;
+    }
+
+    // First bytes of the (encrypted) database file - its salt (or the plaintext header)
+    private static byte[] salt(String path) throws IOException {
+        byte[] salt = new byte[SALT_BYTES];
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() < SALT_BYTES) {
+                return null;
+            }
+            file.readFully(salt);
+        }
+        return salt;
+    }
+
+    // Deletes the (closed) database, e.g. if a template that was installed can't be opened
+    void deleteDatabase() {
+        new File(path).delete();
+        deleteSidecars();
+    }
+
+    private void deleteSidecars() {
+        for (String suffix : SIDECAR_SUFFIXES) {
+            new File(path + suffix).delete();
+        }
+    }
+
+    void buildInBackground(Schema schema) {
+        File template = file(schema);
+        synchronized (building) {
+            if (!building.add(template.getPath())) {
+                return;
+            }
+        }
+        String password = this.password;
+        Thread thread = new Thread(() -> {
+            try {
+                build(template, schema, password);
+            } catch (Exception e) {
+                log("Failed to build schema template " + template + ": " + e);
+            } finally {
+                synchronized (building) {
+                    building.remove(template.getPath());
+                }
+            }
+        }, "WMDatabaseSchemaTemplate");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void build(File template, Schema schema, String password) throws IOException, GeneralSecurityException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        // Templates of other schemas won't be used again
+        File[] stale = directory.listFiles();
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+        File partial = new File(template.getPath() + ".partial");
+        SQLiteDatabase.loadLibs(context);
+        // NOTE: Not in WAL mode, so that the template is a single file once closed
+        WMDatabase database = new WMDatabase(new SQLCipherStorage(DatabaseKey.open(context, partial.getPath(), templateKey(password), keyOptions)));
+        try {
+            database.transaction(() -> {
+                database.unsafeExecuteStatements(schema.sql);
+                database.setUserVersion(schema.version);
+            });
+        } finally {
+            database.close();
+        }
+        if (!password.equals(this.password) || !partial.renameTo(template)) {
+            // Rekeyed meanwhile (or failed to rename)
+            partial.delete();
+        }
+    }
+
+    // Key to encrypt a template with, such that it has the same salt (and so the same key) as the
+    // database - otherwise, a key of the database cached by DatabaseKey wouldn't work once it's
+    // installed. For passphrases, that's the key derived with the database's salt
+    private String templateKey(String password) throws IOException, GeneralSecurityException {
+        if (password.isEmpty() || (DatabaseKey.isRawKey(password) && password.length() > RAW_KEY_LENGTH)) {
+            return password;
+        }
+        byte[] salt = salt(path);
+        if (salt == null) {
+            throw new IOException("Database " + path + " has no salt yet");
+        }
+        if (DatabaseKey.isRawKey(password)) {
+            // Raw key without salt - the salt is random otherwise
+            return password.substring(0, RAW_KEY_LENGTH - 1) + DatabaseKey.hex(salt) + "'";
+        }
+        return DatabaseKey.deriveKey(path, password, keyOptions.kdfIterations);
+    }
+
+    // Deletes templates encrypted with the old password
+    void rekeyed(String password) {
+        this.password = password;
+        File[] templates = directory.listFiles();
+        if (templates != null) {
+            for (File template : templates) {
+                template.delete();
+            }
+        }
+    }
+
+    private static String digest(String sql) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(sql.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(sql.hashCode());
+        }
+    }
+
+    private static void log(String message) {
+        if (BuildConfig.DEBUG) {
+            Logger.getLogger("DB_Templates").info(message);
+        }
+    }
+}
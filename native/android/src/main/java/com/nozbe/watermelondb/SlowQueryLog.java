@@ -0,0 +1,135 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Bounded log of the most recent queries slower than a threshold, with their query plans, so that
+// queries doing full table scans can be found on devices with large databases
+// Literals in the SQL are replaced with ? and arguments are redacted (only their types are kept),
+// since they may contain user data (WatermelonDB queries have their values inlined as literals)
+public class SlowQueryLog {
+    private static final int CAPACITY = 50;
+
+    private static class Entry {
+        final String sql;
+        final String[] args;
+        final long rows;
+        final long durationNanos;
+        final String queryPlan;
+        final long timestamp;
+
+        Entry(String sql, String[] args, long rows, long durationNanos, String queryPlan) {
+            this.sql = sql;
+            this.args = args;
+            this.rows = rows;
+            this.durationNanos = durationNanos;
+            this.queryPlan = queryPlan;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+
+    private final long thresholdNanos;
+    private final Entry[] entries = new Entry[CAPACITY];
+    private int nextIndex = 0;
+    private int size = 0;
+
+    public SlowQueryLog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    public boolean isSlow(long durationNanos) {
+        return durationNanos >= thresholdNanos;
+    }
+
+    // NOTE: Explains the query on the connection it ran on, so should be called right after it
+    public void add(WMDatabase db, String sql, Object[] args, long rows, long durationNanos) {
+        Entry entry = new Entry(redact(sql), redact(args), rows, durationNanos, queryPlan(db, sql, args));
+        synchronized (this) {
+            entries[nextIndex] = entry;
+            nextIndex = (nextIndex + 1) % CAPACITY;
+            size = Math.min(size + 1, CAPACITY);
+        }
+    }
+
+    // Oldest first
+    public synchronized WritableArray toArray() {
+        WritableArray array = Arguments.createArray();
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries[(nextIndex - size + i + CAPACITY) % CAPACITY];
+            WritableMap map = Arguments.createMap();
+            map.putString("sql", entry.sql);
+            WritableArray args = Arguments.createArray();
+            for (String arg : entry.args) {
+                args.pushString(arg);
+            }
+            map.putArray("args", args);
+            map.putDouble("rows", entry.rows);
+            map.putDouble("durationMs", entry.durationNanos / 1_000_000.0);
+            map.putString("queryPlan", entry.queryPlan);
+            map.putDouble("timestamp", entry.timestamp);
+            array.pushMap(map);
+        }
+        return array;
+    }
+
+    private static String redact(String sql) {
+        StringBuilder redacted = new StringBuilder(sql.length());
+        int[] copiedUpTo = {0};
+        DatabaseUtils.tokenize(sql, (type, start, end) -> {
+            if (type == DatabaseUtils.TokenType.LITERAL) {
+                redacted.append(sql, copiedUpTo[0], start).append('?');
+                copiedUpTo[0] = end;
+            }
+        });
+        return redacted.append(sql, copiedUpTo[0], sql.length()).toString();
+    }
+
+    private static String[] redact(Object[] args) {
+        String[] redacted = new String[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                redacted[i] = "null";
+            } else if (arg instanceof String) {
+                redacted[i] = "<string(" + ((String) arg).length() + ")>";
+            } else if (arg instanceof Boolean) {
+                redacted[i] = "<boolean>";
+            } else {
+                redacted[i] = "<number>";
+            }
+        }
+        return redacted;
+    }
+
+    // Formats EXPLAIN QUERY PLAN output as a tree (like sqlite3 shell does), e.g.:
+    //   SCAN tasks
+    //   SEARCH projects USING INDEX sqlite_autoindex_projects_1 (id=?)
+    private static String queryPlan(WMDatabase db, String sql, Object[] args) {
+        try (Cursor cursor = db.rawQuery("explain query plan " + sql, args)) {
+            StringBuilder plan = new StringBuilder();
+            Map<Integer, Integer> depths = new HashMap<>();
+            while (cursor.moveToNext()) {
+                int id = cursor.getInt(0);
+                Integer parentDepth = depths.get(cursor.getInt(1));
+                int depth = parentDepth != null ? parentDepth + 1 : 0;
+                depths.put(id, depth);
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                for (int i = 0; i < depth; i++) {
+                    plan.append("  ");
+                }
+                plan.append(cursor.getString(3));
+            }
+            return plan.toString();
+        } catch (Exception e) {
+            return "Failed to explain query: " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.nozbe.watermelondb;
+
+// Compiled statement of a SqliteStorage. Indexes of args start at 1
+public interface SqliteStatement {
+    void bindNull(int index);
+
+    void bindLong(int index, long value);
+
+    void bindDouble(int index, double value);
+
+    void bindString(int index, String value);
+
+    void clearBindings();
+
+    void execute();
+
+    void close();
+}
@@ -0,0 +1,32 @@
+package com.nozbe.watermelondb;
+
+import android.database.Cursor;
+
+// SQLite connection that WMDatabase runs on. On device, that's SQLCipher for Android
+// (SQLCipherStorage), but anything that speaks SQLite can be plugged in - e.g. SQLite JDBC, so that
+// the driver can be run (and benchmarked) on a desktop JVM
+public interface SqliteStorage {
+    void execSQL(String sql);
+
+    // Statement for repeated execution. Caller must close it when no longer needed
+    SqliteStatement compileStatement(String sql);
+
+    // Args are String, Boolean, Double, or null
+    Cursor rawQuery(String sql, Object[] args);
+
+    // Transactions can be nested - only the outermost one is committed, and only if all nested
+    // transactions were marked as successful
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    int getVersion();
+
+    void setVersion(int version);
+
+    boolean isOpen();
+
+    void close();
+}
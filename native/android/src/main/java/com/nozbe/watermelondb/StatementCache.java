@@ -0,0 +1,62 @@
+package com.nozbe.watermelondb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of compiled statements, keyed by SQL text
+// NOTE: Not thread-safe - must only be used by the connection's writer
+public class StatementCache {
+    private final SqliteStorage db;
+    private final LinkedHashMap<String, SqliteStatement> statements;
+    private int hits;
+    private int misses;
+
+    public StatementCache(SqliteStorage db, final int maxSize) {
+        this.db = db;
+        this.statements = new LinkedHashMap<String, SqliteStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SqliteStatement> eldest) {
+                if (size() > maxSize) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns a compiled statement for this SQL. Caller must clear its bindings after use
+    public SqliteStatement get(String sql) {
+        SqliteStatement statement = statements.get(sql);
+        if (statement != null) {
+            hits++;
+            return statement;
+        }
+        misses++;
+        statement = db.compileStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    // Must be called whenever the schema changes, as compiled statements may refer to dropped tables
+    public void clear() {
+        Iterator<SqliteStatement> iterator = statements.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().close();
+            iterator.remove();
+        }
+    }
+}
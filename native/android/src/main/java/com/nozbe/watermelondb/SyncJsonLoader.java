@@ -0,0 +1,244 @@
+package com.nozbe.watermelondb;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.nozbe.watermelondb.utils.ColumnType;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+// Java counterpart of Database::unsafeLoadFromSync (see Database-turboSync.cpp), for use without JSI
+// Streams through sync pull JSON and inserts records directly (so that they don't have to be parsed
+// by JS and sent back over the bridge as a huge batch). Must be called inside a transaction
+public class SyncJsonLoader {
+    private static final Map<Integer, String> syncJsons = new HashMap<>();
+
+    public static void provideSyncJson(int id, String json) {
+        synchronized (syncJsons) {
+            syncJsons.put(id, json);
+        }
+    }
+
+    static String takeSyncJson(int id) {
+        String json;
+        synchronized (syncJsons) {
+            json = syncJsons.remove(id);
+        }
+        if (json == null) {
+            throw new IllegalArgumentException("Sync json " + id + " not provided");
+        }
+        return json;
+    }
+
+    private static class TableSchema {
+        final String insertSql;
+        // column name -> index of its arg in insertSql
+        final Map<String, Integer> argIndices = new HashMap<>();
+        final ColumnType[] argTypes;
+        final Object[] defaultArgs;
+
+        TableSchema(String tableName, ReadableArray columns) {
+            int count = columns.size();
+            argTypes = new ColumnType[count + 1];
+            defaultArgs = new Object[count + 1];
+
+            StringBuilder sql = new StringBuilder("insert into `").append(tableName).append("` (`id`, `_status`, `_changed");
+            for (int i = 0; i < count; i++) {
+                ReadableMap column = columns.getMap(i);
+                String name = column.getString("name");
+                ColumnType type = ColumnType.fromString(column.getString("type"));
+                boolean isOptional = column.hasKey("isOptional") && !column.isNull("isOptional") && column.getBoolean("isOptional");
+                sql.append("`, `").append(name);
+
+                // Missing fields are sanitized the same way as in sanitizedRaw
+                int argIndex = i + 1;
+                argIndices.put(name, argIndex);
+                argTypes[argIndex] = type;
+                defaultArgs[argIndex] = isOptional ? null : defaultValue(type);
+            }
+            sql.append("`) values (?, 'synced', ''");
+            for (int i = 0; i < count; i++) {
+                sql.append(", ?");
+            }
+            insertSql = sql.append(")").toString();
+        }
+
+        private static Object defaultValue(ColumnType type) {
+            switch (type) {
+                case STRING:
+                    return "";
+                case NUMBER:
+                    return 0.0;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    private final WMDatabase database;
+    private final ReadableMap tableSchemas;
+    private final Map<String, TableSchema> decodedSchemas = new HashMap<>();
+
+    public SyncJsonLoader(WMDatabase database, ReadableMap schema) {
+        this.database = database;
+        this.tableSchemas = schema.getMap("tables");
+    }
+
+    // Loads `changes`, and returns all other fields of the response as JSON strings
+    public Map<String, String> load(String json) {
+        Map<String, String> residualValues = new HashMap<>();
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (field.equals("changes")) {
+                    loadChanges(reader);
+                } else {
+                    residualValues.put(field, copyValue(reader));
+                }
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid sync json", e);
+        }
+        return residualValues;
+    }
+
+    private void loadChanges(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String tableName = reader.nextName();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (key.equals("deleted")) {
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        throw new IllegalArgumentException("Expected deleted field to be empty");
+                    }
+                    reader.endArray();
+                } else if (key.equals("created") || key.equals("updated")) {
+                    TableSchema table = tableSchema(tableName);
+                    if (table == null) {
+                        reader.skipValue();
+                    } else {
+                        loadRecords(reader, table);
+                    }
+                } else {
+                    throw new IllegalArgumentException("Bad changeset field: " + key);
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    private void loadRecords(JsonReader reader, TableSchema table) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Object[] args = table.defaultArgs.clone();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                JsonToken token = reader.peek();
+                if (key.equals("id")) {
+                    args[0] = reader.nextString();
+                    continue;
+                }
+                Integer argIndex = table.argIndices.get(key);
+                if (argIndex == null) {
+                    reader.skipValue();
+                    continue;
+                }
+                ColumnType type = table.argTypes[argIndex];
+                if (type == ColumnType.STRING && token == JsonToken.STRING) {
+                    args[argIndex] = reader.nextString();
+                } else if (type == ColumnType.BOOLEAN && token == JsonToken.BOOLEAN) {
+                    args[argIndex] = reader.nextBoolean();
+                } else if (type == ColumnType.BOOLEAN && token == JsonToken.NUMBER) {
+                    // needed for compat with sanitizedRaw
+                    double value = reader.nextDouble();
+                    if (value == 0 || value == 1) {
+                        args[argIndex] = value == 1;
+                    }
+                } else if (type == ColumnType.NUMBER && token == JsonToken.NUMBER) {
+                    args[argIndex] = reader.nextDouble();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            database.execute(table.insertSql, args);
+        }
+        reader.endArray();
+    }
+
+    private TableSchema tableSchema(String tableName) {
+        if (decodedSchemas.containsKey(tableName)) {
+            return decodedSchemas.get(tableName);
+        }
+        TableSchema table = null;
+        if (tableSchemas.hasKey(tableName) && !tableSchemas.isNull(tableName)) {
+            table = new TableSchema(tableName, tableSchemas.getMap(tableName).getArray("columnArray"));
+        }
+        decodedSchemas.put(tableName, table);
+        return table;
+    }
+
+    private static String copyValue(JsonReader reader) throws IOException {
+        StringWriter json = new StringWriter();
+        JsonWriter writer = new JsonWriter(json);
+        writer.setLenient(true); // allow top-level primitives
+        copyValue(reader, writer);
+        writer.flush();
+        return json.toString();
+    }
+
+    private static void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copyValue(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                // NOTE: read as string to preserve the exact literal (e.g. large timestamps)
+                writer.value(new BigDecimal(reader.nextString()));
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected token in sync json: " + reader.peek());
+        }
+    }
+}
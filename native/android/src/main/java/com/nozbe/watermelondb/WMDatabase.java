@@ -2,24 +2,40 @@ package com.nozbe.watermelondb;
 
 import android.content.Context;
 
-import net.sqlcipher.Cursor;
+import android.database.Cursor;
+
+import com.nozbe.watermelondb.utils.KeyOptions;
+
 import net.sqlcipher.database.SQLiteDatabase;
-import net.sqlcipher.database.SQLiteDatabase.CursorFactory;
-import net.sqlcipher.database.SQLiteCursor;
-import net.sqlcipher.database.SQLiteCursorDriver;
-import net.sqlcipher.database.SQLiteQuery;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class WMDatabase {
-    private final SQLiteDatabase db;
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    // Opens the connection again (with the current password) after it was closed, see reopen
+    interface Opener {
+        SqliteStorage open(String password);
+    }
 
-    private WMDatabase(SQLiteDatabase db) {
+    private SqliteStorage db;
+    private StatementCache statementCache;
+    private Opener opener; // null if the connection wasn't opened by WMDatabase
+    private String password;
+
+    public WMDatabase(SqliteStorage db) {
         this.db = db;
+        this.statementCache = new StatementCache(db, STATEMENT_CACHE_SIZE);
+    }
+
+    private WMDatabase(String password, Opener opener) {
+        this(opener.open(password));
+        this.opener = opener;
+        this.password = password;
     }
 
     public static Map<String, WMDatabase> INSTANCES = new HashMap<>();
@@ -28,12 +44,22 @@ public class WMDatabase {
         return getInstance(name, "", context, true);
     }
 
+    static String instanceKey(String name, String password) {
+        return name + "|" + (password == null ? "" : password);
+    }
+
     public static WMDatabase getInstance(String name, String password, Context context, boolean enableWriteAheadLogging) {
+        return getInstance(name, password, context, enableWriteAheadLogging, new KeyOptions());
+    }
+
+    public static WMDatabase getInstance(String name, String password, Context context, boolean enableWriteAheadLogging, KeyOptions keyOptions) {
+        // NOTE: If prewarmed, it's registered in INSTANCES once ready
+        DatabasePrewarmer.await(name, password);
         synchronized (WMDatabase.class) {
-            String instanceKey = name + "|" + (password == null ? "" : password);
+            String instanceKey = instanceKey(name, password);
             WMDatabase instance = INSTANCES.getOrDefault(instanceKey, null);
             if (instance == null || !instance.isOpen()) {
-                WMDatabase database = buildDatabase(name, password, context, enableWriteAheadLogging);
+                WMDatabase database = buildDatabase(name, password, context, enableWriteAheadLogging, keyOptions);
                 INSTANCES.put(instanceKey, database);
                 return database;
             } else {
@@ -43,25 +69,69 @@ public class WMDatabase {
     }
 
     public static WMDatabase buildDatabase(String name, String password, Context context, boolean enableWriteAheadLogging) {
-        SQLiteDatabase sqLiteDatabase = WMDatabase.createSQLiteDatabase(name, password, context, enableWriteAheadLogging);
-        return new WMDatabase(sqLiteDatabase);
+        return buildDatabase(name, password, context, enableWriteAheadLogging, new KeyOptions());
+    }
+
+    public static WMDatabase buildDatabase(String name, String password, Context context, boolean enableWriteAheadLogging, KeyOptions keyOptions) {
+        return new WMDatabase(password, (currentPassword) ->
+                new SQLCipherStorage(WMDatabase.createSQLiteDatabase(name, currentPassword, context, enableWriteAheadLogging, keyOptions))
+        );
     }
 
-    private static SQLiteDatabase createSQLiteDatabase(String name, String password, Context context, boolean enableWriteAheadLogging) {
+    // Same as buildDatabase, but takes over the connection opened by DatabasePrewarmer, if any
+    public static WMDatabase buildOrTakePrewarmed(String name, String password, Context context, boolean enableWriteAheadLogging, KeyOptions keyOptions) {
+        WMDatabase prewarmed = DatabasePrewarmer.await(name, password);
+        if (prewarmed != null) {
+            synchronized (WMDatabase.class) {
+                INSTANCES.remove(instanceKey(name, password));
+            }
+            if (prewarmed.isOpen()) {
+                return prewarmed;
+            }
+        }
+        return buildDatabase(name, password, context, enableWriteAheadLogging, keyOptions);
+    }
+
+    // Opens another connection to the same database, to be used for reads only - can run concurrently
+    // with the main connection's writes (in WAL mode) and with other readers
+    public static WMDatabase buildReader(String name, String password, Context context, KeyOptions keyOptions) {
+        return new WMDatabase(password, (currentPassword) -> {
+            SQLiteDatabase sqLiteDatabase = WMDatabase.createSQLiteDatabase(name, currentPassword, context, true, keyOptions);
+            sqLiteDatabase.execSQL("pragma query_only = 1");
+            return new SQLCipherStorage(sqLiteDatabase);
+        });
+    }
+
+    public static boolean isInMemory(String name) {
+        return name.equals(":memory:") || name.contains("mode=memory");
+    }
+
+    static String databasePath(String name, Context context) {
+        // On some systems there is some kind of lock on `/databases` folder ¯\_(ツ)_/¯
+        return context.getDatabasePath("" + name + ".db").getPath().replace("/databases", "");
+    }
+
+    private static SQLiteDatabase createSQLiteDatabase(String name, String password, Context context, boolean enableWriteAheadLogging, KeyOptions keyOptions) {
         String path;
-        if (name.equals(":memory:") || name.contains("mode=memory")) {
+        if (isInMemory(name)) {
             context.getCacheDir().delete();
             path = new File(context.getCacheDir(), name).getPath();
         } else {
-            // On some systems there is some kind of lock on `/databases` folder ¯\_(ツ)_/¯
-            path = context.getDatabasePath("" + name + ".db").getPath().replace("/databases", "");
+            path = databasePath(name, context);
         }
         String safePassword = password == null ? "" : password;
         SQLiteDatabase.loadLibs(context);
-        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(path, safePassword, (CursorFactory) null, null);
+        // NOTE: See DatabaseKey for supported passwords, and how derived keys are cached
+        SQLiteDatabase database = DatabaseKey.open(context, path, safePassword, keyOptions);
         if (enableWriteAheadLogging) {
             database.enableWriteAheadLogging();
         }
+        try {
+            // sqlcipher's own cache of compiled queries (used by rawQuery) is tiny by default
+            database.setMaxSqlCacheSize(STATEMENT_CACHE_SIZE);
+        } catch (IllegalStateException e) {
+            // already larger
+        }
         // database.execSQL("SELECT icu_load_collation('ru_RU', 'russian')");
         return database;
     }
@@ -87,50 +157,228 @@ public class WMDatabase {
     }
 
     public void execute(String query, Object[] args) {
-        db.execSQL(query, args);
+        SqliteStatement statement = statementCache.get(query);
+        try {
+            bindArgs(statement, args);
+            statement.execute();
+        } finally {
+            statement.clearBindings();
+        }
     }
 
     public void execute(String query) {
         db.execSQL(query);
     }
 
+    // argOffset - number of statement's args that precede those of this batch item
+    interface ArgsBinder {
+        void bindArgs(SqliteStatement statement, int index, int argOffset);
+    }
+
+    // Executes the same statement `count` times, with args bound directly by `binder` (so that callers
+    // don't need to box them into an Object[] for every execution)
+    public void executeBatch(String query, int count, ArgsBinder binder) {
+        SqliteStatement statement = statementCache.get(query);
+        for (int i = 0; i < count; i++) {
+            try {
+                binder.bindArgs(statement, i, 0);
+                statement.execute();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    // Limit of bound variables in a statement (SQLITE_MAX_VARIABLE_NUMBER before sqlite 3.32)
+    private static final int MAX_VARIABLES = 999;
+
+    // Like executeBatch, but for `insert into ... values (?, ...)`: rows are coalesced into multi-row
+    // inserts - `values (?, ...), (?, ...), ...` - as large as the limit of bound variables allows.
+    // This saves the per-statement overhead (VM setup, B-tree descent) of inserting rows one by one
+    public void executeInsertBatch(String query, int count, ArgsBinder binder) {
+        int valuesIndex = query.lastIndexOf(" values ");
+        int rowSize = valuesIndex != -1 ? insertRowSize(query, valuesIndex + 8) : 0;
+        int rowsPerStatement = rowSize > 0 ? Math.min(count, MAX_VARIABLES / rowSize) : 0;
+        if (rowsPerStatement < 2) {
+            executeBatch(query, count, binder);
+            return;
+        }
+        String insert = query.substring(0, valuesIndex + 8);
+        String row = query.substring(valuesIndex + 8);
+        SqliteStatement statement = null;
+        int statementRows = 0;
+        for (int i = 0; i < count; i += statementRows) {
+            int rows = Math.min(rowsPerStatement, count - i);
+            if (rows != statementRows) {
+                statement = statementCache.get(multiRowInsert(insert, row, rows));
+                statementRows = rows;
+            }
+            try {
+                for (int j = 0; j < rows; j++) {
+                    binder.bindArgs(statement, i + j, j * rowSize);
+                }
+                statement.execute();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    // Executes a statement for each of a stream of rows whose number isn't known upfront (e.g. as they
+    // are parsed from JSON). With coalesceInserts, `insert ... values (?, ...)` rows are buffered and
+    // inserted many per statement, like in executeInsertBatch. Must be finished after the last row
+    public RowWriter rowWriter(String query, boolean coalesceInserts) {
+        int valuesIndex = coalesceInserts ? query.lastIndexOf(" values ") : -1;
+        int rowSize = valuesIndex != -1 ? insertRowSize(query, valuesIndex + 8) : 0;
+        int rowsPerStatement = rowSize > 0 ? MAX_VARIABLES / rowSize : 0;
+        if (rowsPerStatement < 2) {
+            return new RowWriter(query, null, null, 0, 1);
+        }
+        return new RowWriter(query, query.substring(0, valuesIndex + 8), query.substring(valuesIndex + 8), rowSize, rowsPerStatement);
+    }
+
+    public class RowWriter {
+        private final String query;
+        // Parts of the insert query, or null if rows are not coalesced
+        private final String insert;
+        private final String row;
+        private final int rowSize;
+        private final int rowsPerStatement;
+        private final String fullStatementSql;
+        private final Object[] buffer;
+        private int bufferedRows = 0;
+
+        private RowWriter(String query, String insert, String row, int rowSize, int rowsPerStatement) {
+            this.query = query;
+            this.insert = insert;
+            this.row = row;
+            this.rowSize = rowSize;
+            this.rowsPerStatement = rowsPerStatement;
+            this.fullStatementSql = insert != null ? multiRowInsert(insert, row, rowsPerStatement) : null;
+            this.buffer = insert != null ? new Object[rowSize * rowsPerStatement] : null;
+        }
+
+        // NOTE: args can be reused by the caller once this returns
+        public void addRow(List<Object> args) {
+            if (insert == null) {
+                execute(statementCache.get(query), args);
+                return;
+            }
+            if (args.size() != rowSize) {
+                throw new IllegalArgumentException("Expected " + rowSize + " insert args, got " + args.size());
+            }
+            int offset = bufferedRows * rowSize;
+            for (int i = 0; i < rowSize; i++) {
+                buffer[offset + i] = args.get(i);
+            }
+            bufferedRows++;
+            if (bufferedRows == rowsPerStatement) {
+                flush(fullStatementSql);
+            }
+        }
+
+        public void finish() {
+            if (bufferedRows > 0) {
+                flush(multiRowInsert(insert, row, bufferedRows));
+            }
+        }
+
+        private void flush(String sql) {
+            SqliteStatement statement = statementCache.get(sql);
+            int count = bufferedRows * rowSize;
+            try {
+                for (int i = 0; i < count; i++) {
+                    bindArg(statement, i + 1, buffer[i]);
+                    buffer[i] = null;
+                }
+                statement.execute();
+            } finally {
+                statement.clearBindings();
+                bufferedRows = 0;
+            }
+        }
+
+        private void execute(SqliteStatement statement, List<Object> args) {
+            try {
+                for (int i = 0; i < args.size(); i++) {
+                    bindArg(statement, i + 1, args.get(i));
+                }
+                statement.execute();
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    // Number of placeholders in `(?, ?, ...)` at the end of insert query, or 0 if it's anything else
+    private static int insertRowSize(String query, int rowStart) {
+        if (query.charAt(rowStart) != '(' || query.charAt(query.length() - 1) != ')') {
+            return 0;
+        }
+        int placeholders = 0;
+        for (int i = rowStart + 1; i < query.length() - 1; i++) {
+            char c = query.charAt(i);
+            if (c == '?') {
+                placeholders++;
+            } else if (c != ',' && c != ' ') {
+                return 0;
+            }
+        }
+        return placeholders;
+    }
+
+    private static String multiRowInsert(String insert, String row, int rows) {
+        StringBuilder sql = new StringBuilder(insert.length() + (row.length() + 2) * rows);
+        sql.append(insert).append(row);
+        for (int i = 1; i < rows; i++) {
+            sql.append(", ").append(row);
+        }
+        return sql.toString();
+    }
+
     public void delete(String query, Object[] args) {
-        db.execSQL(query, args);
+        execute(query, args);
+    }
+
+    public void clearStatementCache() {
+        statementCache.clear();
+    }
+
+    // Frees as much of sqlite's page cache (and other heap memory) of this connection as possible
+    public void releaseMemory() {
+        db.execSQL("pragma shrink_memory");
+    }
+
+    public int getStatementCacheHits() {
+        return statementCache.getHits();
+    }
+
+    public int getStatementCacheMisses() {
+        return statementCache.getMisses();
+    }
+
+    static void bindArgs(SqliteStatement statement, Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            bindArg(statement, i + 1, args[i]);
+        }
+    }
+
+    private static void bindArg(SqliteStatement statement, int index, Object arg) {
+        if (arg instanceof String) {
+            statement.bindString(index, (String) arg);
+        } else if (arg instanceof Boolean) {
+            statement.bindLong(index, (Boolean) arg ? 1 : 0);
+        } else if (arg instanceof Double) {
+            statement.bindDouble(index, (Double) arg);
+        } else if (arg == null) {
+            statement.bindNull(index);
+        } else {
+            throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
+        }
     }
 
     public Cursor rawQuery(String sql, Object[] args) {
-        // HACK: db.rawQuery only supports String args, and there's no clean way AFAIK to construct
-        // a query with arbitrary args (like with execSQL). However, we can misuse cursor factory
-        // to get the reference of a SQLiteQuery before it's executed
-        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteDirectCursorDriver.java#L30
-        // https://github.com/aosp-mirror/platform_frameworks_base/blob/0799624dc7eb4b4641b4659af5b5ec4b9f80dd81/core/java/android/database/sqlite/SQLiteProgram.java#L32
-        String[] rawArgs = new String[args.length];
-        Arrays.fill(rawArgs, "");
-        return db.rawQueryWithFactory(
-                new CursorFactory() {
-                    @Override
-                    public net.sqlcipher.Cursor newCursor(SQLiteDatabase db1, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
-                        for (int i = 0; i < args.length; i++) {
-                            Object arg = args[i];
-                            if (arg instanceof String) {
-                                query.bindString(i + 1, (String) arg);
-                            } else if (arg instanceof Boolean) {
-                                query.bindLong(i + 1, (Boolean) arg ? 1 : 0);
-                            } else if (arg instanceof Double) {
-                                query.bindDouble(i + 1, (Double) arg);
-                            } else if (arg == null) {
-                                query.bindNull(i + 1);
-                            } else {
-                                throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
-                            }
-                        }
-                        return new SQLiteCursor(db1, driver, editTable, query);
-                    }
-                },
-                sql,
-                rawArgs,
-                null
-        );
+        return db.rawQuery(sql, args);
     }
 
     public Cursor rawQuery(String sql) {
@@ -153,15 +401,31 @@ public class WMDatabase {
         return this.count(query, new Object[]{});
     }
 
-    public String getFromLocalStorage(String key) {
-        try (Cursor cursor = rawQuery(Queries.select_local_storage, new Object[]{key})) {
-            if (cursor.getCount() > 0 && cursor.moveToFirst()) {
-                return cursor.getString(0);
+    // Runs pragmas that set something (they may return the new value, which is ignored)
+    public void setPragmas(String[] pragmas) {
+        for (String pragma : pragmas) {
+            try (Cursor cursor = rawQuery(pragma)) {
+                cursor.getCount();
             }
-            return null;
         }
     }
 
+    // Copies the WAL into the database. truncate - also wait for readers, and truncate the WAL file
+    public void checkpoint(boolean truncate) {
+        try (Cursor cursor = rawQuery(truncate ? "pragma wal_checkpoint(truncate)" : "pragma wal_checkpoint(passive)")) {
+            cursor.getCount();
+        }
+    }
+
+    // Re-encrypts the database with a new password (passphrase or raw key, see DatabaseKey)
+    // NOTE: Other connections to the database must be closed first
+    public void rekey(String password) {
+        try (Cursor cursor = rawQuery("pragma rekey = '" + password.replace("'", "''") + "'")) {
+            cursor.getCount();
+        }
+        this.password = password;
+    }
+
     private ArrayList<String> getAllTables() {
         ArrayList<String> allTables = new ArrayList<>();
         try (Cursor cursor = rawQuery(Queries.select_tables)) {
@@ -178,6 +442,7 @@ public class WMDatabase {
     }
 
     public void unsafeDestroyEverything() {
+        statementCache.clear();
         this.transaction(() -> {
             for (String tableName : getAllTables()) {
                 execute(Queries.dropTable(tableName));
@@ -203,11 +468,39 @@ public class WMDatabase {
         }
     }
 
+    // Deferred transaction that only reads, so that a series of queries sees the same snapshot of the
+    // database, without blocking the writer. Only for reader connections, and not nestable
+    public void beginReadTransaction() {
+        db.execSQL("begin deferred");
+    }
+
+    public void endReadTransaction() {
+        db.execSQL("commit");
+    }
+
     public Boolean isOpen() {
         return db.isOpen();
     }
 
     public void close() {
+        statementCache.clear();
         db.close();
     }
+
+    public boolean canReopen() {
+        return opener != null;
+    }
+
+    // Opens the (closed) connection again - e.g. after the database file was replaced. Connection
+    // settings (pragmas) and temporary tables and triggers are not carried over
+    public void reopen() {
+        if (opener == null) {
+            throw new IllegalStateException("Can't reopen a connection that wasn't opened by WMDatabase");
+        }
+        if (db.isOpen()) {
+            close();
+        }
+        db = opener.open(password);
+        statementCache = new StatementCache(db, STATEMENT_CACHE_SIZE);
+    }
 }
@@ -1,6 +1,8 @@
 package com.nozbe.watermelondb;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.os.Trace;
 import androidx.annotation.NonNull;
 
@@ -10,16 +12,26 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.nozbe.watermelondb.utils.ColumnType;
+import com.nozbe.watermelondb.utils.DriverOptions;
 import com.nozbe.watermelondb.utils.MigrationSet;
 import com.nozbe.watermelondb.utils.Schema;
+import com.nozbe.watermelondb.utils.TuningProfile;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Logger;
 import java.security.SecureRandom;
 
@@ -29,10 +41,13 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     public WMDatabaseBridge(ReactApplicationContext reactContext) {
         super(reactContext);
         this.reactContext = reactContext;
+        reactContext.registerComponentCallbacks(memoryCallbacks);
     }
 
 
     public static final String NAME = "WMDatabaseBridge";
+    public static final String RECORD_CACHE_EVICTED_EVENT = "WMDatabaseBridge.recordCacheEvicted";
+    public static final String CHANGES_EVENT = "WMDatabaseBridge.changes";
 
     @NonNull
     @Override
@@ -41,15 +56,43 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     }
 
     private final Map<Integer, Connection> connections = new HashMap<>();
+    // NOTE: Concurrent, because reads may be recorded from the read pool
+    private final ConcurrentMap<Integer, ConnectionStats> stats = new ConcurrentHashMap<>();
+    private final Map<Integer, GroupCommit> groupCommits = new HashMap<>();
+    private final Map<Integer, WalCheckpointer> checkpointers = new HashMap<>();
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration newConfig) {
+        }
+    };
 
     @ReactMethod
-    public void initialize(final Integer tag, final String databaseName, final int schemaVersion, final String password, final boolean unsafeNativeReuse, final Promise promise) {
+    public void initialize(final Integer tag, final String databaseName, final int schemaVersion, final String password, final boolean unsafeNativeReuse, final ReadableMap options, final Promise promise) {
         if (connections.containsKey(tag)) {
             throw new IllegalStateException("A driver with tag " + tag + " already set up");
         }
         final WritableMap promiseMap = Arguments.createMap();
         try {
-            connections.put(tag, new Connection.Connected(new WMDatabaseDriver((Context) reactContext, databaseName, password, schemaVersion, unsafeNativeReuse)));
+            DriverOptions driverOptions = driverOptions(options);
+            configureGroupCommit(tag, driverOptions);
+            configureCheckpointer(tag, driverOptions);
+            DatabaseDriver driver = useJNIDriver(driverOptions, unsafeNativeReuse) ?
+                    new WMDatabaseJNIDriver((Context) reactContext, databaseName, password, schemaVersion) :
+                    new WMDatabaseDriver((Context) reactContext, databaseName, password, schemaVersion, unsafeNativeReuse, driverOptions);
+            configureTuningProfile(driver, driverOptions);
+            configureChangeFeed(driver, driverOptions);
+            connections.put(tag, new Connection.Connected(driver));
             promiseMap.putString("code", "ok");
             promise.resolve(promiseMap);
         } catch (SchemaNeededError e) {
@@ -67,14 +110,37 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void setUpWithSchema(final Integer tag, final String databaseName, final String schema, final int schemaVersion, final String password, final boolean unsafeNativeReuse, final Promise promise) {
-        connectDriver(tag, new WMDatabaseDriver(reactContext, databaseName, password, new Schema(schemaVersion, schema), unsafeNativeReuse), promise);
+    public void setUpWithSchema(final Integer tag, final String databaseName, final String schema, final int schemaVersion, final String password, final boolean unsafeNativeReuse, final ReadableMap options, final Promise promise) {
+        try {
+            DriverOptions driverOptions = driverOptions(options);
+            configureGroupCommit(tag, driverOptions);
+            configureCheckpointer(tag, driverOptions);
+            Schema driverSchema = new Schema(schemaVersion, schema);
+            DatabaseDriver driver = useJNIDriver(driverOptions, unsafeNativeReuse) ?
+                    new WMDatabaseJNIDriver(reactContext, databaseName, password, driverSchema) :
+                    new WMDatabaseDriver(reactContext, databaseName, password, driverSchema, unsafeNativeReuse, driverOptions);
+            configureTuningProfile(driver, driverOptions);
+            configureChangeFeed(driver, driverOptions);
+            connectDriver(tag, driver, promise);
+        } catch (Exception e) {
+            disconnectDriver(tag);
+            promise.reject(e);
+        }
     }
 
     @ReactMethod
-    public void setUpWithMigrations(final Integer tag, final String databaseName, final String migrations, final int fromVersion, final int toVersion, final String password, final boolean unsafeNativeReuse, final Promise promise) {
+    public void setUpWithMigrations(final Integer tag, final String databaseName, final String migrations, final int fromVersion, final int toVersion, final String password, final boolean unsafeNativeReuse, final ReadableMap options, final Promise promise) {
         try {
-            connectDriver(tag, new WMDatabaseDriver(reactContext, databaseName, password, new MigrationSet(fromVersion, toVersion, migrations), unsafeNativeReuse), promise);
+            DriverOptions driverOptions = driverOptions(options);
+            configureGroupCommit(tag, driverOptions);
+            configureCheckpointer(tag, driverOptions);
+            MigrationSet migrationSet = new MigrationSet(fromVersion, toVersion, migrations);
+            DatabaseDriver driver = useJNIDriver(driverOptions, unsafeNativeReuse) ?
+                    new WMDatabaseJNIDriver(reactContext, databaseName, password, migrationSet) :
+                    new WMDatabaseDriver(reactContext, databaseName, password, migrationSet, unsafeNativeReuse, driverOptions);
+            configureTuningProfile(driver, driverOptions);
+            configureChangeFeed(driver, driverOptions);
+            connectDriver(tag, driver, promise);
         } catch (Exception e) {
             disconnectDriver(tag);
             promise.reject(e);
@@ -88,32 +154,83 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void query(int tag, String table, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.cachedQuery(table, query, args.toArrayList().toArray()), "query");
+        withReader(tag, promise, (driver) -> driver.cachedQuery(table, query, args.toArrayList().toArray()), "query");
+    }
+
+    @ReactMethod
+    public void queryAsArray(int tag, String table, String query, ReadableArray args, Promise promise) {
+        withReader(tag, promise, (driver) -> driver.cachedQueryAsArray(table, query, args.toArrayList().toArray()), "queryAsArray");
     }
 
     @ReactMethod
     public void queryIds(int tag, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.queryIds(query, args.toArrayList().toArray()), "queryIds");
+        withReader(tag, promise, (driver) -> driver.queryIds(query, args.toArrayList().toArray()), "queryIds");
     }
 
     @ReactMethod
     public void unsafeQueryRaw(int tag, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.unsafeQueryRaw(query, args.toArrayList().toArray()), "unsafeQueryRaw");
+        Object[] queryArgs = args.toArrayList().toArray();
+        if (DatabaseUtils.isSelect(query)) {
+            withReader(tag, promise, (driver) -> driver.unsafeQueryRaw(query, queryArgs), "unsafeQueryRaw");
+        } else {
+            // NOTE: Might write, so it must run on the writer, like batch
+            withDriver(tag, promise, (driver) -> driver.unsafeQueryRaw(query, queryArgs), "unsafeQueryRaw");
+        }
+    }
+
+    @ReactMethod
+    public void openQueryCursor(int tag, String table, String query, ReadableArray args, Promise promise) {
+        withDriver(tag, promise, (driver) -> capability(driver, DatabaseDriver.QueryCursors.class, "openQueryCursor")
+                .openQueryCursor(table, query, args.toArrayList().toArray()), "openQueryCursor");
+    }
+
+    @ReactMethod
+    public void fetchQueryCursor(int tag, int handle, int count, Promise promise) {
+        withDriver(tag, promise, (driver) -> capability(driver, DatabaseDriver.QueryCursors.class, "fetchQueryCursor")
+                .fetchQueryCursor(handle, count), "fetchQueryCursor");
+    }
+
+    @ReactMethod
+    public void closeQueryCursor(int tag, int handle, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            capability(driver, DatabaseDriver.QueryCursors.class, "closeQueryCursor").closeQueryCursor(handle);
+            return true;
+        }, "closeQueryCursor");
     }
 
     @ReactMethod
     public void count(int tag, String query, ReadableArray args, Promise promise) {
-        withDriver(tag, promise, (driver) -> driver.count(query, args.toArrayList().toArray()), "count");
+        withReader(tag, promise, (driver) -> driver.count(query, args.toArrayList().toArray()), "count");
     }
 
     @ReactMethod
     public void batch(int tag, ReadableArray operations, Promise promise) {
+        if (addToGroupCommit(tag, operations, null, promise)) {
+            return;
+        }
         withDriver(tag, promise, (driver) -> {
             driver.batch(operations);
             return true;
         }, "batch");
     }
 
+    @ReactMethod
+    public void batchJSON(int tag, String operations, Promise promise) {
+        if (addToGroupCommit(tag, null, operations, promise)) {
+            return;
+        }
+        withDriver(tag, promise, (driver) -> {
+            driver.batchJSON(operations);
+            return true;
+        }, "batchJSON");
+    }
+
+    @ReactMethod
+    public void unsafeLoadFromSync(int tag, int jsonId, ReadableMap schema, String preamble, String postamble, Promise promise) {
+        withDriver(tag, promise, (driver) -> capability(driver, DatabaseDriver.SyncLoader.class, "unsafeLoadFromSync")
+                .unsafeLoadFromSync(jsonId, schema, preamble, postamble), "unsafeLoadFromSync");
+    }
+
     @ReactMethod
     public void unsafeResetDatabase(int tag, String schema, int schemaVersion, Promise promise) {
         withDriver(tag, promise, (driver) -> {
@@ -122,11 +239,50 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         }, "unsafeResetDatabase");
     }
 
+    // Changes the password of an encrypted database, e.g. to move it from a passphrase to a raw key
+    @ReactMethod
+    public void rekey(int tag, String password, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.rekey(password);
+            return null;
+        }, "rekey");
+    }
+
+    // Switches connection settings to a different TuningProfile, e.g. to "bulk-sync" for a sync pull
+    @ReactMethod
+    public void setTuningProfile(int tag, String profile, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            driver.setTuningProfile(TuningProfile.fromName(profile));
+            return null;
+        }, "setTuningProfile");
+    }
+
     @ReactMethod
     public void getLocal(int tag, String key, Promise promise) {
         withDriver(tag, promise, (driver) -> driver.getLocal(key), "getLocal");
     }
 
+    // Returns latency percentiles (in ms, including time spent queued) and other counters of
+    // operations on this connection since it was opened or since resetStats - see ConnectionStats
+    @ReactMethod
+    public void getStats(int tag, Promise promise) {
+        promise.resolve(statsFor(tag).toMap());
+    }
+
+    @ReactMethod
+    public void resetStats(int tag, Promise promise) {
+        statsFor(tag).reset();
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void getSlowQueries(int tag, Promise promise) {
+        withDriver(tag, promise, (driver) -> {
+            SlowQueryLog slowQueries = driver.getSlowQueryLog();
+            return slowQueries != null ? slowQueries.toArray() : Arguments.createArray();
+        }, "getSlowQueries");
+    }
+
     @ReactMethod(isBlockingSynchronousMethod = true)
     public WritableArray unsafeGetLocalSynchronously(int tag, String key) {
         try {
@@ -168,32 +324,440 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     }
 
     interface ParamFunction {
-        Object applyParamFunction(WMDatabaseDriver arg);
+        Object applyParamFunction(DatabaseDriver arg);
     }
 
     private void withDriver(final int tag, final Promise promise, final ParamFunction function, String functionName) {
+        withDriver(tag, promise, function, functionName, System.nanoTime());
+    }
+
+    // receivedAt - System.nanoTime() when the bridge received the call (for stats)
+    private void withDriver(final int tag, final Promise promise, final ParamFunction function, String functionName, long receivedAt) {
+        commitGroup(tag);
+        ConnectionStats.Sample sample = null;
+        long startedAt = 0;
+        boolean failed = false;
         try {
             Trace.beginSection("WMDatabaseBridge." + functionName);
             Connection connection = connections.get(tag);
             if (connection == null) {
                 promise.reject(new Exception("No driver with tag " + tag + " available"));
             } else if (connection instanceof Connection.Connected) {
-                Object result = function.applyParamFunction(((Connection.Connected) connection).driver);
-                promise.resolve(result == Void.TYPE ? true : result);
+                DatabaseDriver driver = ((Connection.Connected) connection).driver;
+                sample = ConnectionStats.beginSample();
+                startedAt = System.nanoTime();
+                Object result = function.applyParamFunction(driver);
+                emitRecordCacheEvictions(tag, driver);
+                emitChanges(tag, driver);
+                scheduleCheckpoint(tag);
+                try {
+                    promise.resolve(result == Void.TYPE ? true : result);
+                } finally {
+                    releaseWriteSnapshot(driver);
+                }
             } else if (connection instanceof Connection.Waiting) {
                 // try again when driver is ready
-                connection.getQueue().add(() -> withDriver(tag, promise, function, functionName));
+                connection.getQueue().add(() -> withDriver(tag, promise, function, functionName, receivedAt));
                 connections.put(tag, new Connection.Waiting(connection.getQueue()));
             }
         } catch (Exception e) {
+            failed = true;
+            releaseWriteSnapshot(tag);
             promise.reject(functionName, e);
+        } finally {
+            if (sample != null) {
+                recordStats(tag, functionName, receivedAt, startedAt, sample, failed);
+            }
+            Trace.endSection();
+        }
+    }
+
+    private void recordStats(int tag, String functionName, long receivedAt, long startedAt, ConnectionStats.Sample sample, boolean failed) {
+        // NOTE: Function name may have details appended (e.g. "find <id>"), stats are per operation
+        int detailsIndex = functionName.indexOf(' ');
+        String operation = detailsIndex == -1 ? functionName : functionName.substring(0, detailsIndex);
+        statsFor(tag).record(operation, startedAt - receivedAt, System.nanoTime() - receivedAt, sample, failed);
+    }
+
+    private ConnectionStats statsFor(int tag) {
+        ConnectionStats tagStats = stats.get(tag);
+        if (tagStats == null) {
+            ConnectionStats newStats = new ConnectionStats();
+            tagStats = stats.putIfAbsent(tag, newStats);
+            if (tagStats == null) {
+                tagStats = newStats;
+            }
+        }
+        return tagStats;
+    }
+
+    // NOTE: Enabled once the driver is set up, so changes made by setting up the database (schema,
+    // migrations) are not reported - there are no observers yet
+    private static void configureChangeFeed(DatabaseDriver driver, DriverOptions options) {
+        if (options.changeFeed) {
+            driver.enableChangeFeed();
+        }
+    }
+
+    private void configureGroupCommit(int tag, DriverOptions options) {
+        if (options.groupCommitWindowMs >= 0) {
+            groupCommits.put(tag, new GroupCommit(options.groupCommitWindowMs));
+        } else {
+            groupCommits.remove(tag);
+        }
+    }
+
+    private static void configureTuningProfile(DatabaseDriver driver, DriverOptions options) {
+        if (options.tuningProfile != null) {
+            driver.setTuningProfile(options.tuningProfile);
+        }
+    }
+
+    private void configureCheckpointer(int tag, DriverOptions options) {
+        WalCheckpointer previous = checkpointers.remove(tag);
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (options.checkpointIdleMs > 0) {
+            checkpointers.put(tag, new WalCheckpointer(options.checkpointIdleMs, (truncate) -> checkpoint(tag, truncate)));
+        }
+    }
+
+    private void scheduleCheckpoint(int tag) {
+        WalCheckpointer checkpointer = checkpointers.get(tag);
+        if (checkpointer != null) {
+            checkpointer.onActivity();
+        }
+    }
+
+    // Called by WalCheckpointer once the connection is idle
+    private void checkpoint(int tag, boolean truncate) {
+        Connection connection = connections.get(tag);
+        if (!(connection instanceof Connection.Connected)) {
+            return;
+        }
+        DatabaseDriver driver = ((Connection.Connected) connection).driver;
+        ConnectionStats.Sample sample = ConnectionStats.beginSample();
+        long startedAt = System.nanoTime();
+        boolean failed = false;
+        try {
+            Trace.beginSection("WMDatabaseBridge.checkpoint");
+            driver.checkpoint(truncate);
+        } catch (Exception e) {
+            // NOTE: Not a problem - sqlite's automatic checkpoint will do it eventually
+            failed = true;
+            if (BuildConfig.DEBUG) {
+                Logger.getLogger("DB_Bridge").info("Failed to checkpoint: " + e);
+            }
         } finally {
             Trace.endSection();
         }
+        recordStats(tag, "checkpoint", startedAt, startedAt, sample, failed);
+    }
+
+    // With group commit enabled, schedules batch to be committed together with others received soon
+    // after it. Returns false if it should be executed right away instead
+    private boolean addToGroupCommit(int tag, ReadableArray operations, String operationsJson, Promise promise) {
+        GroupCommit groupCommit = groupCommits.get(tag);
+        if (groupCommit == null || !(connections.get(tag) instanceof Connection.Connected)) {
+            return false;
+        }
+        groupCommit.add(new GroupCommit.Batch(operations, operationsJson, promise), () -> commitGroup(tag));
+        return true;
+    }
+
+    // Commits batches waiting for group commit, if any. Also called before every other operation on
+    // the connection, so that it sees their results, like it would without group commit
+    private void commitGroup(int tag) {
+        GroupCommit groupCommit = groupCommits.get(tag);
+        if (groupCommit == null || !groupCommit.hasPending()) {
+            return;
+        }
+        List<GroupCommit.Batch> batches = groupCommit.takePending();
+        Connection connection = connections.get(tag);
+        if (!(connection instanceof Connection.Connected)) {
+            for (GroupCommit.Batch batch : batches) {
+                batch.promise.reject(new Exception("No driver with tag " + tag + " available"));
+            }
+            return;
+        }
+        DatabaseDriver driver = ((Connection.Connected) connection).driver;
+        ConnectionStats.Sample sample = ConnectionStats.beginSample();
+        long startedAt = System.nanoTime();
+        Exception[] errors = null;
+        Exception groupError = null;
+        try {
+            Trace.beginSection("WMDatabaseBridge.commitGroup");
+            errors = driver.batchGroup(batches);
+            emitRecordCacheEvictions(tag, driver);
+            emitChanges(tag, driver);
+            scheduleCheckpoint(tag);
+        } catch (Exception e) {
+            groupError = e;
+        } finally {
+            Trace.endSection();
+        }
+        recordStats(tag, "groupCommit", batches.get(0).receivedAt, startedAt, sample, groupError != null);
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                GroupCommit.Batch batch = batches.get(i);
+                String functionName = batch.operationsJson != null ? "batchJSON" : "batch";
+                Exception error = groupError != null ? groupError : errors[i];
+                if (error == null) {
+                    batch.promise.resolve(true);
+                } else {
+                    batch.promise.reject(functionName, error);
+                }
+                recordStats(tag, functionName, batch.receivedAt, startedAt, ConnectionStats.beginSample(), error != null);
+            }
+        } finally {
+            releaseWriteSnapshot(driver);
+        }
+    }
+
+    private void releaseWriteSnapshot(int tag) {
+        Connection connection = connections.get(tag);
+        if (connection instanceof Connection.Connected) {
+            releaseWriteSnapshot(((Connection.Connected) connection).driver);
+        }
+    }
+
+    private static void releaseWriteSnapshot(DatabaseDriver driver) {
+        if (driver instanceof DatabaseDriver.ReadPool) {
+            ((DatabaseDriver.ReadPool) driver).releaseWriteSnapshot();
+        }
+    }
+
+    // Returns the driver as the capability the call needs, or throws (and so rejects the call) if
+    // the driver doesn't have it
+    private static <T> T capability(DatabaseDriver driver, Class<T> capability, String functionName) {
+        if (!capability.isInstance(driver)) {
+            throw new UnsupportedOperationException(functionName + " is not supported by " + driver.getClass().getSimpleName());
+        }
+        return capability.cast(driver);
+    }
+
+    // Like withDriver, but runs on the driver's pool of read connections (if it has one), so that
+    // reads don't wait behind writes and each other
+    private void withReader(final int tag, final Promise promise, final ParamFunction function, String functionName) {
+        long receivedAt = System.nanoTime();
+        commitGroup(tag);
+        Connection connection = connections.get(tag);
+        DatabaseDriver.ReadPool readPool = connection instanceof Connection.Connected &&
+                ((Connection.Connected) connection).driver instanceof DatabaseDriver.ReadPool ?
+                (DatabaseDriver.ReadPool) ((Connection.Connected) connection).driver :
+                null;
+        ExecutorService executor = readPool != null ? readPool.getReadExecutor() : null;
+        if (executor == null) {
+            withDriver(tag, promise, function, functionName, receivedAt);
+            return;
+        }
+        DatabaseDriver driver = ((Connection.Connected) connection).driver;
+        executor.execute(() -> {
+            Lock snapshot = readPool.getReadSnapshotLock();
+            snapshot.lock();
+            ConnectionStats.Sample sample = ConnectionStats.beginSample();
+            long startedAt = System.nanoTime();
+            boolean failed = false;
+            try {
+                Trace.beginSection("WMDatabaseBridge." + functionName);
+                Object result = function.applyParamFunction(driver);
+                emitRecordCacheEvictions(tag, driver);
+                promise.resolve(result);
+            } catch (Exception e) {
+                failed = true;
+                promise.reject(functionName, e);
+            } finally {
+                Trace.endSection();
+                snapshot.unlock();
+                recordStats(tag, functionName, receivedAt, startedAt, sample, failed);
+            }
+        });
+    }
+
+
+    // NOTE: Falls back to the SQLCipher driver if the app isn't built with watermelondb-jsi
+    // Options that only the SQLCipher driver supports are rejected, instead of being silently ignored
+    private static boolean useJNIDriver(DriverOptions options, boolean unsafeNativeReuse) {
+        if (!options.jniDriver) {
+            return false;
+        }
+        if (unsafeNativeReuse) {
+            throw new IllegalArgumentException("experimentalUnsafeNativeReuse is not supported with the JNI driver");
+        }
+        if (options.readPoolSize > 0) {
+            throw new IllegalArgumentException("experimentalNativeReadPoolSize is not supported with the JNI driver");
+        }
+        if (options.recordCacheMaxRecords > 0 || options.recordCacheMaxBytes > 0) {
+            throw new IllegalArgumentException("experimentalNativeRecordCacheLimit is not supported with the JNI driver");
+        }
+        if (!WMDatabaseJNIDriver.isAvailable()) {
+            if (BuildConfig.DEBUG) {
+                Logger.getLogger("DB_Bridge").info("watermelondb-jsi library not available, JNI driver will not be used");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static DriverOptions driverOptions(ReadableMap map) {
+        DriverOptions options = new DriverOptions();
+        if (map == null) {
+            return options;
+        }
+        if (map.hasKey("recordCacheMaxRecords") && !map.isNull("recordCacheMaxRecords")) {
+            options.recordCacheMaxRecords = map.getInt("recordCacheMaxRecords");
+        }
+        if (map.hasKey("recordCacheMaxBytes") && !map.isNull("recordCacheMaxBytes")) {
+            options.recordCacheMaxBytes = (long) map.getDouble("recordCacheMaxBytes");
+        }
+        if (map.hasKey("readPoolSize") && !map.isNull("readPoolSize")) {
+            options.readPoolSize = map.getInt("readPoolSize");
+        }
+        if (map.hasKey("jniDriver") && !map.isNull("jniDriver")) {
+            options.jniDriver = map.getBoolean("jniDriver");
+        }
+        if (map.hasKey("slowQueryThresholdMs") && !map.isNull("slowQueryThresholdMs")) {
+            options.slowQueryThresholdMs = (long) map.getDouble("slowQueryThresholdMs");
+        }
+        if (map.hasKey("groupCommitWindowMs") && !map.isNull("groupCommitWindowMs")) {
+            options.groupCommitWindowMs = (long) map.getDouble("groupCommitWindowMs");
+        }
+        if (map.hasKey("queryCacheMaxBytes") && !map.isNull("queryCacheMaxBytes")) {
+            options.queryCacheMaxBytes = (long) map.getDouble("queryCacheMaxBytes");
+        }
+        if (map.hasKey("changeFeed") && !map.isNull("changeFeed")) {
+            options.changeFeed = map.getBoolean("changeFeed");
+        }
+        if (map.hasKey("countCache") && !map.isNull("countCache")) {
+            options.countCache = map.getBoolean("countCache");
+        }
+        if (map.hasKey("schemaTemplates") && !map.isNull("schemaTemplates")) {
+            options.schemaTemplates = map.getBoolean("schemaTemplates");
+        }
+        if (map.hasKey("tuningProfile") && !map.isNull("tuningProfile")) {
+            options.tuningProfile = TuningProfile.fromName(map.getString("tuningProfile"));
+        }
+        if (map.hasKey("checkpointIdleMs") && !map.isNull("checkpointIdleMs")) {
+            options.checkpointIdleMs = (long) map.getDouble("checkpointIdleMs");
+        }
+        if (map.hasKey("kdfIterations") && !map.isNull("kdfIterations")) {
+            options.keyOptions.kdfIterations = map.getInt("kdfIterations");
+        }
+        if (map.hasKey("cacheDerivedKey") && !map.isNull("cacheDerivedKey")) {
+            options.keyOptions.cacheDerivedKey = map.getBoolean("cacheDerivedKey");
+        }
+        if (map.hasKey("columnTypes") && !map.isNull("columnTypes")) {
+            ReadableMap tables = map.getMap("columnTypes");
+            ReadableMapKeySetIterator tableIterator = tables.keySetIterator();
+            while (tableIterator.hasNextKey()) {
+                String table = tableIterator.nextKey();
+                ReadableMap columns = tables.getMap(table);
+                Map<String, ColumnType> types = new HashMap<>();
+                ReadableMapKeySetIterator columnIterator = columns.keySetIterator();
+                while (columnIterator.hasNextKey()) {
+                    String column = columnIterator.nextKey();
+                    types.put(column, ColumnType.fromString(columns.getString(column)));
+                }
+                options.columnTypes.put(table, types);
+            }
+        }
+        return options;
+    }
+
+    // Tells JS which records were dropped from the native record cache during the last call,
+    // so that it expects them to be sent in full the next time they're queried
+    private void emitRecordCacheEvictions(int tag, DatabaseDriver driver) {
+        Map<String, List<String>> evictions = driver.drainRecordCacheEvictions();
+        if (evictions.isEmpty()) {
+            return;
+        }
+        WritableMap evicted = Arguments.createMap();
+        for (Map.Entry<String, List<String>> entry : evictions.entrySet()) {
+            WritableArray ids = Arguments.createArray();
+            for (String id : entry.getValue()) {
+                ids.pushString(id);
+            }
+            evicted.putArray(entry.getKey(), ids);
+        }
+        WritableMap event = Arguments.createMap();
+        event.putInt("tag", tag);
+        event.putMap("evicted", evicted);
+        reactContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(RECORD_CACHE_EVICTED_EVENT, event);
     }
 
+    // Tells JS which records were changed by the last call - one event per committed transaction
+    // (in practice, one per call, or per batch of a group commit), so that observers can be updated
+    // without re-running queries
+    private void emitChanges(int tag, DatabaseDriver driver) {
+        for (Map<String, ChangeFeed.TableChanges> commit : driver.drainChanges()) {
+            WritableMap changes = Arguments.createMap();
+            for (Map.Entry<String, ChangeFeed.TableChanges> entry : commit.entrySet()) {
+                ChangeFeed.TableChanges tableChanges = entry.getValue();
+                if (tableChanges == null) {
+                    changes.putNull(entry.getKey());
+                    continue;
+                }
+                WritableMap map = Arguments.createMap();
+                map.putArray("inserted", idsArray(tableChanges.inserted));
+                map.putArray("updated", idsArray(tableChanges.updated));
+                map.putArray("deleted", idsArray(tableChanges.deleted));
+                changes.putMap(entry.getKey(), map);
+            }
+            WritableMap event = Arguments.createMap();
+            event.putInt("tag", tag);
+            event.putMap("changes", changes);
+            reactContext
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(CHANGES_EVENT, event);
+        }
+    }
+
+    private static WritableArray idsArray(List<String> ids) {
+        WritableArray array = Arguments.createArray();
+        for (String id : ids) {
+            array.pushString(id);
+        }
+        return array;
+    }
+
+    private void cancelCheckpoints() {
+        for (WalCheckpointer checkpointer : checkpointers.values()) {
+            checkpointer.cancel();
+        }
+    }
 
-    private void connectDriver(int connectionTag, WMDatabaseDriver driver, Promise promise) {
+    // Releases memory held by open databases when the system asks the app to. Runs on the native
+    // modules thread, same as all other operations on drivers
+    private void trimMemory(int level) {
+        reactContext.runOnNativeModulesQueueThread(() -> {
+            for (Map.Entry<Integer, Connection> entry : connections.entrySet()) {
+                if (entry.getValue() instanceof Connection.Connected) {
+                    DatabaseDriver driver = ((Connection.Connected) entry.getValue()).driver;
+                    try {
+                        driver.onTrimMemory(level);
+                        emitRecordCacheEvictions(entry.getKey(), driver);
+                    } catch (Exception e) {
+                        if (BuildConfig.DEBUG) {
+                            Logger.getLogger("DB_Bridge").info("Failed to trim memory: " + e);
+                        }
+                    }
+                }
+            }
+        });
+        // NOTE: JSI databases are not managed by the bridge, see provideSyncJson for why reflection
+        try {
+            Class<?> clazz = Class.forName("com.nozbe.watermelondb.jsi.WatermelonJSI");
+            Method method = clazz.getDeclaredMethod("onTrimMemory", int.class);
+            method.invoke(null, level);
+        } catch (Exception e) {
+            // JSI not installed
+        }
+    }
+
+    private void connectDriver(int connectionTag, DatabaseDriver driver, Promise promise) {
         List<Runnable> queue = getQueue(connectionTag);
         connections.put(connectionTag, new Connection.Connected(driver));
 
@@ -227,6 +791,13 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
         }
     }
 
+    // Provides sync JSON for use by the (non-JSI) unsafeLoadFromSync
+    @ReactMethod
+    public void provideSyncJsonToBridge(int id, String json, Promise promise) {
+        SyncJsonLoader.provideSyncJson(id, json);
+        promise.resolve(true);
+    }
+
     @ReactMethod(isBlockingSynchronousMethod = true)
     public WritableArray getRandomBytes(int count) {
         if (count != 256) {
@@ -246,6 +817,8 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
 
     @Override
     public void invalidate() {
+        reactContext.unregisterComponentCallbacks(memoryCallbacks);
+        cancelCheckpoints();
         // NOTE: See Database::install() for explanation
         super.invalidate();
         reactContext.runOnJSQueueThread(() -> {
@@ -265,6 +838,8 @@ public class WMDatabaseBridge extends ReactContextBaseJavaModule {
     @Deprecated
     @Override
     public void onCatalystInstanceDestroy() {
+        reactContext.unregisterComponentCallbacks(memoryCallbacks);
+        cancelCheckpoints();
         // NOTE: See Database::install() for explanation
         super.onCatalystInstanceDestroy();
         reactContext.getCatalystInstance().getReactQueueConfiguration().getJSQueueThread().runOnQueue(() -> {
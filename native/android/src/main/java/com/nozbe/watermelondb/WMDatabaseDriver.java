@@ -3,27 +3,67 @@ package com.nozbe.watermelondb;
 import android.content.Context;
 import android.database.Cursor;
 import android.os.Trace;
+import android.util.JsonReader;
 
-import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.nozbe.watermelondb.utils.ColumnType;
+import com.nozbe.watermelondb.utils.DriverOptions;
+import com.nozbe.watermelondb.utils.KeyOptions;
+import com.nozbe.watermelondb.utils.MemoryPressure;
 import com.nozbe.watermelondb.utils.MigrationSet;
 import com.nozbe.watermelondb.utils.Pair;
 import com.nozbe.watermelondb.utils.Schema;
+import com.nozbe.watermelondb.utils.TuningProfile;
 
-import net.sqlcipher.database.SQLiteDatabase;
-
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
-public class WMDatabaseDriver {
+public class WMDatabaseDriver implements DatabaseDriver, DatabaseDriver.QueryCursors, DatabaseDriver.SyncLoader, DatabaseDriver.ReadPool {
     private final WMDatabase database;
 
     private final Logger log;
-    private final Map<String, List<String>> cachedRecords;
+    private final RecordCache cachedRecords;
+    private final SlowQueryLog slowQueries; // null if disabled
+    private ChangeFeed changeFeed; // null if disabled
+    private final QueryResultCache queryResults; // null if disabled
+    // Whether queryResults caches all queries, or only filtered counts (see rowCounts)
+    private final boolean cachesQueries;
+    private final RowCounts rowCounts; // null if disabled
+    private final LocalStorageCache localStorage = new LocalStorageCache();
+    private final Map<String, Map<String, ColumnType>> columnTypes;
+    private final WritableFactory writables;
+    private final ReaderPool readers;
+    private final SchemaTemplates templates; // null if disabled
+    private TuningProfile tuningProfile; // null if not set
+    // Reads on pooled connections hold the read lock until their results are delivered. Writes take
+    // the write lock just before they commit, and keep it until their results (and record cache
+    // changes) are delivered. This way, JS never gets results of a read that reflect a commit it
+    // wasn't told about yet, and the record cache always matches what JS has received
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private int writeSnapshots = 0; // times a write took the snapshot lock, see fetchQueryCursor
+    private final Map<Integer, QueryCursor> queryCursors = new HashMap<>();
+    private int nextQueryCursorHandle = 1;
+
+    // Budget of the query result cache when it only caches counts (an entry is ~0.5KB)
+    private static final long COUNT_CACHE_MAX_BYTES = 256 * 1024;
 
     public WMDatabaseDriver(Context context, String dbName) {
         this(context, dbName, "", false);
@@ -40,11 +80,15 @@ public class WMDatabaseDriver {
             );
 
         }
-
+        localStorage.load(database);
     }
 
     public WMDatabaseDriver(Context context, String dbName, String password, int schemaVersion, boolean unsafeNativeReuse) {
-        this(context, dbName, password, unsafeNativeReuse);
+        this(context, dbName, password, schemaVersion, unsafeNativeReuse, new DriverOptions());
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, String password, int schemaVersion, boolean unsafeNativeReuse, DriverOptions options) {
+        this(context, dbName, password, unsafeNativeReuse, options);
         SchemaCompatibility compatibility = isCompatible(schemaVersion);
         if (compatibility instanceof SchemaCompatibility.NeedsSetup) {
             throw new SchemaNeededError();
@@ -54,12 +98,12 @@ public class WMDatabaseDriver {
             );
 
         }
-
+        localStorage.load(database);
     }
 
     public WMDatabaseDriver(Context context, String dbName, Schema schema, boolean unsafeNativeReuse) {
         this(context, dbName, "", unsafeNativeReuse);
-        unsafeResetDatabase(schema);
+        resetDatabase(schema);
     }
 
     public WMDatabaseDriver(Context context, String dbName, MigrationSet migrations, boolean unsafeNativeReuse) {
@@ -68,31 +112,137 @@ public class WMDatabaseDriver {
     }
 
     public WMDatabaseDriver(Context context, String dbName, String password, Schema schema, boolean unsafeNativeReuse) {
-        this(context, dbName, password, unsafeNativeReuse);
-        unsafeResetDatabase(schema);
+        this(context, dbName, password, schema, unsafeNativeReuse, new DriverOptions());
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, String password, Schema schema, boolean unsafeNativeReuse, DriverOptions options) {
+        this(context, dbName, password, unsafeNativeReuse, options);
+        resetDatabase(schema);
     }
 
     public WMDatabaseDriver(Context context, String dbName, String password, MigrationSet migrations, boolean unsafeNativeReuse) {
-        this(context, dbName, password, unsafeNativeReuse);
+        this(context, dbName, password, migrations, unsafeNativeReuse, new DriverOptions());
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, String password, MigrationSet migrations, boolean unsafeNativeReuse, DriverOptions options) {
+        this(context, dbName, password, unsafeNativeReuse, options);
         migrate(migrations);
     }
 
     public WMDatabaseDriver(Context context, String dbName, String password, boolean unsafeNativeReuse) {
-        // NOTE: when using SQLCipher, we enable WAL explicitly after opening
-        boolean enableWriteAheadLogging = true;
-        this.database = unsafeNativeReuse ?
-                WMDatabase.getInstance(dbName, password, context, enableWriteAheadLogging) :
-                WMDatabase.buildDatabase(dbName, password, context, enableWriteAheadLogging);
+        this(context, dbName, password, unsafeNativeReuse, new DriverOptions());
+    }
+
+    public WMDatabaseDriver(Context context, String dbName, String password, boolean unsafeNativeReuse, DriverOptions options) {
+        this(
+                openDatabase(context, dbName, password, unsafeNativeReuse, options.keyOptions),
+                options,
+                options.readPoolSize > 0 && !WMDatabase.isInMemory(dbName) ?
+                        new ReaderPool(dbName, password, context, options.readPoolSize, options.keyOptions) :
+                        null,
+                options.schemaTemplates && !WMDatabase.isInMemory(dbName) ?
+                        new SchemaTemplates(context, dbName, password, options.keyOptions) :
+                        null
+        );
+    }
+
+    // Driver of an already open database (e.g. one on a different SqliteStorage), with no read pool
+    public WMDatabaseDriver(WMDatabase database, DriverOptions options) {
+        this(database, options, null, null);
+    }
+
+    private WMDatabaseDriver(WMDatabase database, DriverOptions options, ReaderPool readers, SchemaTemplates templates) {
+        this.database = database;
         if (BuildConfig.DEBUG) {
             this.log = Logger.getLogger("DB_Driver");
         } else {
             this.log = null;
         }
-        this.cachedRecords = new HashMap<>();
+        this.cachedRecords = RecordCache.create(options.recordCacheMaxRecords, options.recordCacheMaxBytes);
+        this.columnTypes = options.columnTypes;
+        this.writables = options.writables;
+        this.readers = readers;
+        this.templates = templates;
+        this.slowQueries = options.slowQueryThresholdMs > 0 ? new SlowQueryLog(options.slowQueryThresholdMs) : null;
+        this.cachesQueries = options.queryCacheMaxBytes > 0;
+        if (cachesQueries) {
+            this.queryResults = new QueryResultCache(options.queryCacheMaxBytes);
+        } else if (options.countCache) {
+            this.queryResults = new QueryResultCache(COUNT_CACHE_MAX_BYTES);
+        } else {
+            this.queryResults = null;
+        }
+        this.rowCounts = options.countCache ? new RowCounts() : null;
+    }
+
+    private static WMDatabase openDatabase(Context context, String dbName, String password, boolean unsafeNativeReuse, KeyOptions keyOptions) {
+        // NOTE: when using SQLCipher, we enable WAL explicitly after opening
+        boolean enableWriteAheadLogging = true;
+        return unsafeNativeReuse ?
+                WMDatabase.getInstance(dbName, password, context, enableWriteAheadLogging, keyOptions) :
+                WMDatabase.buildOrTakePrewarmed(dbName, password, context, enableWriteAheadLogging, keyOptions);
+    }
+
+    @Override
+    public ExecutorService getReadExecutor() {
+        return readers != null ? readers.getExecutor() : null;
+    }
+
+    @Override
+    public Lock getReadSnapshotLock() {
+        return snapshotLock.readLock();
+    }
+
+    private void lockWriteSnapshot() {
+        snapshotLock.writeLock().lock();
+        writeSnapshots++;
+    }
+
+    @Override
+    public void releaseWriteSnapshot() {
+        if (snapshotLock.isWriteLockedByCurrentThread()) {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    interface ReadFunction<T> {
+        T applyReadFunction(WMDatabase db);
+    }
+
+    private <T> T read(ReadFunction<T> function) {
+        if (readers == null) {
+            return function.applyReadFunction(database);
+        }
+        WMDatabase reader = readers.acquire();
+        try {
+            return function.applyReadFunction(reader);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    // Like read, but adds the query to slowQueries if it takes too long
+    private <T> T readQuery(String query, Object[] args, ReadFunction<T> function) {
+        if (slowQueries == null) {
+            return read(function);
+        }
+        return read((db) -> {
+            ConnectionStats.Sample sample = ConnectionStats.sample();
+            long rowsBefore = sample.rows;
+            long startedAt = System.nanoTime();
+            T result = function.applyReadFunction(db);
+            long duration = System.nanoTime() - startedAt;
+            if (slowQueries.isSlow(duration)) {
+                slowQueries.add(db, query, args, sample.rows - rowsBefore, duration);
+            }
+            return result;
+        });
     }
 
+    @Override
     public Object find(String table, String id) {
         if (isCached(table, id)) {
+            countResults(1, null);
             return id;
         }
         Object[] args = {id};
@@ -103,129 +253,895 @@ public class WMDatabaseDriver {
             }
             markAsCached(table, id);
             cursor.moveToFirst();
-            return DatabaseUtils.cursorToMap(cursor);
+            RowEncoder encoder = rowEncoder(cursor, table);
+            WritableMap record = encoder.toMap(cursor);
+            countResults(1, encoder);
+            return record;
         }
     }
 
+    @Override
     public WritableArray cachedQuery(String table, String query, Object[] args) {
-        WritableArray resultArray = Arguments.createArray();
-        try (Cursor cursor = database.rawQuery(query, args)) {
-            if (cursor.getCount() > 0 && DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
-                int idColumnIndex = cursor.getColumnIndex("id");
-                while (cursor.moveToNext()) {
-                    String id = cursor.getString(idColumnIndex);
-                    if (isCached(table, id)) {
-                        resultArray.pushString(id);
-                    } else {
-                        markAsCached(table, id);
-                        resultArray.pushMap(DatabaseUtils.cursorToMap(cursor));
+        return readQuery(query, args, (db) -> {
+            WritableArray resultArray = writables.createArray();
+            try (Cursor cursor = db.rawQuery(query, args)) {
+                if (cursor.getCount() > 0 && DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
+                    int idColumnIndex = cursor.getColumnIndex("id");
+                    RowEncoder encoder = rowEncoder(cursor, table);
+                    while (cursor.moveToNext()) {
+                        String id = cursor.getString(idColumnIndex);
+                        if (isCached(table, id)) {
+                            resultArray.pushString(id);
+                        } else {
+                            markAsCached(table, id);
+                            resultArray.pushMap(encoder.toMap(cursor));
+                        }
                     }
+                    countResults(cursor.getCount(), encoder);
                 }
             }
-        }
-        return resultArray;
+            return resultArray;
+        });
     }
 
-    public WritableArray queryIds(String query, Object[] args) {
-        WritableArray resultArray = Arguments.createArray();
-        try (Cursor cursor = database.rawQuery(query, args)) {
-            if (cursor.getCount() > 0 && DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
-                while (cursor.moveToNext()) {
-                    int columnIndex = cursor.getColumnIndex("id");
-                    resultArray.pushString(cursor.getString(columnIndex));
+    // Same as cachedQuery, but in a compressed format: column names first, then records as arrays of
+    // values (or just IDs for cached records). Expanded in JS by decodeQueryResult
+    @Override
+    public WritableArray cachedQueryAsArray(String table, String query, Object[] args) {
+        return readQuery(query, args, (db) -> {
+            WritableArray resultArray = writables.createArray();
+            try (Cursor cursor = db.rawQuery(query, args)) {
+                if (cursor.getCount() > 0 && DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
+                    int idColumnIndex = cursor.getColumnIndex("id");
+                    RowEncoder encoder = rowEncoder(cursor, table);
+                    resultArray.pushArray(encoder.columns());
+                    while (cursor.moveToNext()) {
+                        String id = cursor.getString(idColumnIndex);
+                        if (isCached(table, id)) {
+                            resultArray.pushString(id);
+                        } else {
+                            markAsCached(table, id);
+                            resultArray.pushArray(encoder.toArray(cursor));
+                        }
+                    }
+                    countResults(cursor.getCount(), encoder);
                 }
             }
+            return resultArray;
+        });
+    }
+
+    @Override
+    public WritableArray queryIds(String query, Object[] args) {
+        if (!cachesQueries) {
+            return idsArray(readIds(query, args));
+        }
+        String key = QueryResultCache.key("queryIds", query, args);
+        String[] ids = (String[]) queryResults.get(key);
+        if (ids == null) {
+            long generation = queryResults.getGeneration();
+            // NOTE: Cached on the connection it was read on - the writer must not be used from here
+            ids = readQuery(query, args, (db) -> {
+                String[] result = readIds(db, query, args);
+                queryResults.put(key, generation, result, QueryResultCache.sizeOf(result), queryResults.tablesIn(query, db));
+                return result;
+            });
+        } else {
+            countIds(ids);
+        }
+        return idsArray(ids);
+    }
+
+    private String[] readIds(String query, Object[] args) {
+        return readQuery(query, args, (db) -> readIds(db, query, args));
+    }
+
+    private static String[] readIds(WMDatabase db, String query, Object[] args) {
+        try (Cursor cursor = db.rawQuery(query, args)) {
+            if (cursor.getCount() <= 0 || !DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
+                return new String[0];
+            }
+            int idColumnIndex = cursor.getColumnIndex("id");
+            String[] ids = new String[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getString(idColumnIndex);
+            }
+            countIds(ids);
+            return ids;
+        }
+    }
+
+    private static void countIds(String[] ids) {
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        sample.rows += ids.length;
+        for (String id : ids) {
+            sample.bytes += id.length();
+        }
+    }
+
+    private WritableArray idsArray(String[] ids) {
+        WritableArray resultArray = writables.createArray();
+        for (String id : ids) {
+            resultArray.pushString(id);
         }
         return resultArray;
     }
 
+    @Override
     public WritableArray unsafeQueryRaw(String query, Object[] args) {
-        WritableArray resultArray = Arguments.createArray();
-        try (Cursor cursor = database.rawQuery(query, args)) {
+        if (DatabaseUtils.isSelect(query)) {
+            return cachesQueries ? cachedRawQuery(query, args) : rawQuery(query, args);
+        }
+        // NOTE: Might write, so it runs on the writer (the bridge only sends select queries to the
+        // read pool), just like batch
+        if (changeFeed != null) {
+            changeFeed.markWritten();
+        }
+        // NOTE: released by the bridge once the result is delivered
+        lockWriteSnapshot();
+        try {
+            return rawQuery(database, query, args);
+        } finally {
+            // NOTE: Might have written anything
+            if (queryResults != null) {
+                queryResults.clear(true);
+            }
+            if (rowCounts != null) {
+                rowCounts.clear();
+            }
+            localStorage.clear();
+        }
+    }
+
+    private WritableArray cachedRawQuery(String query, Object[] args) {
+        String key = QueryResultCache.key("unsafeQueryRaw", query, args);
+        QueryResultCache.RawRows rows = (QueryResultCache.RawRows) queryResults.get(key);
+        if (rows == null) {
+            long generation = queryResults.getGeneration();
+            rows = readQuery(query, args, (db) -> {
+                QueryResultCache.RawRows result;
+                try (Cursor cursor = db.rawQuery(query, args)) {
+                    result = new QueryResultCache.RawRows(cursor);
+                }
+                countRawRows(result);
+                queryResults.put(key, generation, result, QueryResultCache.sizeOf(result), queryResults.tablesIn(query, db));
+                return result;
+            });
+        } else {
+            countRawRows(rows);
+        }
+        return rows.toArray(writables);
+    }
+
+    private static void countRawRows(QueryResultCache.RawRows rows) {
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        sample.rows += rows.rows.size();
+        sample.bytes += rows.bytes;
+    }
+
+    private WritableArray rawQuery(String query, Object[] args) {
+        return readQuery(query, args, (db) -> rawQuery(db, query, args));
+    }
+
+    private WritableArray rawQuery(WMDatabase db, String query, Object[] args) {
+        WritableArray resultArray = writables.createArray();
+        try (Cursor cursor = db.rawQuery(query, args)) {
             if (cursor.getCount() > 0) {
+                RowEncoder encoder = rowEncoder(cursor, null);
                 while (cursor.moveToNext()) {
-                    resultArray.pushMap(DatabaseUtils.cursorToMap(cursor));
+                    resultArray.pushMap(encoder.toMap(cursor));
                 }
+                countResults(cursor.getCount(), encoder);
             }
         }
         return resultArray;
     }
 
+    // Adds returned results to stats of the current operation. encoder - the one that encoded them, if any
+    private static void countResults(int rows, RowEncoder encoder) {
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        sample.rows += rows;
+        if (encoder != null) {
+            sample.bytes += encoder.takeEncodedBytes();
+        }
+    }
+
+    // Encoder for records of the table (or raw results if table is null)
+    private RowEncoder rowEncoder(Cursor cursor, String table) {
+        return new RowEncoder(cursor, table != null ? columnTypes.get(table) : null, writables);
+    }
+
+    @Override
     public int count(String query, Object[] args) {
-        return database.count(query, args);
+        if (queryResults == null) {
+            return readCount(query, args);
+        }
+        String countedTable = rowCounts != null ? RowCounts.countedTable(query, args) : null;
+        if (countedTable != null) {
+            return countRows(countedTable, query, args);
+        }
+        String key = QueryResultCache.key("count", query, args);
+        Integer count = (Integer) queryResults.get(key);
+        if (count == null) {
+            long generation = queryResults.getGeneration();
+            count = readQuery(query, args, (db) -> {
+                int result = readCount(db, query, args);
+                queryResults.put(key, generation, result, 16, queryResults.tablesIn(query, db));
+                return result;
+            });
+        } else {
+            ConnectionStats.sample().rows++;
+        }
+        return count;
+    }
+
+    // Unfiltered count of the table, maintained by batches once read
+    private int countRows(String table, String query, Object[] args) {
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        Long count = rowCounts.get(table);
+        if (count == null) {
+            sample.queryCacheMisses++;
+            long generation = rowCounts.getGeneration();
+            int readCount = readCount(query, args);
+            rowCounts.put(table, generation, readCount);
+            return readCount;
+        }
+        sample.queryCacheHits++;
+        sample.rows++;
+        return count.intValue();
     }
 
+    private int readCount(String query, Object[] args) {
+        return readQuery(query, args, (db) -> readCount(db, query, args));
+    }
+
+    private static int readCount(WMDatabase db, String query, Object[] args) {
+        int count = db.count(query, args);
+        ConnectionStats.sample().rows++;
+        return count;
+    }
+
+    // Pages are read with keyset pagination on id, so that each one continues where the last one
+    // ended (instead of counting or skipping everything before it), all in one read transaction on a
+    // reader lent for the cursor's lifetime, so that they are consistent with each other
+    private static class QueryCursor {
+        final String table; // null for raw queries, whose records are not cached
+        final String query;
+        final Object[] args;
+        final WMDatabase db; // lent reader, or the writer if there was no idle one
+        final boolean isReader;
+        final int writeSnapshot; // writeSnapshots when opened
+        Object lastId; // null until the first page is fetched
+
+        QueryCursor(String table, String query, Object[] args, WMDatabase db, boolean isReader, int writeSnapshot) {
+            this.table = table;
+            this.query = query;
+            this.args = args;
+            this.db = db;
+            this.isReader = isReader;
+            this.writeSnapshot = writeSnapshot;
+        }
+
+        Cursor nextPage(int count) {
+            if (lastId == null) {
+                return db.rawQuery("select * from (" + query + ") order by id limit " + count, args);
+            }
+            Object[] pageArgs = Arrays.copyOf(args, args.length + 1);
+            pageArgs[args.length] = lastId;
+            return db.rawQuery("select * from (" + query + ") where id > ? order by id limit " + count, pageArgs);
+        }
+    }
+
+    // Opens a query whose results are then fetched page by page, so that neither side has to hold
+    // all of them at once. Unlike the other queries, nothing is read until the first page is fetched
+    // Results come in order of (unique) id, which the query must select. Pass null table to get raw
+    // results (cached records are sent in full and not marked as cached)
+    // Queries with DISTINCT, GROUP BY, ORDER BY, LIMIT or compound SELECTs are rejected, since SQLite
+    // would have to evaluate (and sort) all of their results again for every page
+    // NOTE: Pages are only guaranteed to be a consistent snapshot if a reader was idle to be lent
+    // (see readPoolSize) - otherwise, they're read on the writer, and can see changes made in between
+    @Override
+    public int openQueryCursor(String table, String query, Object[] args) {
+        if (!isPageable(query)) {
+            throw new IllegalArgumentException("Query cursors don't support queries with DISTINCT (Q.on), "
+                    + "ORDER BY (Q.sortBy), LIMIT (Q.take), GROUP BY or compound SELECTs");
+        }
+        try (Cursor cursor = database.rawQuery(query, args)) {
+            if (!DatabaseUtils.arrayContains(cursor.getColumnNames(), "id")) {
+                throw new IllegalArgumentException("Query cursor must select id column");
+            }
+        }
+        WMDatabase reader = readers != null ? readers.lend() : null;
+        if (reader != null) {
+            try {
+                reader.beginReadTransaction();
+            } catch (RuntimeException e) {
+                readers.giveBack(reader);
+                throw e;
+            }
+        }
+        int handle = nextQueryCursorHandle++;
+        queryCursors.put(handle, reader != null ?
+                new QueryCursor(table, query, args, reader, true, writeSnapshots) :
+                new QueryCursor(table, query, args, database, false, writeSnapshots));
+        return handle;
+    }
+
+    private static final Set<String> UNPAGEABLE_KEYWORDS = new HashSet<>(Arrays.asList(
+            "distinct", "group", "order", "limit", "union", "intersect", "except"));
+
+    // Whether keyset pages of the query can be read without evaluating all of it, i.e. whether
+    // SQLite can flatten it into the paging query. Keywords of subqueries don't matter
+    private static boolean isPageable(String query) {
+        int[] depth = {0};
+        boolean[] pageable = {true};
+        DatabaseUtils.tokenize(query, (type, start, end) -> {
+            if (type == DatabaseUtils.TokenType.SYMBOL) {
+                char c = query.charAt(start);
+                depth[0] += c == '(' ? 1 : c == ')' ? -1 : 0;
+            } else if (type == DatabaseUtils.TokenType.WORD && depth[0] == 0 &&
+                    UNPAGEABLE_KEYWORDS.contains(query.substring(start, end).toLowerCase(Locale.ROOT))) {
+                pageable[0] = false;
+            }
+        });
+        return pageable[0];
+    }
+
+    // Returns next (up to) `count` results in compressed format (see cachedQueryAsArray). Fewer
+    // results mean there are no more, and the cursor is then closed
+    @Override
+    public WritableArray fetchQueryCursor(int handle, int count) {
+        QueryCursor queryCursor = queryCursors.get(handle);
+        if (queryCursor == null) {
+            throw new IllegalArgumentException("No open query cursor " + handle);
+        }
+        // Records of a reader that lags behind commits made since the cursor was opened may have been
+        // deleted (and removed from the record cache) since, so they're not marked as cached
+        boolean marksCached = !queryCursor.isReader || queryCursor.writeSnapshot == writeSnapshots;
+        WritableArray resultArray = writables.createArray();
+        int fetched = 0;
+        try (Cursor cursor = queryCursor.nextPage(count)) {
+            RowEncoder encoder = rowEncoder(cursor, queryCursor.table);
+            int idColumnIndex = cursor.getColumnIndex("id");
+            resultArray.pushArray(encoder.columns());
+            while (cursor.moveToNext()) {
+                fetched++;
+                if (queryCursor.table == null) {
+                    queryCursor.lastId = cursor.getType(idColumnIndex) == Cursor.FIELD_TYPE_STRING ?
+                            cursor.getString(idColumnIndex) :
+                            (Object) cursor.getDouble(idColumnIndex);
+                    resultArray.pushArray(encoder.toArray(cursor));
+                    continue;
+                }
+                String id = cursor.getString(idColumnIndex);
+                queryCursor.lastId = id;
+                if (isCached(queryCursor.table, id)) {
+                    resultArray.pushString(id);
+                } else {
+                    if (marksCached) {
+                        markAsCached(queryCursor.table, id);
+                    }
+                    resultArray.pushArray(encoder.toArray(cursor));
+                }
+            }
+            countResults(fetched, encoder);
+        }
+        if (fetched < count) {
+            closeQueryCursor(handle);
+        }
+        return resultArray;
+    }
+
+    @Override
+    public void closeQueryCursor(int handle) {
+        QueryCursor queryCursor = queryCursors.remove(handle);
+        if (queryCursor != null) {
+            releaseQueryCursor(queryCursor);
+        }
+    }
+
+    private void closeAllQueryCursors() {
+        for (QueryCursor queryCursor : queryCursors.values()) {
+            releaseQueryCursor(queryCursor);
+        }
+        queryCursors.clear();
+    }
+
+    private void releaseQueryCursor(QueryCursor queryCursor) {
+        if (!queryCursor.isReader) {
+            return;
+        }
+        try {
+            queryCursor.db.endReadTransaction();
+        } finally {
+            readers.giveBack(queryCursor.db);
+        }
+    }
+
+    @Override
     public String getLocal(String key) {
-        return database.getFromLocalStorage(key);
+        String value = localStorage.get(database, key);
+        if (value != null) {
+            ConnectionStats.Sample sample = ConnectionStats.sample();
+            sample.rows++;
+            sample.bytes += value.length();
+        }
+        return value;
     }
 
+    @Override
     public void batch(ReadableArray operations) {
-        List<Pair<String, String>> newIds = new ArrayList<>();
-        List<Pair<String, String>> removedIds = new ArrayList<>();
+        List<Pair<String, String[]>> newIds = new ArrayList<>();
+        List<Pair<String, String[]>> removedIds = new ArrayList<>();
 
+        if (changeFeed != null) {
+            changeFeed.markWritten();
+        }
         Trace.beginSection("Batch");
         try {
             database.transaction(() -> {
-                for (int i = 0; i < operations.size(); i++) {
-                    ReadableArray operation = operations.getArray(i);
-                    int cacheBehavior = operation.getInt(0);
-                    String table = cacheBehavior != 0 ? operation.getString(1) : "";
-                    String sql = operation.getString(2);
-                    ReadableArray argBatches = operation.getArray(3);
-
-                    for (int j = 0; j < argBatches.size(); j++) {
-                        Object[] args = argBatches.getArray(j).toArrayList().toArray();
-                        database.execute(sql, args);
-                        if (cacheBehavior != 0) {
-                            String id = (String) args[0];
-                            if (cacheBehavior == 1) {
-                                newIds.add(Pair.create(table, id));
-                            } else if (cacheBehavior == -1) {
-                                removedIds.add(Pair.create(table, id));
-                            }
+                executeOperations(operations, newIds, removedIds);
+                // NOTE: released by the bridge once the result is delivered
+                lockWriteSnapshot();
+            });
+        } catch (RuntimeException e) {
+            rollBackCaches();
+            throw e;
+        } finally {
+            Trace.endSection();
+        }
+        updateCaches(newIds, removedIds);
+    }
+
+    // Same as batch, but operations are passed as JSON, which is streamed through with values bound
+    // directly, without building bridge arrays of every operation's args first
+    @Override
+    public void batchJSON(String operationsJson) {
+        List<Pair<String, String[]>> newIds = new ArrayList<>();
+        List<Pair<String, String[]>> removedIds = new ArrayList<>();
+
+        if (changeFeed != null) {
+            changeFeed.markWritten();
+        }
+        Trace.beginSection("BatchJSON");
+        try {
+            database.transaction(() -> {
+                executeOperationsJSON(operationsJson, newIds, removedIds);
+                // NOTE: released by the bridge once the result is delivered
+                lockWriteSnapshot();
+            });
+        } catch (RuntimeException e) {
+            rollBackCaches();
+            throw e;
+        } finally {
+            Trace.endSection();
+        }
+        updateCaches(newIds, removedIds);
+    }
+
+    // Runs all batches in one transaction (so that they share one commit), each in its own savepoint,
+    // so that a batch that fails is rolled back alone, without affecting the others
+    @Override
+    public Exception[] batchGroup(List<GroupCommit.Batch> batches) {
+        Exception[] errors = new Exception[batches.size()];
+        List<Pair<String, String[]>> newIds = new ArrayList<>();
+        List<Pair<String, String[]>> removedIds = new ArrayList<>();
+
+        if (changeFeed != null) {
+            changeFeed.markWritten();
+        }
+        Trace.beginSection("BatchGroup");
+        try {
+            database.transaction(() -> {
+                List<Pair<String, String[]>> batchNewIds = new ArrayList<>();
+                List<Pair<String, String[]>> batchRemovedIds = new ArrayList<>();
+                for (int i = 0; i < batches.size(); i++) {
+                    GroupCommit.Batch batch = batches.get(i);
+                    int countsMark = rowCounts != null ? rowCounts.mark() : 0;
+                    int localStorageMark = localStorage.mark();
+                    database.execute("savepoint batch");
+                    try {
+                        if (batch.operationsJson != null) {
+                            executeOperationsJSON(batch.operationsJson, batchNewIds, batchRemovedIds);
+                        } else {
+                            executeOperations(batch.operations, batchNewIds, batchRemovedIds);
+                        }
+                        newIds.addAll(batchNewIds);
+                        removedIds.addAll(batchRemovedIds);
+                    } catch (Exception e) {
+                        errors[i] = e;
+                        if (rowCounts != null) {
+                            rowCounts.discardSince(countsMark);
                         }
+                        localStorage.discardSince(localStorageMark);
+                        // NOTE: If this fails too, the whole transaction is rolled back and all batches fail
+                        database.execute("rollback to batch");
+                    } finally {
+                        batchNewIds.clear();
+                        batchRemovedIds.clear();
+                    }
+                    database.execute("release batch");
+                    if (changeFeed != null) {
+                        changeFeed.endBatch();
                     }
                 }
+                // NOTE: released by the bridge once the results are delivered
+                lockWriteSnapshot();
             });
+        } catch (RuntimeException e) {
+            rollBackCaches();
+            if (changeFeed != null) {
+                changeFeed.discardBatches();
+            }
+            throw e;
         } finally {
             Trace.endSection();
         }
+        updateCaches(newIds, removedIds);
+        return errors;
+    }
+
+    // Executes batch operations (must be called in a transaction). IDs of records to add to or remove
+    // from the record cache are added to newIds and removedIds
+    private void executeOperations(ReadableArray operations, List<Pair<String, String[]>> newIds, List<Pair<String, String[]>> removedIds) {
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        for (int i = 0; i < operations.size(); i++) {
+            ReadableArray operation = operations.getArray(i);
+            int cacheBehavior = operation.getInt(0);
+            String table = cacheBehavior != 0 ? operation.getString(1) : "";
+            String sql = operation.getString(2);
+            if (queryResults != null) {
+                queryResults.addWrite(sql);
+            }
+            ReadableArray argBatches = operation.getArray(3);
+            int count = argBatches.size();
+            sample.statements += count;
+            String[] ids = null;
+            if (cacheBehavior == 1 || cacheBehavior == -1) {
+                ids = new String[count];
+                (cacheBehavior == 1 ? newIds : removedIds).add(Pair.create(table, ids));
+            }
+
+            if (rowCounts != null) {
+                addCountsWrite(cacheBehavior, table, sql, argBatches);
+            }
+
+            final String[] batchIds = ids;
+            final boolean writesLocalStorage = LocalStorageCache.writes(sql);
+            WMDatabase.ArgsBinder binder = (statement, j, argOffset) -> {
+                ReadableArray args = argBatches.getArray(j);
+                bindArgs(statement, args, argOffset);
+                if (batchIds != null) {
+                    batchIds[j] = args.getString(0);
+                }
+                if (writesLocalStorage) {
+                    localStorage.addWrite(sql, args);
+                }
+            };
+            // NOTE: Created records are inserted many rows per statement
+            if (cacheBehavior == 1) {
+                database.executeInsertBatch(sql, count, binder);
+            } else {
+                database.executeBatch(sql, count, binder);
+            }
+        }
+    }
+
+    // NOTE: Called before the operation is executed, so that removed records can be checked
+    private void addCountsWrite(int cacheBehavior, String table, String sql, ReadableArray argBatches) {
+        if (cacheBehavior == 1) {
+            List<Object> statuses = new ArrayList<>(argBatches.size());
+            for (int j = 0; j < argBatches.size(); j++) {
+                statuses.add(argBatches.getArray(j).getString(1));
+            }
+            rowCounts.addCreated(table, statuses);
+        } else if (cacheBehavior == -1) {
+            List<String> ids = new ArrayList<>(argBatches.size());
+            for (int j = 0; j < argBatches.size(); j++) {
+                ids.add(argBatches.getArray(j).getString(0));
+            }
+            rowCounts.addRemoved(database, table, ids);
+        } else {
+            boolean marksDeleted = false;
+            for (int j = 0; j < argBatches.size() && !marksDeleted; j++) {
+                ReadableArray args = argBatches.getArray(j);
+                marksDeleted = args.size() > 0 && args.getType(0) == ReadableType.String &&
+                        "deleted".equals(args.getString(0));
+            }
+            rowCounts.addWrite(sql, marksDeleted);
+        }
+    }
+
+    // Discards changes to caches of batches that were rolled back
+    private void rollBackCaches() {
+        if (rowCounts != null) {
+            rowCounts.rollback();
+        }
+        localStorage.rollback();
+    }
+
+    private void executeOperationsJSON(String operationsJson, List<Pair<String, String[]>> newIds, List<Pair<String, String[]>> removedIds) {
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        try (JsonReader reader = new JsonReader(new StringReader(operationsJson))) {
+            List<Object> args = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            List<Object> statuses = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginArray();
+                int cacheBehavior = reader.nextInt();
+                String table = (String) nextArg(reader);
+                String sql = reader.nextString();
+                if (queryResults != null) {
+                    queryResults.addWrite(sql);
+                }
+                // NOTE: Created records are inserted many rows per statement
+                WMDatabase.RowWriter writer = database.rowWriter(sql, cacheBehavior == 1);
+                // NOTE: Removed records must be counted before they're removed, so they're only
+                // written once all are read (their only arg is the ID)
+                boolean deferRows = rowCounts != null && cacheBehavior == -1;
+                boolean marksDeleted = false;
+                boolean writesLocalStorage = LocalStorageCache.writes(sql);
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    args.clear();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        args.add(nextArg(reader));
+                    }
+                    reader.endArray();
+                    if (cacheBehavior != 0) {
+                        ids.add((String) args.get(0));
+                    }
+                    if (rowCounts != null && !args.isEmpty()) {
+                        if (cacheBehavior == 1) {
+                            statuses.add(args.get(1));
+                        } else if ("deleted".equals(args.get(0))) {
+                            marksDeleted = true;
+                        }
+                    }
+                    if (writesLocalStorage) {
+                        localStorage.addWrite(sql, args.toArray());
+                    }
+                    if (!deferRows) {
+                        writer.addRow(args);
+                    }
+                    sample.statements++;
+                }
+                reader.endArray();
+                if (deferRows) {
+                    rowCounts.addRemoved(database, table, ids);
+                    for (String id : ids) {
+                        args.clear();
+                        args.add(id);
+                        writer.addRow(args);
+                    }
+                }
+                writer.finish();
+                reader.endArray();
+                if (rowCounts != null && cacheBehavior == 1) {
+                    rowCounts.addCreated(table, statuses);
+                    statuses.clear();
+                } else if (rowCounts != null && cacheBehavior == 0) {
+                    rowCounts.addWrite(sql, marksDeleted);
+                }
+                if (cacheBehavior != 0) {
+                    (cacheBehavior == 1 ? newIds : removedIds).add(Pair.create(table, ids.toArray(new String[0])));
+                    ids.clear();
+                }
+            }
+            reader.endArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid batch json", e);
+        }
+    }
 
+    private static Object nextArg(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case NULL:
+                reader.nextNull();
+                return null;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return reader.nextDouble();
+            case STRING:
+                return reader.nextString();
+            default:
+                throw new IllegalArgumentException("Bad batch arg type: " + reader.peek());
+        }
+    }
+
+    private void updateCaches(List<Pair<String, String[]>> newIds, List<Pair<String, String[]>> removedIds) {
         Trace.beginSection("updateCaches");
-        for (Pair<String, String> it : newIds) {
-            markAsCached(it.first, it.second);
+        synchronized (cachedRecords) {
+            for (Pair<String, String[]> it : newIds) {
+                cachedRecords.markAsCached(it.first, it.second);
+            }
+            for (Pair<String, String[]> it : removedIds) {
+                cachedRecords.removeFromCache(it.first, it.second);
+            }
+        }
+        if (queryResults != null) {
+            queryResults.invalidateWrites(database);
         }
-        for (Pair<String, String> it : removedIds) {
-            removeFromCache(it.first, it.second);
+        if (rowCounts != null) {
+            rowCounts.commit();
         }
+        localStorage.commit();
         Trace.endSection();
     }
 
 
+    @Override
+    public WritableMap unsafeLoadFromSync(int jsonId, ReadableMap schema, String preamble, String postamble) {
+        String json = SyncJsonLoader.takeSyncJson(jsonId);
+        WritableMap residualValues = writables.createMap();
+        if (changeFeed != null) {
+            changeFeed.markWritten();
+        }
+        Trace.beginSection("unsafeLoadFromSync");
+        try {
+            database.transaction(() -> {
+                database.unsafeExecuteStatements(preamble);
+                Map<String, String> values = new SyncJsonLoader(database, schema).load(json);
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    residualValues.putString(entry.getKey(), entry.getValue());
+                }
+                database.unsafeExecuteStatements(postamble);
+                // NOTE: released by the bridge once the result is delivered
+                lockWriteSnapshot();
+            });
+        } finally {
+            Trace.endSection();
+        }
+        if (queryResults != null) {
+            queryResults.clear(true);
+        }
+        if (rowCounts != null) {
+            rowCounts.clear();
+        }
+        localStorage.clear();
+        // NOTE: Loaded records are not marked as cached - JS hasn't seen them yet
+        return residualValues;
+    }
+
+    // Binds args straight from the bridge array, without boxing them into an Object[]
+    private static void bindArgs(SqliteStatement statement, ReadableArray args, int argOffset) {
+        for (int i = 0; i < args.size(); i++) {
+            int index = argOffset + i + 1;
+            switch (args.getType(i)) {
+                case Null:
+                    statement.bindNull(index);
+                    break;
+                case Boolean:
+                    statement.bindLong(index, args.getBoolean(i) ? 1 : 0);
+                    break;
+                case Number:
+                    statement.bindDouble(index, args.getDouble(i));
+                    break;
+                case String:
+                    statement.bindString(index, args.getString(i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad query arg type: " + args.getType(i));
+            }
+        }
+    }
+
+    // Forgets all records sent to JS, as if it was just launched. NOTE: Only for benchmarks - JS would
+    // then get records it already has in full
+    void clearCachedRecords() {
+        synchronized (cachedRecords) {
+            cachedRecords.clear();
+        }
+    }
+
     private void markAsCached(String table, String id) {
         // log.info("Mark as cached " + id);
-        List<String> cache = cachedRecords.get(table);
-        if (cache == null) {
-            cache = new ArrayList<>();
+        synchronized (cachedRecords) {
+            cachedRecords.markAsCached(table, id);
         }
-        cache.add(id);
-        cachedRecords.put(table, cache);
     }
 
+    // NOTE: Counted as a record cache hit/miss of the current operation
     private boolean isCached(String table, String id) {
-        List<String> cache = cachedRecords.get(table);
-        return cache != null && cache.contains(id);
+        boolean isCached;
+        synchronized (cachedRecords) {
+            isCached = cachedRecords.isCached(table, id);
+        }
+        ConnectionStats.Sample sample = ConnectionStats.sample();
+        if (isCached) {
+            sample.recordCacheHits++;
+        } else {
+            sample.recordCacheMisses++;
+        }
+        return isCached;
+    }
+
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueries;
+    }
+
+    @Override
+    public void enableChangeFeed() {
+        if (changeFeed == null) {
+            changeFeed = new ChangeFeed(database, columnTypes.keySet());
+            changeFeed.install();
+        }
+    }
+
+    @Override
+    public List<Map<String, ChangeFeed.TableChanges>> drainChanges() {
+        // NOTE: Drained after every write, so there's at most one transaction's worth of changes (split
+        // by batch for group commits)
+        return changeFeed != null ? changeFeed.drain() : Collections.emptyList();
+    }
+
+    @Override
+    public Map<String, List<String>> drainRecordCacheEvictions() {
+        synchronized (cachedRecords) {
+            return cachedRecords.drainEvictions();
+        }
+    }
+
+    @Override
+    public void setTuningProfile(TuningProfile profile) {
+        Trace.beginSection("setTuningProfile");
+        try {
+            tuningProfile = profile;
+            database.setPragmas(profile.connectionPragmas());
+            database.setPragmas(profile.writerPragmas());
+            if (readers != null) {
+                readers.setPragmas(profile.connectionPragmas());
+            }
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void checkpoint(boolean truncate) {
+        Trace.beginSection(truncate ? "checkpoint (truncate)" : "checkpoint");
+        try {
+            database.checkpoint(truncate);
+        } finally {
+            Trace.endSection();
+        }
     }
 
-    private void removeFromCache(String table, String id) {
-        List<String> cache = cachedRecords.get(table);
-        if (cache != null) {
-            cache.remove(id);
-            cachedRecords.put(table, cache);
+    @Override
+    public void onTrimMemory(int level) {
+        MemoryPressure pressure = MemoryPressure.fromTrimLevel(level);
+        Trace.beginSection("onTrimMemory");
+        try {
+            database.releaseMemory();
+            if (readers != null) {
+                readers.releaseMemory(pressure);
+            }
+            if (pressure == MemoryPressure.MODERATE) {
+                return;
+            }
+            database.clearStatementCache();
+            if (queryResults != null) {
+                queryResults.clear(false);
+            }
+            // NOTE: Evicted IDs are queued, and JS is told about them by the bridge
+            synchronized (cachedRecords) {
+                cachedRecords.trimTo(pressure == MemoryPressure.CRITICAL ? 0 : cachedRecords.size() / 2);
+            }
+        } finally {
+            Trace.endSection();
         }
     }
 
+    @Override
     public void close() {
+        closeAllQueryCursors();
+        if (readers != null) {
+            readers.close();
+        }
         database.close();
     }
 
@@ -235,22 +1151,137 @@ public class WMDatabaseDriver {
             throw new IllegalArgumentException("Incompatible migration set applied. " +
                     "DB: " + databaseVersion + ", migration: " + migrations.from);
         }
+        database.clearStatementCache();
         database.transaction(() -> {
             database.unsafeExecuteStatements(migrations.sql);
             database.setUserVersion(migrations.to);
         });
+        if (queryResults != null) {
+            queryResults.clear(true);
+        }
+        if (rowCounts != null) {
+            rowCounts.clear();
+        }
+        localStorage.clear();
+        localStorage.load(database);
+    }
+
+    @Override
+    public void rekey(String password) {
+        if (readers != null) {
+            throw new IllegalStateException("Can't rekey a database while its read pool is open");
+        }
+        // NOTE: A cached derived key of the old password is detected as stale and forgotten on next open
+        database.rekey(password);
+        if (templates != null) {
+            templates.rekeyed(password);
+        }
     }
 
+    @Override
     public void unsafeResetDatabase(Schema schema) {
+        // NOTE: released by the bridge once the result is delivered
+        lockWriteSnapshot();
+        resetDatabase(schema);
+    }
+
+    // NOTE: Doesn't take the snapshot lock - when called from a constructor (setUpWithSchema), the
+    // driver isn't connected yet, so there are no reads to keep out, and nothing would release it
+    private void resetDatabase(Schema schema) {
         if (log != null) {
             log.info("Unsafe reset database");
         }
-        database.unsafeDestroyEverything();
-        cachedRecords.clear();
-        database.transaction(() -> {
-            database.unsafeExecuteStatements(schema.sql);
-            database.setUserVersion(schema.version);
-        });
+        closeAllQueryCursors();
+        synchronized (cachedRecords) {
+            cachedRecords.clear();
+        }
+        if (!resetFromTemplate(schema)) {
+            database.unsafeDestroyEverything();
+            database.transaction(() -> {
+                database.unsafeExecuteStatements(schema.sql);
+                database.setUserVersion(schema.version);
+            });
+            if (templates != null) {
+                templates.buildInBackground(schema);
+            }
+        }
+        if (queryResults != null) {
+            queryResults.clear(true);
+        }
+        if (rowCounts != null) {
+            rowCounts.clear();
+        }
+        localStorage.clear();
+        localStorage.load(database);
+        if (changeFeed != null) {
+            // NOTE: Triggers were dropped with the tables
+            changeFeed.install();
+        }
+    }
+
+    // Replaces the database file with a copy of the schema's template, if there is one. Returns false
+    // if the database needs to be reset the normal way
+    private boolean resetFromTemplate(Schema schema) {
+        if (templates == null || !database.canReopen()) {
+            return false;
+        }
+        File template = templates.find(schema);
+        if (template == null) {
+            return false;
+        }
+        Trace.beginSection("resetFromTemplate");
+        try {
+            boolean installed = readers != null ?
+                    readers.whileClosed(() -> installTemplate(template, schema)) :
+                    installTemplate(template, schema);
+            if (!installed) {
+                return false;
+            }
+            if (tuningProfile != null) {
+                // NOTE: Connections were opened again, with default settings
+                setTuningProfile(tuningProfile);
+            }
+            return true;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    // NOTE: Leaves the database open, even if the template couldn't be installed. Deletes the template
+    // if it can't be used, but not if it just can't be installed now (the database is open elsewhere)
+    private boolean installTemplate(File template, Schema schema) {
+        database.close();
+        try {
+            if (!templates.install(template)) {
+                database.reopen();
+                return false;
+            }
+        } catch (IOException e) {
+            if (log != null) {
+                log.info("Failed to install schema template " + template + ": " + e);
+            }
+            template.delete();
+            database.reopen();
+            return false;
+        }
+        try {
+            database.reopen();
+            if (database.getUserVersion() != schema.version) {
+                template.delete();
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            // e.g. the template is encrypted with a different password. Doesn't matter what the normal
+            // reset starts from, so it starts from an empty database
+            if (log != null) {
+                log.info("Failed to open schema template " + template + ": " + e);
+            }
+            template.delete();
+            templates.deleteDatabase();
+            database.reopen();
+            return false;
+        }
     }
 
     private static class SchemaCompatibility {
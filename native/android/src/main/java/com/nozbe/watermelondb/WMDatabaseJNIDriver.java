@@ -0,0 +1,458 @@
+package com.nozbe.watermelondb;
+
+import android.content.Context;
+import android.os.Trace;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.nozbe.watermelondb.utils.MigrationSet;
+import com.nozbe.watermelondb.utils.Schema;
+import com.nozbe.watermelondb.utils.TuningProfile;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+// Driver backed by the shared C++ engine (the one used in JSI mode), for apps that use the bridge
+// Requires the watermelondb-jsi native library. Query results are returned as JSON strings, which
+// are parsed in JS (see makeDispatcher) - much cheaper than building bridge maps/arrays
+// Doesn't implement DatabaseDriver.QueryCursors, SyncLoader or ReadPool. Options of the SQLCipher
+// driver that it doesn't support (readPoolSize, bounded record cache) are rejected by WMDatabaseBridge
+public class WMDatabaseJNIDriver implements DatabaseDriver {
+    private static final boolean isLoaded;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("watermelondb-jsi");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        isLoaded = loaded;
+    }
+
+    public static boolean isAvailable() {
+        return isLoaded;
+    }
+
+    private final Logger log;
+    private long handle;
+
+    public WMDatabaseJNIDriver(Context context, String dbName, String password, int schemaVersion) {
+        this(context, dbName, password);
+        int databaseVersion = nativeGetUserVersion(handle);
+        if (databaseVersion == schemaVersion) {
+            return;
+        }
+        // NOTE: Connection is not kept when the bridge waits for schema/migrations
+        close();
+        if (databaseVersion > 0 && databaseVersion < schemaVersion) {
+            throw new MigrationNeededError(databaseVersion);
+        }
+        if (databaseVersion > schemaVersion && log != null) {
+            log.info("Database has newer version (" + databaseVersion + ") than what the " +
+                    "app supports (" + schemaVersion + "). Will reset database.");
+        }
+        throw new SchemaNeededError();
+    }
+
+    public WMDatabaseJNIDriver(Context context, String dbName, String password, Schema schema) {
+        this(context, dbName, password);
+        unsafeResetDatabase(schema);
+    }
+
+    public WMDatabaseJNIDriver(Context context, String dbName, String password, MigrationSet migrations) {
+        this(context, dbName, password);
+        migrate(migrations);
+    }
+
+    private WMDatabaseJNIDriver(Context context, String dbName, String password) {
+        String path = WMDatabase.isInMemory(dbName) ? dbName : WMDatabase.databasePath(dbName, context);
+        this.handle = nativeCreate(utf8(path), utf8(password == null ? "" : password));
+        if (BuildConfig.DEBUG) {
+            this.log = Logger.getLogger("DB_JNIDriver");
+        } else {
+            this.log = null;
+        }
+    }
+
+    @Override
+    public Object find(String table, String id) {
+        try (JsonReader reader = new JsonReader(new StringReader(result(nativeFind(handle, utf8(table), utf8(id)))))) {
+            switch (reader.peek()) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return reader.nextString();
+                default:
+                    return readRecord(reader);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid record json", e);
+        }
+    }
+
+    @Override
+    public Object cachedQuery(String table, String query, Object[] args) {
+        return result(nativeQuery(handle, utf8(table), utf8(query), argsJson(args), false));
+    }
+
+    @Override
+    public Object cachedQueryAsArray(String table, String query, Object[] args) {
+        return result(nativeQuery(handle, utf8(table), utf8(query), argsJson(args), true));
+    }
+
+    @Override
+    public Object queryIds(String query, Object[] args) {
+        return result(nativeQueryIds(handle, utf8(query), argsJson(args)));
+    }
+
+    @Override
+    public Object unsafeQueryRaw(String query, Object[] args) {
+        return result(nativeUnsafeQueryRaw(handle, utf8(query), argsJson(args)));
+    }
+
+    @Override
+    public int count(String query, Object[] args) {
+        return nativeCount(handle, utf8(query), argsJson(args));
+    }
+
+    @Override
+    public String getLocal(String key) {
+        byte[] value = nativeGetLocal(handle, utf8(key));
+        return value != null ? result(value) : null;
+    }
+
+    @Override
+    public void batch(ReadableArray operations) {
+        Trace.beginSection("Batch");
+        try {
+            ConnectionStats.Sample sample = ConnectionStats.sample();
+            for (int i = 0; i < operations.size(); i++) {
+                sample.statements += operations.getArray(i).getArray(3).size();
+            }
+            nativeBatchJSON(handle, operationsJson(operations));
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    // NOTE: Batch JSON is passed to the C++ side as is, without parsing it here
+    @Override
+    public void batchJSON(String operationsJson) {
+        Trace.beginSection("BatchJSON");
+        try {
+            nativeBatchJSON(handle, utf8(operationsJson));
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    // NOTE: Batches are not actually grouped (run in one transaction), because the C++ engine doesn't
+    // support savepoints, which would be needed to keep them isolated
+    @Override
+    public Exception[] batchGroup(List<GroupCommit.Batch> batches) {
+        Exception[] errors = new Exception[batches.size()];
+        for (int i = 0; i < batches.size(); i++) {
+            GroupCommit.Batch batch = batches.get(i);
+            try {
+                if (batch.operationsJson != null) {
+                    batchJSON(batch.operationsJson);
+                } else {
+                    batch(batch.operations);
+                }
+            } catch (Exception e) {
+                errors[i] = e;
+            }
+        }
+        return errors;
+    }
+
+    @Override
+    public void rekey(String password) {
+        // NOTE: The shared engine is built with SQLCipher too
+        unsafeQueryRaw("pragma rekey = '" + password.replace("'", "''") + "'", new Object[]{});
+    }
+
+    @Override
+    public void unsafeResetDatabase(Schema schema) {
+        if (log != null) {
+            log.info("Unsafe reset database");
+        }
+        nativeUnsafeResetDatabase(handle, utf8(schema.sql), schema.version);
+    }
+
+    private void migrate(MigrationSet migrations) {
+        int databaseVersion = nativeGetUserVersion(handle);
+        if (databaseVersion != migrations.from) {
+            throw new IllegalArgumentException("Incompatible migration set applied. " +
+                    "DB: " + databaseVersion + ", migration: " + migrations.from);
+        }
+        nativeMigrate(handle, utf8(migrations.sql), migrations.from, migrations.to);
+    }
+
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return null;
+    }
+
+    @Override
+    public void enableChangeFeed() {
+        nativeEnableChangeFeed(handle);
+    }
+
+    @Override
+    public List<Map<String, ChangeFeed.TableChanges>> drainChanges() {
+        byte[] json = nativeDrainChanges(handle);
+        if (json == null) {
+            return Collections.emptyList();
+        }
+        // [{ "table": { "inserted": ["id", ...], "updated": [...], "deleted": [...] } | null }, ...]
+        List<Map<String, ChangeFeed.TableChanges>> commits = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(new StringReader(string(json)))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Map<String, ChangeFeed.TableChanges> commit = new HashMap<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String table = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        commit.put(table, null);
+                        continue;
+                    }
+                    ChangeFeed.TableChanges changes = new ChangeFeed.TableChanges();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String op = reader.nextName();
+                        List<String> ids = op.equals("inserted") ? changes.inserted :
+                                op.equals("updated") ? changes.updated : changes.deleted;
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            ids.add(reader.nextString());
+                        }
+                        reader.endArray();
+                    }
+                    reader.endObject();
+                    commit.put(table, changes);
+                }
+                reader.endObject();
+                commits.add(commit);
+            }
+            reader.endArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid change feed json", e);
+        }
+        return commits;
+    }
+
+    @Override
+    public Map<String, List<String>> drainRecordCacheEvictions() {
+        byte[] json = nativeDrainRecordCacheEvictions(handle);
+        if (json == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> evictions = new HashMap<>();
+        try (JsonReader reader = new JsonReader(new StringReader(string(json)))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String table = reader.nextName();
+                List<String> ids = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    ids.add(reader.nextString());
+                }
+                reader.endArray();
+                evictions.put(table, ids);
+            }
+            reader.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid record cache evictions json", e);
+        }
+        return evictions;
+    }
+
+    @Override
+    public void setTuningProfile(TuningProfile profile) {
+        for (String pragma : profile.connectionPragmas()) {
+            unsafeQueryRaw(pragma, new Object[]{});
+        }
+        for (String pragma : profile.writerPragmas()) {
+            unsafeQueryRaw(pragma, new Object[]{});
+        }
+    }
+
+    @Override
+    public void checkpoint(boolean truncate) {
+        unsafeQueryRaw(truncate ? "pragma wal_checkpoint(truncate)" : "pragma wal_checkpoint(passive)", new Object[]{});
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        nativeReleaseMemory(handle, level);
+    }
+
+    @Override
+    public void close() {
+        if (handle != 0) {
+            nativeDestroy(handle);
+            handle = 0;
+        }
+    }
+
+    // NOTE: Strings are passed as UTF-8 bytes - JNI's "modified UTF-8" mangles characters outside BMP
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] utf8) {
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // Decodes a result for JS, adding its size to stats of the current operation
+    // NOTE: Rows and record cache hits are not counted - they're only known to the C++ side
+    private static String result(byte[] utf8) {
+        ConnectionStats.sample().bytes += utf8.length;
+        return string(utf8);
+    }
+
+    private static byte[] argsJson(Object[] args) {
+        StringWriter json = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(json)) {
+            writer.beginArray();
+            for (Object arg : args) {
+                if (arg == null) {
+                    writer.nullValue();
+                } else if (arg instanceof String) {
+                    writer.value((String) arg);
+                } else if (arg instanceof Boolean) {
+                    writer.value((Boolean) arg);
+                } else if (arg instanceof Number) {
+                    writeNumber(writer, ((Number) arg).doubleValue());
+                } else {
+                    throw new IllegalArgumentException("Bad query arg type: " + arg.getClass().getCanonicalName());
+                }
+            }
+            writer.endArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return utf8(json.toString());
+    }
+
+    private static byte[] operationsJson(ReadableArray operations) {
+        StringWriter json = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(json)) {
+            writeArray(writer, operations);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return utf8(json.toString());
+    }
+
+    private static void writeArray(JsonWriter writer, ReadableArray array) throws IOException {
+        writer.beginArray();
+        for (int i = 0; i < array.size(); i++) {
+            switch (array.getType(i)) {
+                case Null:
+                    writer.nullValue();
+                    break;
+                case Boolean:
+                    writer.value(array.getBoolean(i));
+                    break;
+                case Number:
+                    writeNumber(writer, array.getDouble(i));
+                    break;
+                case String:
+                    writer.value(array.getString(i));
+                    break;
+                case Array:
+                    writeArray(writer, array.getArray(i));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad batch operation value type: " + array.getType(i));
+            }
+        }
+        writer.endArray();
+    }
+
+    // NOTE: Integers must not be written as e.g. `1.0`, because C++ side parses cache behavior as int
+    private static void writeNumber(JsonWriter writer, double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            writer.value((long) value);
+        } else {
+            writer.value(value);
+        }
+    }
+
+    private static WritableMap readRecord(JsonReader reader) throws IOException {
+        WritableMap record = Arguments.createMap();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    record.putNull(name);
+                    break;
+                case NUMBER:
+                    record.putDouble(name, reader.nextDouble());
+                    break;
+                case BOOLEAN:
+                    record.putBoolean(name, reader.nextBoolean());
+                    break;
+                case STRING:
+                    record.putString(name, reader.nextString());
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected value in record json: " + reader.peek());
+            }
+        }
+        reader.endObject();
+        return record;
+    }
+
+    private static native long nativeCreate(byte[] path, byte[] password);
+
+    private static native void nativeDestroy(long handle);
+
+    private static native byte[] nativeFind(long handle, byte[] table, byte[] id);
+
+    private static native byte[] nativeQuery(long handle, byte[] table, byte[] query, byte[] args, boolean asArray);
+
+    private static native byte[] nativeQueryIds(long handle, byte[] query, byte[] args);
+
+    private static native byte[] nativeUnsafeQueryRaw(long handle, byte[] query, byte[] args);
+
+    private static native int nativeCount(long handle, byte[] query, byte[] args);
+
+    private static native void nativeBatchJSON(long handle, byte[] operations);
+
+    private static native byte[] nativeGetLocal(long handle, byte[] key);
+
+    private static native int nativeGetUserVersion(long handle);
+
+    private static native void nativeMigrate(long handle, byte[] sql, int fromVersion, int toVersion);
+
+    private static native void nativeUnsafeResetDatabase(long handle, byte[] schema, int schemaVersion);
+
+    private static native void nativeReleaseMemory(long handle, int trimLevel);
+
+    private static native byte[] nativeDrainRecordCacheEvictions(long handle);
+
+    private static native void nativeEnableChangeFeed(long handle);
+
+    private static native byte[] nativeDrainChanges(long handle);
+}
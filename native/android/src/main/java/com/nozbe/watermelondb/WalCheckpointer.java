@@ -0,0 +1,51 @@
+package com.nozbe.watermelondb;
+
+import android.os.Handler;
+import android.os.Looper;
+
+// Checkpoints a connection's WAL once the bridge has been idle for a while, so that the WAL is copied
+// to the database between operations, rather than by sqlite's automatic checkpoint, in the middle
+// of whichever commit happens to cross its threshold. A passive checkpoint (which doesn't wait for
+// readers) runs after a short idle time, and a truncating one (which also shrinks the WAL file back,
+// capping its growth) after a longer one
+// NOTE: Not thread-safe - must only be used on the bridge's (native modules) thread
+public class WalCheckpointer {
+    interface Checkpoint {
+        void run(boolean truncate);
+    }
+
+    private static final int TRUNCATE_IDLE_MULTIPLIER = 10;
+
+    private final long idleMs;
+    private final Runnable passiveCheckpoint;
+    private final Runnable truncateCheckpoint;
+    private Handler handler;
+
+    WalCheckpointer(long idleMs, Checkpoint checkpoint) {
+        this.idleMs = idleMs;
+        this.passiveCheckpoint = () -> checkpoint.run(false);
+        this.truncateCheckpoint = () -> checkpoint.run(true);
+    }
+
+    // Called after every operation - (re)starts waiting for the bridge to be idle
+    void onActivity() {
+        if (handler == null) {
+            Looper looper = Looper.myLooper();
+            if (looper == null) {
+                // NOTE: Can't schedule on this thread, sqlite's automatic checkpoints will do
+                return;
+            }
+            handler = new Handler(looper);
+        }
+        cancel();
+        handler.postDelayed(passiveCheckpoint, idleMs);
+        handler.postDelayed(truncateCheckpoint, idleMs * TRUNCATE_IDLE_MULTIPLIER);
+    }
+
+    void cancel() {
+        if (handler != null) {
+            handler.removeCallbacks(passiveCheckpoint);
+            handler.removeCallbacks(truncateCheckpoint);
+        }
+    }
+}
@@ -1,15 +1,26 @@
 package com.nozbe.watermelondb;
 
+import android.content.Context;
 import androidx.annotation.NonNull;
 import com.facebook.react.ReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.uimanager.ViewManager;
+import com.nozbe.watermelondb.utils.PrewarmOptions;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 public class WatermelonDBPackage implements ReactPackage {
+    public WatermelonDBPackage() {
+    }
+
+    // Also starts opening the database in the background, so that it's ready by the time JS needs it
+    // (see DatabasePrewarmer). dbName and options.password must match what's passed to SQLiteAdapter
+    public WatermelonDBPackage(Context context, String dbName, PrewarmOptions prewarmOptions) {
+        DatabasePrewarmer.prewarm(context, dbName, prewarmOptions);
+    }
+
     @NonNull
     @Override
     public List<NativeModule> createNativeModules(@NonNull ReactApplicationContext reactAppContext) {
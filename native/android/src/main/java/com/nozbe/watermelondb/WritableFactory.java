@@ -0,0 +1,26 @@
+package com.nozbe.watermelondb;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+// Creates maps and arrays that query results are returned in. Results sent over the bridge must be
+// native ones (Arguments), but those need React Native's native libraries - elsewhere (e.g. in
+// benchmarks on a desktop JVM), JavaOnlyMap/JavaOnlyArray can be used instead
+public interface WritableFactory {
+    WritableMap createMap();
+
+    WritableArray createArray();
+
+    WritableFactory BRIDGE = new WritableFactory() {
+        @Override
+        public WritableMap createMap() {
+            return Arguments.createMap();
+        }
+
+        @Override
+        public WritableArray createArray() {
+            return Arguments.createArray();
+        }
+    };
+}
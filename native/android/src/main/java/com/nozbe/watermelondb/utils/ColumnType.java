@@ -0,0 +1,19 @@
+package com.nozbe.watermelondb.utils;
+
+// Type of a column, as declared in JS schema
+public enum ColumnType {
+    STRING, NUMBER, BOOLEAN;
+
+    public static ColumnType fromString(String type) {
+        switch (type) {
+            case "string":
+                return STRING;
+            case "number":
+                return NUMBER;
+            case "boolean":
+                return BOOLEAN;
+            default:
+                throw new IllegalArgumentException("Invalid column type in schema: " + type);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.nozbe.watermelondb.utils;
+
+import com.nozbe.watermelondb.WritableFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DriverOptions {
+    // Budget of the native record cache (0 = unlimited)
+    public int recordCacheMaxRecords;
+    public long recordCacheMaxBytes;
+    // Number of extra connections to serve reads concurrently on (0 = all operations on one connection)
+    public int readPoolSize;
+    // Use the shared C++ engine (via JNI) instead of SQLCipher for Android
+    public boolean jniDriver;
+    // Log queries slower than this (0 = disabled), see SlowQueryLog
+    public long slowQueryThresholdMs;
+    // Commit batches received within this many ms in one transaction (-1 = disabled), see GroupCommit
+    public long groupCommitWindowMs = -1;
+    // Budget of the query result cache, in (estimated) bytes (0 = disabled), see QueryResultCache
+    public long queryCacheMaxBytes;
+    // Keep unfiltered counts current, and cache filtered counts, see RowCounts
+    public boolean countCache;
+    // Connection settings to apply once open (null = sqlite's defaults), see TuningProfile
+    public TuningProfile tuningProfile;
+    // Checkpoint the WAL once the connection is idle for this many ms (0 = disabled), see WalCheckpointer
+    public long checkpointIdleMs;
+    // Reset the database by copying a schema-only template of it, once there is one, see SchemaTemplates
+    public boolean schemaTemplates;
+    // How the database is keyed, if it's encrypted with a passphrase
+    public KeyOptions keyOptions = new KeyOptions();
+    // Tell JS which records were changed by every write, see ChangeFeed
+    public boolean changeFeed;
+    // Types of columns, by table, as declared in JS schema (tables can be missing)
+    public Map<String, Map<String, ColumnType>> columnTypes = new HashMap<>();
+    // What query results are returned in (not set from JS)
+    public WritableFactory writables = WritableFactory.BRIDGE;
+}
@@ -0,0 +1,200 @@
+package com.nozbe.watermelondb.utils;
+
+// Compact open-addressing hash set of record IDs
+// Linear probing over two parallel arrays (keys and their spread hashes) keeps lookups O(1)
+// and avoids the per-entry node allocations of java.util.HashSet. Removal uses backward-shift
+// deletion, so there are no tombstones and lookup cost doesn't degrade after many removals
+// See IdSetBenchmark (native/android-benchmark) for how it compares to java.util.HashSet
+public class IdSet {
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] keys;
+    private int[] hashes;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    public IdSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public IdSet(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(String id) {
+        int hash = spread(id.hashCode());
+        int i = hash & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.equals(id)) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean add(String id) {
+        int hash = spread(id.hashCode());
+        int i = hash & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.equals(id)) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        hashes[i] = hash;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public void addAll(String[] ids) {
+        ensureCapacity(size + ids.length);
+        for (String id : ids) {
+            add(id);
+        }
+    }
+
+    public boolean remove(String id) {
+        int hash = spread(id.hashCode());
+        int i = hash & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (hashes[i] == hash && key.equals(id)) {
+                shiftKeysBack(i);
+                size--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public void removeAll(String[] ids) {
+        for (String id : ids) {
+            remove(id);
+        }
+    }
+
+    public interface RemovedFunction {
+        void removed(String id);
+    }
+
+    // Removes (up to) `count` arbitrary IDs in place, passing each one to `function`. Returns how many
+    // were removed
+    public int removeSome(int count, RemovedFunction function) {
+        int removed = 0;
+        int i = 0;
+        while (removed < count && size > 0) {
+            String key = keys[i];
+            if (key == null) {
+                i = (i + 1) & mask;
+                continue;
+            }
+            // NOTE: A later key of the probe run may be shifted into this slot, so it's checked again
+            shiftKeysBack(i);
+            size--;
+            removed++;
+            function.removed(key);
+        }
+        return removed;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public String[] toArray() {
+        String[] array = new String[size];
+        int j = 0;
+        for (String key : keys) {
+            if (key != null) {
+                array[j++] = key;
+            }
+        }
+        return array;
+    }
+
+    public void ensureCapacity(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if (capacity > keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    // Backward-shift deletion: move later entries of the same probe run into the freed slot,
+    // so that every remaining key is still reachable from its home slot without tombstones
+    private void shiftKeysBack(int freed) {
+        int i = freed;
+        while (true) {
+            i = (i + 1) & mask;
+            String key = keys[i];
+            if (key == null) {
+                break;
+            }
+            int home = hashes[i] & mask;
+            // can the entry at `i` move to `freed`? only if `freed` lies cyclically in [home, i)
+            if (((i - home) & mask) >= ((i - freed) & mask)) {
+                keys[freed] = key;
+                hashes[freed] = hashes[i];
+                freed = i;
+            }
+        }
+        keys[freed] = null;
+        hashes[freed] = 0;
+    }
+
+    private void rehash(int newCapacity) {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        allocate(newCapacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            String key = oldKeys[j];
+            if (key != null) {
+                int i = oldHashes[j] & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                hashes[i] = oldHashes[j];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+        resizeThreshold = (capacity >> 1) + (capacity >> 2); // 0.75 load factor
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        // keep load factor under 0.75
+        while (capacity - (capacity >> 2) < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // String.hashCode() clusters for similar IDs, mix the bits before masking
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,10 @@
+package com.nozbe.watermelondb.utils;
+
+// How an encrypted database is keyed, see DatabaseKey. Not used for raw keys (x'...' passwords)
+public class KeyOptions {
+    // PBKDF2 iterations the key is derived from the password with (0 = SQLCipher's default)
+    // NOTE: Must be the same every time the database is opened
+    public int kdfIterations;
+    // Remember the derived key (wrapped by an Android Keystore key), so that later opens skip the KDF
+    public boolean cacheDerivedKey;
+}
@@ -0,0 +1,23 @@
+package com.nozbe.watermelondb.utils;
+
+import android.content.ComponentCallbacks2;
+
+// How much memory a database connection should give up when the system asks the app to trim
+// Same mapping as platform::memoryPressureForTrimLevel on the C++ side
+public enum MemoryPressure {
+    // Release what's cheap to get back - sqlite page cache
+    MODERATE,
+    // Also drop compiled statements and half of the record cache
+    HIGH,
+    // Release everything possible, including the whole record cache
+    CRITICAL;
+
+    public static MemoryPressure fromTrimLevel(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return CRITICAL;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return HIGH;
+        }
+        return MODERATE;
+    }
+}
@@ -0,0 +1,17 @@
+package com.nozbe.watermelondb.utils;
+
+public class PrewarmOptions {
+    public String password = "";
+    // Must be the same as the driver's (see DriverOptions)
+    public KeyOptions keyOptions = new KeyOptions();
+    // Schema version the app expects - hot tables are only warmed if the database is at it
+    public int schemaVersion;
+    // Tables and indexes (by name) to read into the page cache
+    public String[] hotTables = new String[0];
+    public String[] hotIndexes = new String[0];
+    // Rows read from each hot table and index - enough to warm up the pages apps read first, without
+    // reading the whole database
+    public int maxRows = 1000;
+    // The connection is closed if no driver takes it over in this time
+    public long unclaimedTimeoutMs = 60_000;
+}
@@ -0,0 +1,67 @@
+package com.nozbe.watermelondb.utils;
+
+// Named sets of connection settings (pragmas), selected in initialize and switchable at runtime
+// (e.g. BULK_SYNC for the duration of a sync pull). See WMDatabaseBridge.setTuningProfile
+// NOTE: mmap_size has no effect on encrypted databases - SQLCipher doesn't map them into memory
+public enum TuningProfile {
+    // sqlite's (and SQLCipher for Android's) defaults, to switch back to
+    DEFAULT("default", -2000, 0, 0, "full", -1, 1000),
+    // Bigger page cache, temporary tables in memory, and syncing to disk only at checkpoints
+    // (a commit can be lost on power failure, but the database can't get corrupted)
+    READ_HEAVY("read-heavy", -16384, 64 * 1024 * 1024, 2, "normal", 4 * 1024 * 1024, 1000),
+    // For writing lots of records at once - also checkpoints much less often (so that the WAL is
+    // copied to the database once, not many times), and lets the WAL grow meanwhile
+    BULK_SYNC("bulk-sync", -32768, 0, 2, "normal", 64 * 1024 * 1024, 10000),
+    // Small page cache, temporary tables on disk, and a small WAL, checkpointed often
+    LOW_MEMORY("low-memory", -512, 0, 1, "full", 1024 * 1024, 250);
+
+    // Name of the profile in JS
+    public final String jsName;
+    // Page cache size (negative = in KiB)
+    final int cacheSize;
+    final long mmapSize;
+    // 0 = default, 1 = file, 2 = memory
+    final int tempStore;
+    final String synchronous;
+    // Size the WAL is truncated to after a checkpoint (-1 = not truncated)
+    final long journalSizeLimit;
+    // Pages in the WAL after which sqlite checkpoints on commit
+    final int walAutocheckpoint;
+
+    TuningProfile(String name, int cacheSize, long mmapSize, int tempStore, String synchronous, long journalSizeLimit, int walAutocheckpoint) {
+        this.jsName = name;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.synchronous = synchronous;
+        this.journalSizeLimit = journalSizeLimit;
+        this.walAutocheckpoint = walAutocheckpoint;
+    }
+
+    public static TuningProfile fromName(String name) {
+        for (TuningProfile profile : values()) {
+            if (profile.jsName.equals(name)) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown tuning profile: " + name);
+    }
+
+    // Settings of every connection (including read-only ones)
+    public String[] connectionPragmas() {
+        return new String[]{
+                "pragma cache_size = " + cacheSize,
+                "pragma mmap_size = " + mmapSize,
+                "pragma temp_store = " + tempStore,
+        };
+    }
+
+    // Settings of the connection that writes
+    public String[] writerPragmas() {
+        return new String[]{
+                "pragma synchronous = " + synchronous,
+                "pragma journal_size_limit = " + journalSizeLimit,
+                "pragma wal_autocheckpoint = " + walAutocheckpoint,
+        };
+    }
+}
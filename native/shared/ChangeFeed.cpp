@@ -0,0 +1,84 @@
+#include "ChangeFeed.h"
+#include <cstring>
+
+namespace watermelondb {
+
+ChangeFeed::ChangeFeed(sqlite3 *db) : db_(db) {
+    sqlite3_commit_hook(db_, &ChangeFeed::onCommit, this);
+    sqlite3_rollback_hook(db_, &ChangeFeed::onRollback, this);
+#ifdef SQLITE_ENABLE_PREUPDATE_HOOK
+    sqlite3_preupdate_hook(db_, &ChangeFeed::onPreupdate, this);
+#else
+    sqlite3_update_hook(db_, &ChangeFeed::onUpdate, this);
+#endif
+}
+
+ChangeFeed::~ChangeFeed() {
+    sqlite3_commit_hook(db_, nullptr, nullptr);
+    sqlite3_rollback_hook(db_, nullptr, nullptr);
+#ifdef SQLITE_ENABLE_PREUPDATE_HOOK
+    sqlite3_preupdate_hook(db_, nullptr, nullptr);
+#else
+    sqlite3_update_hook(db_, nullptr, nullptr);
+#endif
+}
+
+std::vector<CommitChanges> ChangeFeed::drain() {
+    std::vector<CommitChanges> changes;
+    changes.swap(committed_);
+    return changes;
+}
+
+// NOTE: Hooks must not use the connection (other than to read preupdate values)
+void ChangeFeed::record(int op, const char *dbName, const char *table, sqlite3_value *id) {
+    // NOTE: local_storage is not made of records, and temp tables are not persisted
+    if (std::strcmp(dbName, "main") != 0 || std::strcmp(table, "local_storage") == 0 ||
+        std::strncmp(table, "sqlite_", 7) == 0) {
+        return;
+    }
+    auto &changes = pending_[table];
+    if (id == nullptr || sqlite3_value_type(id) != SQLITE_TEXT) {
+        changes.idsKnown = false;
+        return;
+    }
+    std::string recordId(reinterpret_cast<const char *>(sqlite3_value_text(id)), sqlite3_value_bytes(id));
+    if (op == SQLITE_INSERT) {
+        changes.inserted.push_back(recordId);
+    } else if (op == SQLITE_UPDATE) {
+        changes.updated.push_back(recordId);
+    } else if (op == SQLITE_DELETE) {
+        changes.deleted.push_back(recordId);
+    }
+}
+
+int ChangeFeed::onCommit(void *self) {
+    auto feed = static_cast<ChangeFeed *>(self);
+    if (!feed->pending_.empty()) {
+        feed->committed_.push_back(std::move(feed->pending_));
+        feed->pending_ = {};
+    }
+    return 0; // NOTE: non-zero would turn the commit into a rollback
+}
+
+void ChangeFeed::onRollback(void *self) {
+    static_cast<ChangeFeed *>(self)->pending_ = {};
+}
+
+#ifdef SQLITE_ENABLE_PREUPDATE_HOOK
+void ChangeFeed::onPreupdate(void *self, sqlite3 *db, int op, const char *dbName, const char *table, sqlite3_int64 rowid, sqlite3_int64 newRowid) {
+    // NOTE: id is the first column of every record table (see encodeSchema)
+    sqlite3_value *id = nullptr;
+    if (op == SQLITE_INSERT) {
+        sqlite3_preupdate_new(db, 0, &id);
+    } else {
+        sqlite3_preupdate_old(db, 0, &id);
+    }
+    static_cast<ChangeFeed *>(self)->record(op, dbName, table, id);
+}
+#else
+void ChangeFeed::onUpdate(void *self, int op, const char *dbName, const char *table, sqlite3_int64 rowid) {
+    static_cast<ChangeFeed *>(self)->record(op, dbName, table, nullptr);
+}
+#endif
+
+} // namespace watermelondb
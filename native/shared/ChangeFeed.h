@@ -0,0 +1,54 @@
+#pragma once
+
+#include <map>
+#include <string>
+#include <vector>
+
+#include "Sqlite.h"
+
+namespace watermelondb {
+
+// Records changed in one table by one transaction
+// NOTE: IDs are only known if sqlite was built with SQLITE_ENABLE_PREUPDATE_HOOK. Otherwise, only
+// that the table changed is known
+struct TableChanges {
+    std::vector<std::string> inserted;
+    std::vector<std::string> updated;
+    std::vector<std::string> deleted;
+    bool idsKnown = true;
+};
+
+// Changes of one committed transaction, by table name
+using CommitChanges = std::map<std::string, TableChanges>;
+
+// Collects rows actually changed by writes on a connection (batches, but also migrations, raw
+// queries, etc.) via sqlite hooks, grouped by committed transaction. Rolled back changes are dropped
+// NOTE: Must be destroyed before the connection is closed. Not thread-safe - must be used under the
+// same lock as the connection
+class ChangeFeed {
+    public:
+    explicit ChangeFeed(sqlite3 *db);
+    ~ChangeFeed();
+
+    // Returns (and forgets) changes of transactions committed since the last call, oldest first
+    std::vector<CommitChanges> drain();
+
+    ChangeFeed &operator=(const ChangeFeed &) = delete;
+    ChangeFeed(const ChangeFeed &) = delete;
+
+    private:
+    sqlite3 *db_;
+    CommitChanges pending_; // changes of the transaction in progress
+    std::vector<CommitChanges> committed_;
+
+    void record(int op, const char *dbName, const char *table, sqlite3_value *id);
+    static int onCommit(void *self);
+    static void onRollback(void *self);
+#ifdef SQLITE_ENABLE_PREUPDATE_HOOK
+    static void onPreupdate(void *self, sqlite3 *db, int op, const char *dbName, const char *table, sqlite3_int64 rowid, sqlite3_int64 newRowid);
+#else
+    static void onUpdate(void *self, int op, const char *dbName, const char *table, sqlite3_int64 rowid);
+#endif
+};
+
+} // namespace watermelondb
@@ -55,70 +55,10 @@ void Database::batch(jsi::Array &operations) {
 }
 
 void Database::batchJSON(jsi::String &&jsiJson) {
-    using namespace simdjson;
-
     auto &rt = getRt();
     const std::lock_guard<std::mutex> lock(mutex_);
-    beginTransaction();
-
-    std::vector<std::string> addedIds = {};
-    std::vector<std::string> removedIds = {};
-
-    try {
-        ondemand::parser parser;
-        auto json = padded_string(jsiJson.utf8(rt));
-        ondemand::document doc = parser.iterate(json);
-
-        // NOTE: simdjson::ondemand processes forwards-only, hence the weird field enumeration
-        // We can't use subscript or backtrack.
-        for (ondemand::array operation : doc) {
-            int64_t cacheBehavior = 0;
-            std::string table;
-            std::string sql;
-            size_t fieldIdx = 0;
-            for (auto field : operation) {
-                if (fieldIdx == 0) {
-                    cacheBehavior = field;
-                } else if (fieldIdx == 1) {
-                    if (cacheBehavior != 0) {
-                        table = (std::string_view) field;
-                    }
-                } else if (fieldIdx == 2) {
-                    sql = (std::string_view) field;
-                } else if (fieldIdx == 3) {
-                    ondemand::array argsBatches = field;
-                    auto stmt = prepareQuery(sql);
-                    SqliteStatement statement(stmt);
-
-                    for (ondemand::array args : argsBatches) {
-                        // NOTE: We must capture the ID once first parsed
-                        auto id = bindArgsAndReturnId(stmt, args);
-                        executeUpdate(stmt);
-                        sqlite3_reset(stmt);
-                        if (cacheBehavior == 1) {
-                            addedIds.push_back(cacheKey(table, id));
-                        } else if (cacheBehavior == -1) {
-                            removedIds.push_back(cacheKey(table, id));
-                        }
-                    }
-                }
-                fieldIdx++;
-            }
-        }
 
-        commit();
-    } catch (const std::exception &ex) {
-        rollback();
-        throw;
-    }
-
-    for (auto const &key : addedIds) {
-        markAsCached(key);
-    }
-
-    for (auto const &key : removedIds) {
-        removeFromCache(key);
-    }
+    executeBatchJSON(jsiJson.utf8(rt));
 }
 
 }
@@ -10,15 +10,18 @@ jsi::Runtime &Database::getRt() {
 }
 
 jsi::JSError Database::dbError(std::string description) {
-    // TODO: In serialized threading mode, those may be incorrect - probably smarter to pass result codes around?
-    auto sqliteMessage = std::string(sqlite3_errmsg(db_->sqlite));
-    auto code = sqlite3_extended_errcode(db_->sqlite);
-    auto message = description + " - sqlite error " + std::to_string(code) + " (" + sqliteMessage + ")";
-    // Note: logging to console in case another exception is thrown so that the original error isn't lost
-    consoleError(message);
+    auto &rt = getRt();
+    return jsi::JSError(rt, dbErrorMessage(description));
+}
+
+void Database::throwError(const std::string &message) {
+    auto &rt = getRt();
+    throw jsi::JSError(rt, message);
+}
 
+void Database::throwArgumentError(const std::string &message) {
     auto &rt = getRt();
-    return jsi::JSError(rt, message);
+    throw jsi::JSError(rt, message);
 }
 
 jsi::Array Database::arrayFromStd(std::vector<jsi::Value> &vector) {
@@ -158,21 +158,12 @@ jsi::Value Database::getLocal(jsi::String &key) {
     auto &rt = getRt();
     const std::lock_guard<std::mutex> lock(mutex_);
 
-    auto args = jsi::Array::createWithElements(rt, key);
-    auto statement = executeQuery("select value from local_storage where key = ?", args);
-
-    if (getNextRowOrTrue(statement.stmt)) {
-        return jsi::Value::null();
-    }
-
-    assert(sqlite3_data_count(statement.stmt) == 1);
-    const char *text = (const char *)sqlite3_column_text(statement.stmt, 0);
-
-    if (!text) {
+    std::string value;
+    if (!getLocalValue(key.utf8(rt), value)) {
         return jsi::Value::null();
     }
 
-    return jsi::String::createFromUtf8(rt, text);
+    return jsi::String::createFromUtf8(rt, value);
 }
 
 }
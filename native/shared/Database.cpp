@@ -6,38 +6,7 @@ using platform::consoleError;
 using platform::consoleLog;
 
 Database::Database(jsi::Runtime *runtime, std::string path, std::string password, bool usesExclusiveLocking)
-: runtime_(runtime), mutex_() {
-    db_ = std::make_unique<SqliteDb>(path, password.c_str());
-
-    std::string initSql = "";
-
-// FIXME: On Android, Watermelon often errors out on large batches with an IO error, because it
-// can't find a temp store... I tried setting sqlite3_temp_directory to /tmp/something, but that
-// didn't work. Setting temp_store to memory seems to fix the issue, but causes a significant
-// slowdown, at least on iOS (not confirmed on Android). Worth investigating if the slowdown is
-// also present on Android, and if so, investigate the root cause. Perhaps we need to set the temp
-// directory by interacting with JNI and finding a path within the app's sandbox?
-#ifdef ANDROID
-    initSql += "pragma temp_store = memory;";
-#endif
-
-    initSql += "pragma journal_mode = WAL;";
-
-    // set timeout before SQLITE_BUSY error is returned
-    initSql += "pragma busy_timeout = 5000;";
-
-#ifdef ANDROID
-    // NOTE: This was added in an attempt to fix mysterious `database disk image is malformed` issue when using
-    // headless JS services
-    // NOTE: This slows things down
-    initSql += "pragma synchronous = FULL;";
-#endif
-    if (usesExclusiveLocking) {
-        // this seems to fix the headless JS service issue but breaks if you have multiple readers
-        initSql += "pragma locking_mode = EXCLUSIVE;";
-    }
-
-    executeMultiple(initSql);
+: DatabaseCore(path, password, usesExclusiveLocking), runtime_(runtime) {
 }
 
 void Database::destroy() {
@@ -47,11 +16,8 @@ void Database::destroy() {
         return;
     }
     isDestroyed_ = true;
-    for (auto const &cachedStatement : cachedStatements_) {
-        sqlite3_stmt *statement = cachedStatement.second;
-        sqlite3_finalize(statement);
-    }
-    cachedStatements_ = {};
+    finalizeStatements();
+    changeFeed_ = nullptr;
     db_->destroy();
 }
 
@@ -59,66 +25,95 @@ Database::~Database() {
     destroy();
 }
 
-bool Database::isCached(std::string cacheKey) {
-    return cachedRecords_.find(cacheKey) != cachedRecords_.end();
-}
-void Database::markAsCached(std::string cacheKey) {
-    cachedRecords_.insert(cacheKey);
-}
-void Database::removeFromCache(std::string cacheKey) {
-    cachedRecords_.erase(cacheKey);
+void Database::releaseMemory(MemoryPressure pressure) {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    if (isDestroyed_) {
+        return;
+    }
+
+    releaseCaches(pressure);
+
+    consoleLog("Released database memory, " + std::to_string(cachedRecords_.size()) + " cached records left");
 }
 
-void Database::unsafeResetDatabase(jsi::String &schema, int schemaVersion) {
+jsi::Value Database::drainRecordCacheEvictions() {
     auto &rt = getRt();
     const std::lock_guard<std::mutex> lock(mutex_);
 
-    // TODO: in non-memory mode, just delete the DB files
-    // NOTE: As of iOS 14, selecting tables from sqlite_master and deleting them does not work
-    // They seem to be enabling "defensive" config. So we use another obscure method to clear the database
-    // https://www.sqlite.org/c3ref/c_dbconfig_defensive.html#sqlitedbconfigresetdatabase
-
-    if (sqlite3_db_config(db_->sqlite, SQLITE_DBCONFIG_RESET_DATABASE, 1, 0) != SQLITE_OK) {
-        throw jsi::JSError(rt, "Failed to enable reset database mode");
+    if (evictedRecords_.empty()) {
+        return jsi::Value::null();
     }
-    // NOTE: We can't VACUUM in a transaction
-    executeMultiple("vacuum");
 
-    if (sqlite3_db_config(db_->sqlite, SQLITE_DBCONFIG_RESET_DATABASE, 0, 0) != SQLITE_OK) {
-        throw jsi::JSError(rt, "Failed to disable reset database mode");
+    // { table: [id, ...] }
+    jsi::Object evicted(rt);
+    for (auto const &table : takeEvictedIds()) {
+        jsi::Array ids(rt, table.second.size());
+        for (size_t i = 0; i < table.second.size(); i++) {
+            ids.setValueAtIndex(rt, i, jsi::String::createFromUtf8(rt, table.second[i]));
+        }
+        evicted.setProperty(rt, table.first.c_str(), std::move(ids));
     }
+    return evicted;
+}
 
-    beginTransaction();
-    try {
-        cachedRecords_ = {};
+void Database::enableChangeFeed() {
+    const std::lock_guard<std::mutex> lock(mutex_);
+
+    startChangeFeed();
+}
+
+jsi::Value Database::drainChanges() {
+    auto &rt = getRt();
+    const std::lock_guard<std::mutex> lock(mutex_);
 
-        // Reinitialize schema
-        executeMultiple(schema.utf8(rt));
-        setUserVersion(schemaVersion);
+    if (!changeFeed_) {
+        return jsi::Value::null();
+    }
+    auto commits = changeFeed_->drain();
+    if (commits.empty()) {
+        return jsi::Value::null();
+    }
 
-        commit();
-    } catch (const std::exception &ex) {
-        rollback();
-        throw;
+    // [{ table: { inserted: [id, ...], updated: [...], deleted: [...] } | null (ids unknown) }, ...]
+    auto idsArray = [&](const std::vector<std::string> &ids) {
+        jsi::Array array(rt, ids.size());
+        for (size_t i = 0; i < ids.size(); i++) {
+            array.setValueAtIndex(rt, i, jsi::String::createFromUtf8(rt, ids[i]));
+        }
+        return array;
+    };
+    jsi::Array changes(rt, commits.size());
+    for (size_t i = 0; i < commits.size(); i++) {
+        jsi::Object commit(rt);
+        for (auto const &table : commits[i]) {
+            if (!table.second.idsKnown) {
+                commit.setProperty(rt, table.first.c_str(), jsi::Value::null());
+                continue;
+            }
+            jsi::Object tableChanges(rt);
+            tableChanges.setProperty(rt, "inserted", idsArray(table.second.inserted));
+            tableChanges.setProperty(rt, "updated", idsArray(table.second.updated));
+            tableChanges.setProperty(rt, "deleted", idsArray(table.second.deleted));
+            commit.setProperty(rt, table.first.c_str(), std::move(tableChanges));
+        }
+        changes.setValueAtIndex(rt, i, std::move(commit));
     }
+    return changes;
 }
 
-void Database::migrate(jsi::String &migrationSql, int fromVersion, int toVersion) {
+void Database::unsafeResetDatabase(jsi::String &schema, int schemaVersion) {
     auto &rt = getRt();
     const std::lock_guard<std::mutex> lock(mutex_);
 
-    beginTransaction();
-    try {
-        assert(getUserVersion() == fromVersion && "Incompatible migration set");
+    resetDatabase(schema.utf8(rt), schemaVersion);
+}
 
-        executeMultiple(migrationSql.utf8(rt));
-        setUserVersion(toVersion);
+void Database::migrate(jsi::String &migrationSql, int fromVersion, int toVersion) {
+    auto &rt = getRt();
+    const std::lock_guard<std::mutex> lock(mutex_);
 
-        commit();
-    } catch (const std::exception &ex) {
-        rollback();
-        throw;
-    }
+    migrateDatabase(migrationSql.utf8(rt), fromVersion, toVersion);
 }
 
 } // namespace watermelondb
@@ -77,6 +77,12 @@ void Database::install(jsi::Runtime *runtime) {
             }
         });
 
+        platform::onMemoryAlert([weakDatabase](MemoryPressure pressure) {
+            if (auto databaseToTrim = weakDatabase.lock()) {
+                databaseToTrim->releaseMemory(pressure);
+            }
+        });
+
         createMethod(rt, adapter, "initialize", 2, [database](jsi::Runtime &rt, const jsi::Value *args) {
             jsi::String dbName = args[0].getString(rt);
             int expectedVersion = (int)args[1].getNumber();
@@ -214,6 +220,19 @@ void Database::install(jsi::Runtime *runtime) {
                 std::abort();
             }
         });
+        createMethod(rt, adapter, "drainRecordCacheEvictions", 0, [database](jsi::Runtime &rt, const jsi::Value *args) {
+            assert(database->initialized_);
+            return database->drainRecordCacheEvictions();
+        });
+        createMethod(rt, adapter, "enableChangeFeed", 0, [database](jsi::Runtime &rt, const jsi::Value *args) {
+            assert(database->initialized_);
+            database->enableChangeFeed();
+            return jsi::Value::undefined();
+        });
+        createMethod(rt, adapter, "drainChanges", 0, [database](jsi::Runtime &rt, const jsi::Value *args) {
+            assert(database->initialized_);
+            return database->drainChanges();
+        });
         createMethod(rt, adapter, "unsafeClose", 0, [database](jsi::Runtime &rt, const jsi::Value *args) {
             assert(database->initialized_);
             database->destroy();
@@ -224,7 +243,6 @@ void Database::install(jsi::Runtime *runtime) {
         return adapter;
     });
 
-    // TODO: Use the onMemoryAlert hook!
 }
 
 
@@ -0,0 +1,440 @@
+#include "DatabaseCore.h"
+#include "DatabasePlatform.h"
+#include <cassert>
+
+namespace watermelondb {
+
+using platform::consoleError;
+using platform::consoleLog;
+
+DatabaseCore::DatabaseCore(std::string path, std::string password, bool usesExclusiveLocking) {
+    db_ = std::make_unique<SqliteDb>(path, password.c_str());
+
+    std::string initSql = "";
+
+// FIXME: On Android, Watermelon often errors out on large batches with an IO error, because it
+// can't find a temp store... I tried setting sqlite3_temp_directory to /tmp/something, but that
+// didn't work. Setting temp_store to memory seems to fix the issue, but causes a significant
+// slowdown, at least on iOS (not confirmed on Android). Worth investigating if the slowdown is
+// also present on Android, and if so, investigate the root cause. Perhaps we need to set the temp
+// directory by interacting with JNI and finding a path within the app's sandbox?
+#ifdef ANDROID
+    initSql += "pragma temp_store = memory;";
+#endif
+
+    initSql += "pragma journal_mode = WAL;";
+
+    // set timeout before SQLITE_BUSY error is returned
+    initSql += "pragma busy_timeout = 5000;";
+
+#ifdef ANDROID
+    // NOTE: This was added in an attempt to fix mysterious `database disk image is malformed` issue when using
+    // headless JS services
+    // NOTE: This slows things down
+    initSql += "pragma synchronous = FULL;";
+#endif
+    if (usesExclusiveLocking) {
+        // this seems to fix the headless JS service issue but breaks if you have multiple readers
+        initSql += "pragma locking_mode = EXCLUSIVE;";
+    }
+
+    executeMultiple(initSql);
+}
+
+DatabaseCore::~DatabaseCore() {
+    finalizeStatements();
+    changeFeed_ = nullptr;
+    db_->destroy();
+}
+
+void DatabaseCore::throwError(const std::string &message) {
+    throw std::runtime_error(message);
+}
+
+void DatabaseCore::throwArgumentError(const std::string &message) {
+    throw std::invalid_argument(message);
+}
+
+std::string DatabaseCore::dbErrorMessage(const std::string &description) {
+    // TODO: In serialized threading mode, those may be incorrect - probably smarter to pass result codes around?
+    auto sqliteMessage = std::string(sqlite3_errmsg(db_->sqlite));
+    auto code = sqlite3_extended_errcode(db_->sqlite);
+    auto message = description + " - sqlite error " + std::to_string(code) + " (" + sqliteMessage + ")";
+    // Note: logging to console in case another exception is thrown so that the original error isn't lost
+    consoleError(message);
+    return message;
+}
+
+void DatabaseCore::throwDbError(const std::string &description) {
+    throwError(dbErrorMessage(description));
+}
+
+sqlite3_stmt *DatabaseCore::prepareQuery(const std::string &sql) {
+    sqlite3_stmt *&statement = cachedStatements_[sql];
+
+    if (statement == nullptr) {
+        int resultPrepare = sqlite3_prepare_v2(db_->sqlite, sql.c_str(), -1, &statement, nullptr);
+
+        if (resultPrepare != SQLITE_OK) {
+            sqlite3_finalize(statement);
+            statement = nullptr;
+            throwDbError("Failed to prepare query statement");
+        }
+    } else {
+        // in theory, this shouldn't be necessary, since statements ought to be reset *after* use, not before use
+        // but still this might prevent some crashes if this is not done right
+        // TODO: Remove this later - should not be necessary, and it wastes time
+        sqlite3_reset(statement);
+    }
+    assert(statement != nullptr);
+    return statement;
+}
+
+void DatabaseCore::finalizeStatements() {
+    for (auto const &cachedStatement : cachedStatements_) {
+        sqlite3_finalize(cachedStatement.second);
+    }
+    cachedStatements_ = {};
+}
+
+std::string DatabaseCore::bindArgsAndReturnId(sqlite3_stmt *statement,
+                                              simdjson::ondemand::array &args,
+                                              sqlite3_destructor_type textLifetime) {
+    using namespace simdjson;
+    std::string returnId = "";
+
+    int argsCount = sqlite3_bind_parameter_count(statement);
+    int i = 0;
+    for (auto arg : args) {
+        int bindResult;
+        ondemand::json_type type = arg.type();
+
+        if (type == ondemand::json_type::string) {
+            std::string_view stringView = arg;
+            bindResult = sqlite3_bind_text(statement, i + 1, stringView.data(), (int) stringView.length(), textLifetime);
+            if (i == 0) {
+                returnId = std::string(stringView);
+            }
+        } else if (type == ondemand::json_type::number) {
+            bindResult = sqlite3_bind_double(statement, i + 1, (double) arg);
+        } else if (type == ondemand::json_type::boolean) {
+            bindResult = sqlite3_bind_int(statement, i + 1, (bool) arg);
+        } else if (type == ondemand::json_type::null) {
+            bindResult = sqlite3_bind_null(statement, i + 1);
+        } else {
+            sqlite3_reset(statement);
+            throwArgumentError("Invalid argument type for query - only strings, numbers, booleans and null are allowed");
+        }
+
+        i++;
+
+        if (bindResult != SQLITE_OK) {
+            sqlite3_reset(statement);
+            throwDbError("Failed to bind an argument for query");
+        }
+    }
+
+    if (argsCount != i) {
+        sqlite3_reset(statement);
+        throwArgumentError("Number of args passed to query doesn't match number of arg placeholders");
+    }
+
+    return returnId;
+}
+
+void DatabaseCore::bindArgs(sqlite3_stmt *statement, const std::string &argsJson) {
+    using namespace simdjson;
+    auto json = padded_string(argsJson);
+    ondemand::document doc = parser_.iterate(json);
+    ondemand::array args = doc.get_array();
+    // NOTE: json is gone once we return, so strings must be copied by sqlite
+    bindArgsAndReturnId(statement, args, SQLITE_TRANSIENT);
+}
+
+void DatabaseCore::executeUpdate(sqlite3_stmt *statement) {
+    int stepResult = sqlite3_step(statement);
+
+    if (stepResult != SQLITE_DONE) {
+        throwDbError("Failed to execute db update");
+    }
+}
+
+void DatabaseCore::executeUpdate(const std::string &sql) {
+    auto stmt = prepareQuery(sql);
+    SqliteStatement statement(stmt);
+    executeUpdate(stmt);
+}
+
+void DatabaseCore::executeMultiple(const std::string &sql) {
+    char *errmsg = nullptr;
+    int resultExec = sqlite3_exec(db_->sqlite, sql.c_str(), nullptr, nullptr, &errmsg);
+
+    if (errmsg) {
+        // sqlite docs are unclear on whether I need to use this argument or if I can just check result and use
+        // sqlite3_errmsg if needed...
+        std::string message(errmsg);
+        sqlite3_free(errmsg);
+        throwError(message);
+    }
+
+    if (resultExec != SQLITE_OK) {
+        throwDbError("Failed to execute statements");
+    }
+}
+
+void DatabaseCore::getRow(sqlite3_stmt *statement) {
+    int result = sqlite3_step(statement);
+
+    if (result != SQLITE_ROW) {
+        throwDbError("Failed to get a row for query");
+    }
+}
+
+bool DatabaseCore::getNextRowOrTrue(sqlite3_stmt *statement) {
+    int result = sqlite3_step(statement);
+
+    if (result == SQLITE_DONE) {
+        return true;
+    } else if (result != SQLITE_ROW) {
+        throwDbError("Failed to get a row for query");
+    }
+
+    return false;
+}
+
+void DatabaseCore::beginTransaction() {
+    // NOTE: using exclusive transaction, because that's what FMDB does
+    // In theory, `deferred` seems better, since it's less likely to get locked
+    // OTOH, we don't really do multithreaded access, and when we *do*, we'd either
+    // use a serial queue (easiest) or have to do a lot more work to avoid locking
+    executeUpdate("begin exclusive transaction");
+}
+
+void DatabaseCore::commit() {
+    executeUpdate("commit transaction");
+}
+
+void DatabaseCore::rollback() {
+    // TODO: Use RAII to rollback automatically!
+    consoleError("WatermelonDB sqlite transaction is being rolled back! This is BAD - it means that there's either a "
+                 "WatermelonDB bug or a user issue (e.g. no empty disk space) that Watermelon may be unable to recover "
+                 "from safely... Do investigate!");
+    // NOTE: On some errors (like IO, memory errors), the transaction may be rolled back automatically
+    // Attempting to roll it back ourselves would result in another error, which would hide the original error
+    // According to https://sqlite.org/c3ref/get_autocommit.html , checking autocommit status is the only
+    // way to find out whether that's the case. This feels wrong...
+    // https://sqlite.org/lang_transaction.html recommends that we roll back anyway, since an error is
+    // harmless.
+    try {
+        executeUpdate("rollback transaction");
+    } catch (const std::exception &ex) {
+        std::string errorMessage = "Error while attempting to roll back transaction, probably harmless: ";
+        errorMessage += ex.what();
+        consoleError(errorMessage);
+    }
+}
+
+int DatabaseCore::getUserVersion() {
+    auto stmt = prepareQuery("pragma user_version");
+    SqliteStatement statement(stmt);
+    getRow(stmt);
+
+    assert(sqlite3_data_count(stmt) == 1);
+
+    int version = sqlite3_column_int(stmt, 0);
+    return version;
+}
+
+void DatabaseCore::setUserVersion(int newVersion) {
+    // NOTE: placeholders don't work, and ints are safe
+    std::string sql = "pragma user_version = " + std::to_string(newVersion);
+    executeUpdate(sql);
+}
+
+bool DatabaseCore::isCached(const std::string &cacheKey) {
+    return cachedRecords_.find(cacheKey) != cachedRecords_.end();
+}
+void DatabaseCore::markAsCached(const std::string &cacheKey) {
+    cachedRecords_.insert(cacheKey);
+}
+void DatabaseCore::removeFromCache(const std::string &cacheKey) {
+    cachedRecords_.erase(cacheKey);
+}
+
+void DatabaseCore::executeBatchJSON(const std::string &operationsJson) {
+    using namespace simdjson;
+
+    beginTransaction();
+
+    std::vector<std::string> addedIds = {};
+    std::vector<std::string> removedIds = {};
+
+    try {
+        auto json = padded_string(operationsJson);
+        ondemand::document doc = parser_.iterate(json);
+
+        // NOTE: simdjson::ondemand processes forwards-only, hence the weird field enumeration
+        // We can't use subscript or backtrack.
+        for (ondemand::array operation : doc) {
+            int64_t cacheBehavior = 0;
+            std::string table;
+            std::string sql;
+            size_t fieldIdx = 0;
+            for (auto field : operation) {
+                if (fieldIdx == 0) {
+                    cacheBehavior = field;
+                } else if (fieldIdx == 1) {
+                    if (cacheBehavior != 0) {
+                        table = (std::string_view) field;
+                    }
+                } else if (fieldIdx == 2) {
+                    sql = (std::string_view) field;
+                } else if (fieldIdx == 3) {
+                    ondemand::array argsBatches = field;
+                    auto stmt = prepareQuery(sql);
+                    SqliteStatement statement(stmt);
+
+                    for (ondemand::array args : argsBatches) {
+                        // NOTE: We must capture the ID once first parsed
+                        // NOTE: json outlives the statement's execution, so strings don't need copying
+                        auto id = bindArgsAndReturnId(stmt, args);
+                        executeUpdate(stmt);
+                        sqlite3_reset(stmt);
+                        if (cacheBehavior == 1) {
+                            addedIds.push_back(cacheKey(table, id));
+                        } else if (cacheBehavior == -1) {
+                            removedIds.push_back(cacheKey(table, id));
+                        }
+                    }
+                }
+                fieldIdx++;
+            }
+        }
+
+        commit();
+    } catch (const std::exception &ex) {
+        rollback();
+        throw;
+    }
+
+    for (auto const &key : addedIds) {
+        markAsCached(key);
+    }
+
+    for (auto const &key : removedIds) {
+        removeFromCache(key);
+    }
+}
+
+bool DatabaseCore::getLocalValue(const std::string &key, std::string &value) {
+    auto stmt = prepareQuery("select value from local_storage where key = ?");
+    SqliteStatement statement(stmt);
+    if (sqlite3_bind_text(stmt, 1, key.c_str(), (int) key.length(), SQLITE_STATIC) != SQLITE_OK) {
+        throwDbError("Failed to bind an argument for query");
+    }
+
+    if (getNextRowOrTrue(stmt)) {
+        return false;
+    }
+
+    assert(sqlite3_data_count(stmt) == 1);
+    const char *text = (const char *)sqlite3_column_text(stmt, 0);
+
+    if (!text) {
+        return false;
+    }
+    value.assign(text, sqlite3_column_bytes(stmt, 0));
+    return true;
+}
+
+void DatabaseCore::resetDatabase(const std::string &schema, int schemaVersion) {
+    // NOTE: Compiled statements refer to tables that are about to be dropped
+    finalizeStatements();
+
+    // TODO: in non-memory mode, just delete the DB files
+    // NOTE: As of iOS 14, selecting tables from sqlite_master and deleting them does not work
+    // They seem to be enabling "defensive" config. So we use another obscure method to clear the database
+    // https://www.sqlite.org/c3ref/c_dbconfig_defensive.html#sqlitedbconfigresetdatabase
+
+    if (sqlite3_db_config(db_->sqlite, SQLITE_DBCONFIG_RESET_DATABASE, 1, 0) != SQLITE_OK) {
+        throwError("Failed to enable reset database mode");
+    }
+    // NOTE: We can't VACUUM in a transaction
+    executeMultiple("vacuum");
+
+    if (sqlite3_db_config(db_->sqlite, SQLITE_DBCONFIG_RESET_DATABASE, 0, 0) != SQLITE_OK) {
+        throwError("Failed to disable reset database mode");
+    }
+
+    beginTransaction();
+    try {
+        cachedRecords_ = {};
+        evictedRecords_ = {};
+
+        // Reinitialize schema
+        executeMultiple(schema);
+        setUserVersion(schemaVersion);
+
+        commit();
+    } catch (const std::exception &ex) {
+        rollback();
+        throw;
+    }
+}
+
+void DatabaseCore::migrateDatabase(const std::string &migrationSql, int fromVersion, int toVersion) {
+    // NOTE: Compiled statements may refer to tables changed by the migration
+    finalizeStatements();
+
+    beginTransaction();
+    try {
+        assert(getUserVersion() == fromVersion && "Incompatible migration set");
+
+        executeMultiple(migrationSql);
+        setUserVersion(toVersion);
+
+        commit();
+    } catch (const std::exception &ex) {
+        rollback();
+        throw;
+    }
+}
+
+void DatabaseCore::releaseCaches(MemoryPressure pressure) {
+    // Page cache
+    sqlite3_db_release_memory(db_->sqlite);
+
+    if (pressure < MemoryPressure::high) {
+        return;
+    }
+
+    // NOTE: Cached statements are only in use while mutex_ is held, so they're all reset by now
+    finalizeStatements();
+
+    // Native record cache - JS is told which records were evicted, so that it expects them to be
+    // sent in full next time (see drainRecordCacheEvictions)
+    size_t keepCount = pressure == MemoryPressure::critical ? 0 : cachedRecords_.size() / 2;
+    while (cachedRecords_.size() > keepCount) {
+        auto it = cachedRecords_.begin();
+        evictedRecords_.push_back(*it);
+        cachedRecords_.erase(it);
+    }
+}
+
+std::unordered_map<std::string, std::vector<std::string>> DatabaseCore::takeEvictedIds() {
+    std::unordered_map<std::string, std::vector<std::string>> evictedIds;
+    for (auto const &key : evictedRecords_) {
+        auto separator = key.find('$');
+        evictedIds[key.substr(0, separator)].push_back(key.substr(separator + 1));
+    }
+    evictedRecords_ = {};
+    return evictedIds;
+}
+
+void DatabaseCore::startChangeFeed() {
+    if (!changeFeed_) {
+        changeFeed_ = std::make_unique<ChangeFeed>(db_->sqlite);
+    }
+}
+
+} // namespace watermelondb
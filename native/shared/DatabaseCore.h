@@ -0,0 +1,90 @@
+#pragma once
+
+#include <memory>
+#include <mutex>
+#include <sqlite3.h>
+#include <string>
+#include <unordered_map>
+#include <unordered_set>
+#include <vector>
+
+// FIXME: Make these paths consistent across platforms
+#if __ANDROID__
+#import <simdjson.h>
+#elif defined(WIN32) || defined(_WIN32) || defined(__WIN32__) || defined(__NT__)
+#include <simdjson.h>
+#else
+// Does Xcode error on this line? You probably didn't include `simdjson` as a dependency in your Podfile.
+#include <simdjson/simdjson.h>
+#endif
+
+#include "Sqlite.h"
+#include "ChangeFeed.h"
+#include "MemoryPressure.h"
+
+namespace watermelondb {
+
+// Watermelon's sqlite logic that doesn't depend on JSI - connection setup, statement cache, native
+// record cache, JSON batches, migrations, resets, memory trimming and change feed.
+// Shared by Database (JSI) and JNIDatabase (RN bridge, see WMDatabaseJNIDriver), which only
+// convert arguments and results to their own representation.
+// NOTE: Nothing here locks - subclasses must hold mutex_ while calling into it
+class DatabaseCore {
+    protected:
+    DatabaseCore(std::string path, std::string password, bool usesExclusiveLocking);
+    virtual ~DatabaseCore();
+
+    std::mutex mutex_;
+    std::unique_ptr<SqliteDb> db_;
+    std::unordered_map<std::string, sqlite3_stmt *> cachedStatements_; // NOTE: may contain null pointers!
+    std::unordered_set<std::string> cachedRecords_;
+    std::vector<std::string> evictedRecords_; // cache keys evicted since JS was last told
+    std::unique_ptr<ChangeFeed> changeFeed_; // only if enabled
+    simdjson::ondemand::parser parser_;
+
+    // Errors are thrown as std::runtime_error and std::invalid_argument (invalid queries or
+    // arguments) by default. Subclasses can override these to throw their own error types
+    [[noreturn]] virtual void throwError(const std::string &message);
+    [[noreturn]] virtual void throwArgumentError(const std::string &message);
+    [[noreturn]] void throwDbError(const std::string &description);
+    std::string dbErrorMessage(const std::string &description);
+
+    sqlite3_stmt *prepareQuery(const std::string &sql);
+    void finalizeStatements();
+    // NOTE: Pass SQLITE_TRANSIENT if args are freed before the statement is done
+    std::string bindArgsAndReturnId(sqlite3_stmt *statement,
+                                    simdjson::ondemand::array &args,
+                                    sqlite3_destructor_type textLifetime = SQLITE_STATIC);
+    void bindArgs(sqlite3_stmt *statement, const std::string &argsJson);
+    void executeUpdate(sqlite3_stmt *statement);
+    void executeUpdate(const std::string &sql);
+    void executeMultiple(const std::string &sql);
+    void getRow(sqlite3_stmt *statement);
+    bool getNextRowOrTrue(sqlite3_stmt *statement);
+
+    void beginTransaction();
+    void commit();
+    void rollback();
+
+    int getUserVersion();
+    void setUserVersion(int newVersion);
+
+    bool isCached(const std::string &cacheKey);
+    void markAsCached(const std::string &cacheKey);
+    void removeFromCache(const std::string &cacheKey);
+
+    void executeBatchJSON(const std::string &operationsJson);
+    bool getLocalValue(const std::string &key, std::string &value);
+    void resetDatabase(const std::string &schema, int schemaVersion);
+    void migrateDatabase(const std::string &migrationSql, int fromVersion, int toVersion);
+    void releaseCaches(MemoryPressure pressure);
+    // { table: [id, ...] } of records evicted since the last call
+    std::unordered_map<std::string, std::vector<std::string>> takeEvictedIds();
+    void startChangeFeed();
+};
+
+inline std::string cacheKey(std::string tableName, std::string recordId) {
+    return tableName + "$" + recordId; // NOTE: safe as long as table names cannot contain $ sign
+}
+
+} // namespace watermelondb
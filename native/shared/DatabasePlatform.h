@@ -3,6 +3,7 @@
 #include <functional>
 #include <string>
 #include "Database.h"
+#include "MemoryPressure.h"
 
 namespace watermelondb {
 namespace platform {
@@ -26,7 +27,8 @@ std::string resolveDatabasePath(std::string path);
 void deleteDatabaseFile(std::string path, bool warnIfDoesNotExist);
 
 // Calls function when device memory is getting low
-void onMemoryAlert(std::function<void(void)> callback);
+// NOTE: May be called on any thread
+void onMemoryAlert(std::function<void(MemoryPressure)> callback);
 
 // Returns sync json provided by the user
 std::string_view getSyncJson(int id);
@@ -0,0 +1,15 @@
+#pragma once
+
+namespace watermelondb {
+
+// Severity of a memory alert, i.e. how much memory databases should release
+enum class MemoryPressure {
+    // Release memory that's cheap to get back (sqlite page cache)
+    moderate = 1,
+    // Also drop prepared statements and half of native record cache
+    high = 2,
+    // Release everything possible, including all of native record cache
+    critical = 3,
+};
+
+} // namespace watermelondb
@@ -4,12 +4,24 @@
 #include <fstream>
 #include <cstdio>
 #include <cstring>
+#include <mutex>
+#include <unordered_map>
 
 namespace watermelondb {
 
 using platform::consoleError;
 using platform::consoleLog;
 
+// See SqliteDb::openConnections
+static std::mutex openConnectionsMutex;
+static std::unordered_map<std::string, int> openConnectionCounts;
+
+int SqliteDb::openConnections(const std::string &path) {
+    std::lock_guard<std::mutex> lock(openConnectionsMutex);
+    auto count = openConnectionCounts.find(path);
+    return count != openConnectionCounts.end() ? count->second : 0;
+}
+
 static constexpr char SQLITE_HEADER[16] = {
     'S','Q','L','i','t','e',' ','f','o','r','m','a','t',' ','3','\0'
 };
@@ -117,6 +129,11 @@ SqliteDb::SqliteDb(std::string path, const char *password) {
     }
 #endif
     assert(sqlite != nullptr);
+    resolvedPath_ = resolvedPath;
+    {
+        std::lock_guard<std::mutex> lock(openConnectionsMutex);
+        openConnectionCounts[resolvedPath_]++;
+    }
     consoleLog("Opened database at " + resolvedPath);
 }
 
@@ -148,6 +165,13 @@ void SqliteDb::destroy() {
         consoleError("Failed to close sqlite database - " + std::string(sqlite3_errmsg(sqlite)));
     }
 
+    {
+        std::lock_guard<std::mutex> lock(openConnectionsMutex);
+        if (--openConnectionCounts[resolvedPath_] <= 0) {
+            openConnectionCounts.erase(resolvedPath_);
+        }
+    }
+
     consoleLog("Database closed.");
 }
 
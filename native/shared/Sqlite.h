@@ -16,6 +16,9 @@ class SqliteDb {
     ~SqliteDb();
     void destroy();
 
+    // Number of connections open to the database file at (resolved) path
+    static int openConnections(const std::string &path);
+
     sqlite3 *sqlite;
 
     SqliteDb &operator=(const SqliteDb &) = delete;
@@ -23,6 +26,7 @@ class SqliteDb {
 
     private:
     bool isDestroyed_;
+    std::string resolvedPath_;
 };
 
 class SqliteStatement {
@@ -52,7 +52,7 @@ void deleteDatabaseFile(std::string path, bool warnIfDoesNotExist) {
     // TODO: Unimplemented
 }
 
-void onMemoryAlert(std::function<void(void)> callback) {
+void onMemoryAlert(std::function<void(MemoryPressure)> callback) {
     // TODO: Unimplemented
 }
 
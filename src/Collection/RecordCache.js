@@ -105,14 +105,21 @@ export default class RecordCache<Record: Model> {
     return record
   }
 
+  _hasAdapterEvicted(): boolean {
+    const adapter = this._debugCollection.database.adapter.underlyingAdapter
+    // $FlowFixMe
+    return !!adapter._hasNativeRecordCacheEvicted?.(this.tableName)
+  }
+
   _modelForRaw(raw: RawRecord, warnIfCached: boolean = true): Record {
     // Sanity check: is this already cached?
     const cachedRecord = this.map.get(raw.id)
 
     if (cachedRecord) {
       // This may legitimately happen if we previously got ID without a record and we cleared
-      // adapter-side cached record ID maps to recover
+      // adapter-side cached record ID maps to recover, or if adapter-side cache is size-limited
       warnIfCached &&
+        !this._hasAdapterEvicted() &&
         logger.warn(
           `Record ${this.tableName}#${cachedRecord.id} is cached, but full raw object was sent over the bridge`,
         )
@@ -4,6 +4,7 @@
 import { connectionTag, type ConnectionTag, logger, invariant } from '../../utils/common'
 import { type ResultCallback, mapValue, toPromise } from '../../utils/fp/Result'
 import { mapObj } from '../../utils/fp'
+import { type Unsubscribe } from '../../utils/subscriptions'
 
 import type { RecordId } from '../../Model'
 import type { SerializedQuery } from '../../Query'
@@ -31,13 +32,16 @@ import type {
   SQLiteQuery,
   SqliteDispatcher,
   MigrationEvents,
+  QueryCursor,
+  NativeChanges,
+  NativeTuningProfile,
 } from './type'
 
 import encodeQuery from './encodeQuery'
 
 import { makeDispatcher, getDispatcherType } from './makeDispatcher'
 
-export type { SQL, SQLiteArg, SQLiteQuery }
+export type { SQL, SQLiteArg, SQLiteQuery, QueryCursor }
 
 if (process.env.NODE_ENV !== 'production') {
   require('./devtools')
@@ -66,6 +70,11 @@ export default class SQLiteAdapter implements DatabaseAdapter {
 
   _initPromise: Promise<void>
 
+  // Tables whose records native record cache has evicted since the database was opened (or reset)
+  _nativeRecordCacheEvictedTables: Set<TableName<any>> = new Set()
+
+  _nativeChangeSubscribers: Array<(changes: NativeChanges) => void> = []
+
   constructor(options: SQLiteAdapterOptions): void {
     // console.log(`---> Initializing new adapter (${this._tag})`)
     const {
@@ -75,6 +84,19 @@ export default class SQLiteAdapter implements DatabaseAdapter {
       migrationEvents,
       usesExclusiveLocking = false,
       experimentalUnsafeNativeReuse = false,
+      experimentalNativeRecordCacheLimit = null,
+      experimentalNativeReadPoolSize = 0,
+      experimentalNativeJNIDriver = false,
+      experimentalNativeSlowQueryThreshold = 0,
+      experimentalNativeGroupCommitWindow = null,
+      experimentalNativeChangeFeed = false,
+      experimentalNativeQueryCacheSize = 0,
+      experimentalNativeCountCache = false,
+      experimentalNativeKdfIterations = 0,
+      experimentalNativeCacheDerivedKey = false,
+      experimentalNativeTuningProfile = null,
+      experimentalNativeCheckpointIdleTime = 0,
+      experimentalNativeSchemaTemplates = false,
       passphrase = null,
     } = options
     this.schema = schema
@@ -89,6 +111,25 @@ export default class SQLiteAdapter implements DatabaseAdapter {
       usesExclusiveLocking,
       experimentalUnsafeNativeReuse,
       password: this.passphrase ?? '',
+      nativeRecordCacheLimit: experimentalNativeRecordCacheLimit,
+      nativeReadPoolSize: experimentalNativeReadPoolSize,
+      nativeJNIDriver: experimentalNativeJNIDriver,
+      nativeSlowQueryThreshold: experimentalNativeSlowQueryThreshold,
+      nativeGroupCommitWindow: experimentalNativeGroupCommitWindow,
+      nativeChangeFeed: experimentalNativeChangeFeed,
+      nativeQueryCacheSize: experimentalNativeQueryCacheSize,
+      nativeCountCache: experimentalNativeCountCache,
+      nativeKdfIterations: experimentalNativeKdfIterations,
+      nativeCacheDerivedKey: experimentalNativeCacheDerivedKey,
+      nativeTuningProfile: experimentalNativeTuningProfile,
+      nativeCheckpointIdleTime: experimentalNativeCheckpointIdleTime,
+      nativeSchemaTemplates: experimentalNativeSchemaTemplates,
+      nativeColumnTypes: mapObj(
+        (table) => mapObj((column) => column.type, table.columns),
+        schema.tables,
+      ),
+      onNativeRecordCacheEviction: (table, ids) => this._onNativeRecordCacheEviction(table, ids),
+      onNativeChanges: (changes) => this._onNativeChanges(changes),
     })
 
     if (process.env.NODE_ENV !== 'production') {
@@ -125,6 +166,12 @@ export default class SQLiteAdapter implements DatabaseAdapter {
     return clone
   }
 
+  // Stops listening to native events of this adapter (Android record cache evictions and changes).
+  // Call it once the adapter won't be used anymore (e.g. when replacing it with a new one)
+  unsafeClose(): void {
+    this._dispatcher.unsafeClose?.()
+  }
+
   _getName(name: ?string): string {
     if (process.env.NODE_ENV === 'test') {
       return name || `file:testdb${this._tag}?mode=memory&cache=shared`
@@ -258,6 +305,93 @@ export default class SQLiteAdapter implements DatabaseAdapter {
     )
   }
 
+  // (Android/non-JSI only) Opens a cursor over results of the query, so that they can be fetched
+  // (and processed) page by page, without holding all of them in memory. Pass `raw` to get results
+  // like unsafeQueryRaw, otherwise they're like query's. Results come in order of id (which raw
+  // queries must select, and which must be unique). Queries with Q.on, Q.sortBy or Q.take aren't
+  // supported. Keep cursors short-lived - while one is open, it may hold a connection of
+  // experimentalNativeReadPoolSize (one connection is always left for other reads)
+  openQueryCursor(
+    query: SerializedQuery,
+    raw: boolean,
+    callback: ResultCallback<QueryCursor>,
+  ): void {
+    validateTable(query.table, this.schema)
+    const table = raw ? null : query.table
+    const [sql, args] = encodeQuery(query)
+    this._dispatcher.call('openQueryCursor', [table, sql, args], (result) =>
+      callback(mapValue((handle) => ({ handle, table }), result)),
+    )
+  }
+
+  // Fetches up to `count` next results. Fewer results mean that there are no more (and the cursor
+  // is closed)
+  fetchQueryCursor(cursor: QueryCursor, count: number, callback: ResultCallback<any[]>): void {
+    const { handle, table } = cursor
+    this._dispatcher.call('fetchQueryCursor', [handle, count], (result) =>
+      callback(
+        table
+          ? mapValue(
+              (rawRecords) => sanitizeQueryResult(rawRecords, this.schema.tables[table]),
+              result,
+            )
+          : result,
+      ),
+    )
+  }
+
+  closeQueryCursor(cursor: QueryCursor, callback: ResultCallback<void>): void {
+    this._dispatcher.call('closeQueryCursor', [cursor.handle], callback)
+  }
+
+  // (Android/non-JSI only) Returns native stats of this database connection: latency percentiles
+  // of each operation (in ms, including time spent waiting in queue), rows and bytes returned,
+  // statements per batch, and record/query cache hit ratios - since it was opened or since
+  // resetNativeStats
+  getNativeStats(callback: ResultCallback<any>): void {
+    this._dispatcher.call('getStats', [], callback)
+  }
+
+  resetNativeStats(callback: ResultCallback<void>): void {
+    this._dispatcher.call('resetStats', [], callback)
+  }
+
+  // (Android/non-JSI only) Returns the most recent queries slower than
+  // experimentalNativeSlowQueryThreshold, oldest first, with their query plans
+  getNativeSlowQueries(callback: ResultCallback<any[]>): void {
+    this._dispatcher.call('getSlowQueries', [], callback)
+  }
+
+  // (With experimentalNativeChangeFeed) Calls subscriber with records changed by every committed
+  // native transaction - including writes that didn't go through batch (e.g. unsafeExecute)
+  experimentalSubscribeToNativeChanges(subscriber: (changes: NativeChanges) => void): Unsubscribe {
+    this._nativeChangeSubscribers.push(subscriber)
+    return () => {
+      const idx = this._nativeChangeSubscribers.indexOf(subscriber)
+      idx !== -1 && this._nativeChangeSubscribers.splice(idx, 1)
+    }
+  }
+
+  // (Android/non-JSI only) Re-encrypts the database with a new passphrase or raw key (see
+  // `passphrase`), e.g. to move an existing database to a raw key. Not supported with a read pool
+  experimentalRekey(passphrase: string, callback: ResultCallback<void>): void {
+    this._dispatcher.call('rekey', [passphrase], (result) => {
+      if (!result.error) {
+        this.passphrase = passphrase
+      }
+      callback(result)
+    })
+  }
+
+  // (Android/non-JSI only) Switches connection settings to another tuning profile (see
+  // experimentalNativeTuningProfile), e.g. to 'bulk-sync' before a large sync pull, and back after
+  experimentalSetNativeTuningProfile(
+    profile: NativeTuningProfile,
+    callback: ResultCallback<void>,
+  ): void {
+    this._dispatcher.call('setTuningProfile', [profile], callback)
+  }
+
   count(query: SerializedQuery, callback: ResultCallback<number>): void {
     validateTable(query.table, this.schema)
     this._dispatcher.call(
@@ -301,11 +435,7 @@ export default class SQLiteAdapter implements DatabaseAdapter {
   }
 
   unsafeLoadFromSync(jsonId: number, callback: ResultCallback<any>): void {
-    if (this._dispatcherType !== 'jsi') {
-      callback({ error: new Error('unsafeLoadFromSync unavailable. Use JSI mode to enable.') })
-      return
-    }
-
+    // NOTE: Non-JSI dispatchers return an error if unavailable
     const { encodeDropIndices, encodeCreateIndices } = require('./encodeSchema')
     const { schema } = this
     this._dispatcher.call(
@@ -323,15 +453,11 @@ export default class SQLiteAdapter implements DatabaseAdapter {
   }
 
   provideSyncJson(id: number, syncPullResultJson: string, callback: ResultCallback<void>): void {
-    if (this._dispatcherType !== 'jsi') {
-      callback({ error: new Error('provideSyncJson unavailable. Use JSI mode to enable.') })
-      return
-    }
-
     this._dispatcher.call('provideSyncJson', [id, syncPullResultJson], callback)
   }
 
   unsafeResetDatabase(callback: ResultCallback<void>): void {
+    this._nativeRecordCacheEvictedTables = new Set()
     this._dispatcher.call(
       'unsafeResetDatabase',
       [this._encodedSchema(), this.schema.version],
@@ -383,6 +509,22 @@ export default class SQLiteAdapter implements DatabaseAdapter {
     this._dispatcher.call('batch', [[operation]], callback)
   }
 
+  // NOTE: Evicted ids aren't kept, since most of them are never sent again (and after a trim, they
+  // could be all ids of the table)
+  _onNativeRecordCacheEviction(table: TableName<any>, ids: RecordId[]): void {
+    ids.length && this._nativeRecordCacheEvictedTables.add(table)
+  }
+
+  _onNativeChanges(changes: NativeChanges): void {
+    this._nativeChangeSubscribers.forEach((subscriber) => subscriber(changes))
+  }
+
+  // Returns true if native record cache has evicted records of this table, i.e. records that are
+  // already cached in JS may be sent over the bridge in full
+  _hasNativeRecordCacheEvicted(table: TableName<any>): boolean {
+    return this._nativeRecordCacheEvictedTables.has(table)
+  }
+
   _encodedSchema(): SQL {
     return require('./encodeSchema').encodeSchema(this.schema)
   }
@@ -20,6 +20,10 @@ class SqliteNodeDispatcher implements SqliteDispatcher {
   }
 
   call(methodName: SqliteDispatcherMethod, args: any[], callback: ResultCallback<any>): void {
+    if (!DatabaseBridge[methodName]) {
+      callback({ error: new Error(`${methodName} unavailable. Use JSI mode to enable.`) })
+      return
+    }
     // $FlowFixMe
     const method = DatabaseBridge[methodName].bind(DatabaseBridge)
     method(
@@ -1,11 +1,12 @@
 // @flow
 /* eslint-disable global-require */
 
-import { NativeModules, Platform } from 'react-native'
+import { NativeModules, Platform, DeviceEventEmitter } from 'react-native'
 import { type ConnectionTag, logger, invariant } from '../../../utils/common'
 import { fromPromise, type ResultCallback } from '../../../utils/fp/Result'
 import type {
   DispatcherType,
+  NativeChanges,
   SQLiteAdapterOptions,
   SqliteDispatcher,
   SqliteDispatcherMethod,
@@ -18,17 +19,80 @@ class SqliteNativeModulesDispatcher implements SqliteDispatcher {
   _tag: ConnectionTag
   _unsafeNativeReuse: boolean
   _password: string
+  _nativeOptions: { [string]: any }
   _bridge: any
+  _subscriptions: Array<{ remove: () => void, ... }>
 
   constructor(
     tag: ConnectionTag,
     bridge: any,
-    { experimentalUnsafeNativeReuse, password }: SqliteDispatcherOptions,
+    {
+      experimentalUnsafeNativeReuse,
+      password,
+      nativeRecordCacheLimit,
+      nativeReadPoolSize,
+      nativeColumnTypes,
+      nativeJNIDriver,
+      nativeSlowQueryThreshold,
+      nativeGroupCommitWindow,
+      nativeChangeFeed,
+      nativeQueryCacheSize,
+      nativeCountCache,
+      nativeKdfIterations,
+      nativeCacheDerivedKey,
+      nativeTuningProfile,
+      nativeCheckpointIdleTime,
+      nativeSchemaTemplates,
+      onNativeRecordCacheEviction,
+      onNativeChanges,
+    }: SqliteDispatcherOptions,
   ): void {
     this._tag = tag
     this._bridge = bridge
     this._unsafeNativeReuse = experimentalUnsafeNativeReuse
     this._password = password ?? ''
+    this._nativeOptions = {
+      recordCacheMaxRecords: nativeRecordCacheLimit?.maxRecords ?? 0,
+      recordCacheMaxBytes: nativeRecordCacheLimit?.maxBytes ?? 0,
+      readPoolSize: nativeReadPoolSize ?? 0,
+      columnTypes: nativeColumnTypes ?? {},
+      jniDriver: nativeJNIDriver ?? false,
+      slowQueryThresholdMs: nativeSlowQueryThreshold ?? 0,
+      groupCommitWindowMs: nativeGroupCommitWindow ?? -1,
+      changeFeed: nativeChangeFeed ?? false,
+      queryCacheMaxBytes: nativeQueryCacheSize ?? 0,
+      countCache: nativeCountCache ?? false,
+      kdfIterations: nativeKdfIterations ?? 0,
+      cacheDerivedKey: nativeCacheDerivedKey ?? false,
+      tuningProfile: nativeTuningProfile ?? null,
+      checkpointIdleMs: nativeCheckpointIdleTime ?? 0,
+      schemaTemplates: nativeSchemaTemplates ?? false,
+    }
+    this._subscriptions = []
+    // NOTE: Records are also evicted on memory pressure, even if cache size isn't limited
+    if (onNativeRecordCacheEviction && Platform.OS === 'android') {
+      this._subscriptions.push(
+        DeviceEventEmitter.addListener(
+          'WMDatabaseBridge.recordCacheEvicted',
+          ({ tag: eventTag, evicted }) => {
+            if (eventTag === this._tag) {
+              Object.keys(evicted).forEach((table) =>
+                onNativeRecordCacheEviction(table, evicted[table]),
+              )
+            }
+          },
+        ),
+      )
+    }
+    if (nativeChangeFeed && onNativeChanges && Platform.OS === 'android') {
+      this._subscriptions.push(
+        DeviceEventEmitter.addListener('WMDatabaseBridge.changes', ({ tag: eventTag, changes }) => {
+          if (eventTag === this._tag) {
+            onNativeChanges(changes)
+          }
+        }),
+      )
+    }
     if (process.env.NODE_ENV !== 'production') {
       invariant(
         this._bridge,
@@ -45,9 +109,53 @@ class SqliteNativeModulesDispatcher implements SqliteDispatcher {
   call(name: SqliteDispatcherMethod, _args: any[], callback: ResultCallback<any>): void {
     let methodName: string = name
     let args = _args
-    if (methodName === 'batch' && this._bridge.batchJSON) {
+    if (
+      (methodName === 'provideSyncJson' || methodName === 'unsafeLoadFromSync') &&
+      !this._bridge.unsafeLoadFromSync
+    ) {
+      callback({ error: new Error(`${methodName} unavailable. Use JSI mode to enable.`) })
+      return
+    } else if (
+      this._nativeOptions.jniDriver &&
+      [
+        'openQueryCursor',
+        'fetchQueryCursor',
+        'closeQueryCursor',
+        'provideSyncJson',
+        'unsafeLoadFromSync',
+      ].includes(methodName)
+    ) {
+      // NOTE: Not supported by the JNI driver (see WMDatabaseJNIDriver)
+      callback({ error: new Error(`${methodName} unavailable with experimentalNativeJNIDriver`) })
+      return
+    } else if (
+      ((methodName === 'getStats' ||
+        methodName === 'resetStats' ||
+        methodName === 'getSlowQueries') &&
+        !this._bridge.getStats) ||
+      (methodName === 'rekey' && !this._bridge.rekey) ||
+      (methodName === 'setTuningProfile' && !this._bridge.setTuningProfile)
+    ) {
+      callback({ error: new Error(`${methodName} unavailable on this platform`) })
+      return
+    } else if (methodName === 'provideSyncJson') {
+      // NOTE: sync json is not tied to a connection
+      fromPromise(this._bridge.provideSyncJsonToBridge(...args), callback)
+      return
+    } else if (methodName === 'unsafeLoadFromSync') {
+      // NOTE: Only column definitions are needed, and the rest of schema might not be bridgeable
+      const [jsonId, schema, preamble, postamble] = args
+      const tables = {}
+      Object.keys(schema.tables).forEach((table) => {
+        tables[table] = { columnArray: schema.tables[table].columnArray }
+      })
+      args = [jsonId, { tables }, preamble, postamble]
+    } else if (methodName === 'batch' && this._bridge.batchJSON) {
       methodName = 'batchJSON'
       args = [JSON.stringify(args[0])]
+    } else if (methodName === 'query' && this._bridge.queryAsArray) {
+      // NOTE: compressed format avoids sending column names over the bridge for every record
+      methodName = 'queryAsArray'
     } else if (
       ['initialize', 'setUpWithSchema', 'setUpWithMigrations'].includes(methodName) &&
       Platform.OS === 'android'
@@ -55,18 +163,88 @@ class SqliteNativeModulesDispatcher implements SqliteDispatcher {
       // FIXME: Hacky, refactor once native reuse isn't an "unsafe experimental" option
       args.push(this._password)
       args.push(this._unsafeNativeReuse)
+      args.push(this._nativeOptions)
+    }
+    let promise = this._bridge[methodName](this._tag, ...args)
+    if (['queryAsArray', 'query', 'queryIds', 'unsafeQueryRaw'].includes(methodName)) {
+      // NOTE: JNI driver returns query results as JSON, which is faster than bridge arrays
+      promise = promise.then((result) => (typeof result === 'string' ? JSON.parse(result) : result))
     }
-    fromPromise(this._bridge[methodName](this._tag, ...args), callback)
+    fromPromise(
+      methodName === 'queryAsArray' || methodName === 'fetchQueryCursor'
+        ? promise.then((result) => require('./decodeQueryResult').default(result))
+        : promise,
+      callback,
+    )
+  }
+
+  // Stops listening to native events - otherwise, the listeners (and this dispatcher) are never
+  // released
+  unsafeClose(): void {
+    this._subscriptions.forEach((subscription) => subscription.remove())
+    this._subscriptions = []
   }
 }
 
+// Methods after which native changes are checked (JSI)
+const WRITE_METHODS = [
+  'batchJSON',
+  'unsafeExecuteMultiple',
+  'unsafeLoadFromSync',
+  'unsafeResetDatabase',
+  'unsafeQueryRaw',
+]
+
 class SqliteJsiDispatcher implements SqliteDispatcher {
   _db: any
   _unsafeErrorListener: (Error) => void // debug hook for NT use
+  _onNativeRecordCacheEviction: ?(table: string, ids: string[]) => void
+  _onNativeChanges: ?(changes: NativeChanges) => void
 
-  constructor(dbName: string, { usesExclusiveLocking, password }: SqliteDispatcherOptions): void {
+  constructor(
+    dbName: string,
+    {
+      usesExclusiveLocking,
+      password,
+      nativeChangeFeed,
+      onNativeRecordCacheEviction,
+      onNativeChanges,
+    }: SqliteDispatcherOptions,
+  ): void {
     this._db = global.nativeWatermelonCreateAdapter(dbName, password ?? '', usesExclusiveLocking)
     this._unsafeErrorListener = () => {}
+    this._onNativeRecordCacheEviction = onNativeRecordCacheEviction
+    this._onNativeChanges = nativeChangeFeed ? onNativeChanges : null
+  }
+
+  // Native record cache can be trimmed on memory pressure. JS must be told about it before it
+  // receives results that depend on it, so evictions are checked after every fetch
+  _drainRecordCacheEvictions(): void {
+    const evicted = this._db.drainRecordCacheEvictions?.()
+    if (evicted && this._onNativeRecordCacheEviction) {
+      const onEviction = this._onNativeRecordCacheEviction
+      Object.keys(evicted).forEach((table) => onEviction(table, evicted[table]))
+    }
+  }
+
+  // NOTE: Changes are recorded once the database is set up, so setting it up isn't reported
+  _enableChangeFeed(methodName: string, result: any): void {
+    if (
+      (methodName === 'initialize' && result.code === 'ok') ||
+      methodName === 'setUpWithSchema' ||
+      methodName === 'setUpWithMigrations'
+    ) {
+      this._db.enableChangeFeed?.()
+    }
+  }
+
+  // Tells subscribers which records were changed by the last call - one call per transaction
+  _drainChanges(): void {
+    const commits = this._db.drainChanges?.()
+    if (commits && this._onNativeChanges) {
+      const onChanges = this._onNativeChanges
+      commits.forEach((changes) => onChanges(changes))
+    }
   }
 
   call(name: SqliteDispatcherMethod, _args: any[], callback: ResultCallback<any>): void {
@@ -85,6 +263,15 @@ class SqliteJsiDispatcher implements SqliteDispatcher {
       (methodName === 'provideSyncJson' || methodName === 'unsafeLoadFromSync')
     ) {
       callback({ error: new Error(`${methodName} unavailable on Windows. Please contribute.`) })
+    } else if (
+      methodName === 'getStats' ||
+      methodName === 'resetStats' ||
+      methodName === 'getSlowQueries' ||
+      methodName === 'rekey' ||
+      methodName === 'setTuningProfile'
+    ) {
+      callback({ error: new Error(`${methodName} unavailable in JSI mode`) })
+      return
     } else if (methodName === 'provideSyncJson') {
       fromPromise(WMDatabaseBridge.provideSyncJson(...args), callback)
       return
@@ -107,6 +294,16 @@ class SqliteJsiDispatcher implements SqliteDispatcher {
         if (methodName === 'queryAsArray') {
           result = require('./decodeQueryResult').default(result)
         }
+        if (methodName === 'find' || methodName === 'query' || methodName === 'queryAsArray') {
+          this._drainRecordCacheEvictions()
+        }
+        if (this._onNativeChanges) {
+          if (WRITE_METHODS.includes(methodName)) {
+            this._drainChanges()
+          } else {
+            this._enableChangeFeed(methodName, result)
+          }
+        }
         callback({ value: result })
       }
     } catch (error) {